@@ -0,0 +1,480 @@
+package de.muenchen.allg.itd51.wollmux;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.core.parser.SyntaxErrorException;
+
+/**
+ * Eine binäre Momentaufnahme der geparsten wollmux.conf.
+ *
+ * Das Parsen der wollmux.conf mit allen %includes dauert bei langsamen Servern mehrere Sekunden.
+ * Nach einem erfolgreichen Parsen wird deshalb der ConfigThingy-Baum zusammen mit einem Manifest
+ * aller beteiligten Dateien (wollmux.conf und alle %includes mit Änderungszeit, Größe und ETag)
+ * in {@link #SNAPSHOT_FILE} im .wollmux-Verzeichnis gespeichert. Das Manifest wird vor dem Parsen
+ * erfasst, so dass eine Datei, die sich während des Parsens ändert, beim nächsten Start als
+ * geändert erkannt wird. Beim nächsten Start wird die
+ * Momentaufnahme geladen und das Manifest parallel geprüft. Nur wenn sich eine Datei geändert
+ * hat, wird die wollmux.conf neu geparst.
+ *
+ * Ist die Prüfung nach {@link #VALIDATION_TIMEOUT} Millisekunden noch nicht abgeschlossen (z.B.
+ * weil der Server langsam ist), so wird die Momentaufnahme verwendet und im Hintergrund weiter
+ * geprüft. Wird dabei eine Änderung gefunden, so wird die Momentaufnahme im Hintergrund erneuert
+ * und beim nächsten Start verwendet.
+ */
+class ConfigSnapshot
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConfigSnapshot.class);
+
+  /**
+   * Der Name der Datei im .wollmux-Verzeichnis.
+   */
+  static final String SNAPSHOT_FILE = "wollmux.conf.snapshot";
+
+  private static final int MAGIC = 0x574d4353; // "WMCS"
+
+  private static final int VERSION = 1;
+
+  /**
+   * Maximale Wartezeit in Millisekunden auf die Prüfung des Manifests beim Start.
+   */
+  private static final long VALIDATION_TIMEOUT = 3000;
+
+  private static final int VALIDATION_THREADS = 8;
+
+  private static final Pattern INCLUDE =
+      Pattern.compile("%include\\s+(?:\"((?:[^\"]|\"\")*)\"|'((?:[^']|'')*)')");
+
+  private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+      VALIDATION_THREADS, new ThreadFactory()
+      {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r, "WollMux-ConfigSnapshot-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  private ConfigSnapshot()
+  {
+    // nur statische Methoden
+  }
+
+  /**
+   * Lädt die Momentaufnahme aus snapshotFile, wenn sie zu confURL passt und sich laut Manifest
+   * keine der beteiligten Dateien geändert hat. Sonst wird null geliefert und die wollmux.conf
+   * muss geparst werden.
+   */
+  static ConfigThingy load(File snapshotFile, URL confURL)
+  {
+    if (!snapshotFile.isFile())
+    {
+      return null;
+    }
+
+    long start = System.currentTimeMillis();
+    List<ManifestEntry> manifest = new ArrayList<>();
+    ConfigThingy conf;
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(snapshotFile.toPath()))))
+    {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || !confURL.toExternalForm().equals(readString(in)))
+      {
+        return null;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++)
+      {
+        manifest.add(ManifestEntry.read(in));
+      }
+      conf = readNode(in);
+    } catch (IOException | RuntimeException e)
+    {
+      LOGGER.info("Die Momentaufnahme der wollmux.conf kann nicht gelesen werden.", e);
+      return null;
+    }
+
+    CompletableFuture<Boolean> valid = validate(manifest);
+    try
+    {
+      if (!valid.get(VALIDATION_TIMEOUT, TimeUnit.MILLISECONDS))
+      {
+        LOGGER.debug("wollmux.conf wurde geändert, die Momentaufnahme wird verworfen.");
+        return null;
+      }
+    } catch (TimeoutException e)
+    {
+      LOGGER.info("Prüfung der wollmux.conf dauert zu lange, verwende die Momentaufnahme.");
+      valid.thenAccept(ok -> {
+        if (!ok)
+        {
+          LOGGER.info("wollmux.conf wurde geändert, die Momentaufnahme wird erneuert.");
+          refresh(snapshotFile, confURL);
+        }
+      });
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e)
+    {
+      LOGGER.debug("", e);
+      return null;
+    }
+
+    LOGGER.debug("Momentaufnahme der wollmux.conf in {}ms geladen",
+        System.currentTimeMillis() - start);
+    return conf;
+  }
+
+  /**
+   * Parst die wollmux.conf von confURL und schreibt das Ergebnis im Hintergrund als
+   * Momentaufnahme nach snapshotFile. Kann das Manifest nicht erfasst werden, wird keine
+   * Momentaufnahme geschrieben.
+   */
+  static ConfigThingy parse(File snapshotFile, URL confURL)
+      throws IOException, SyntaxErrorException
+  {
+    List<ManifestEntry> manifest = captureManifest(confURL);
+    ConfigThingy conf = new ConfigThingy("wollmuxConf", confURL);
+    if (manifest != null)
+    {
+      EXECUTOR.execute(() -> write(snapshotFile, confURL, manifest, conf));
+    } else
+    {
+      snapshotFile.delete();
+    }
+    return conf;
+  }
+
+  private static void refresh(File snapshotFile, URL confURL)
+  {
+    try
+    {
+      List<ManifestEntry> manifest = captureManifest(confURL);
+      if (manifest == null)
+      {
+        snapshotFile.delete();
+        return;
+      }
+      ConfigThingy conf = new ConfigThingy("wollmuxConf", confURL);
+      write(snapshotFile, confURL, manifest, conf);
+    } catch (Exception e)
+    {
+      LOGGER.info("Die Momentaufnahme der wollmux.conf kann nicht erneuert werden.", e);
+      snapshotFile.delete();
+    }
+  }
+
+  /**
+   * Ermittelt confURL und alle %includes mit ihrem aktuellen Stand. Liefert null, wenn eine der
+   * Dateien nicht gelesen werden kann.
+   */
+  private static List<ManifestEntry> captureManifest(URL confURL)
+  {
+    try
+    {
+      List<ManifestEntry> manifest = new ArrayList<>();
+      for (URL url : collectIncludes(confURL))
+      {
+        manifest.add(ManifestEntry.of(url));
+      }
+      return manifest;
+    } catch (IOException | RuntimeException e)
+    {
+      LOGGER.info("Das Manifest der wollmux.conf kann nicht erfasst werden.", e);
+      return null;
+    }
+  }
+
+  private static void write(File snapshotFile, URL confURL, List<ManifestEntry> manifest,
+      ConfigThingy conf)
+  {
+    File tmp = null;
+    try
+    {
+      tmp = File.createTempFile(SNAPSHOT_FILE, ".tmp", snapshotFile.getParentFile());
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmp.toPath()))))
+      {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, confURL.toExternalForm());
+        out.writeInt(manifest.size());
+        for (ManifestEntry entry : manifest)
+        {
+          entry.write(out);
+        }
+        writeNode(out, conf);
+      }
+      try
+      {
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e)
+      {
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      LOGGER.debug("Momentaufnahme der wollmux.conf mit {} Dateien geschrieben",
+          manifest.size());
+    } catch (IOException | RuntimeException e)
+    {
+      LOGGER.info("Die Momentaufnahme der wollmux.conf kann nicht geschrieben werden.", e);
+      if (tmp != null)
+      {
+        tmp.delete();
+      }
+      snapshotFile.delete();
+    }
+  }
+
+  /**
+   * Prüft alle Einträge des Manifests parallel. Liefert false, sobald sich eine Datei geändert
+   * hat oder nicht geprüft werden kann.
+   */
+  private static CompletableFuture<Boolean> validate(List<ManifestEntry> manifest)
+  {
+    List<CompletableFuture<Boolean>> checks = new ArrayList<>();
+    for (ManifestEntry entry : manifest)
+    {
+      checks.add(CompletableFuture.supplyAsync(entry::isUnchanged, EXECUTOR));
+    }
+    return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[checks.size()]))
+        .thenApply(v -> checks.stream().allMatch(CompletableFuture::join));
+  }
+
+  /**
+   * Liefert confURL und alle direkt und indirekt per %include eingebundenen URLs.
+   */
+  private static Set<URL> collectIncludes(URL confURL) throws IOException
+  {
+    Set<String> seen = new LinkedHashSet<>();
+    Set<URL> urls = new LinkedHashSet<>();
+    Deque<URL> todo = new ArrayDeque<>();
+    todo.add(confURL);
+    while (!todo.isEmpty())
+    {
+      URL url = todo.poll();
+      if (!seen.add(url.toExternalForm()))
+      {
+        continue;
+      }
+      urls.add(url);
+
+      String text;
+      try (InputStream in = url.openStream())
+      {
+        text = new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+      }
+      for (String line : text.split("\\r?\\n"))
+      {
+        int comment = line.indexOf('#');
+        Matcher m = INCLUDE.matcher(line);
+        while (m.find())
+        {
+          if (comment >= 0 && comment < m.start())
+          {
+            break;
+          }
+          String inc = m.group(1) != null ? m.group(1).replace("\"\"", "\"")
+              : m.group(2).replace("''", "'");
+          todo.add(new URL(url, ConfigThingy.urlEncode(inc)));
+        }
+      }
+    }
+    return urls;
+  }
+
+  private static void writeNode(DataOutputStream out, ConfigThingy node) throws IOException
+  {
+    writeString(out, node.getName());
+    out.writeInt(node.count());
+    for (ConfigThingy child : node)
+    {
+      writeNode(out, child);
+    }
+  }
+
+  private static ConfigThingy readNode(DataInputStream in) throws IOException
+  {
+    ConfigThingy node = new ConfigThingy(readString(in));
+    int count = in.readInt();
+    for (int i = 0; i < count; i++)
+    {
+      node.addChild(readNode(in));
+    }
+    return node;
+  }
+
+  /**
+   * Schreibt s als Länge und UTF-8-Bytes (writeUTF ist auf 64kB beschränkt). null wird als
+   * Länge -1 geschrieben.
+   */
+  private static void writeString(DataOutputStream out, String s) throws IOException
+  {
+    if (s == null)
+    {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException
+  {
+    int length = in.readInt();
+    if (length < 0)
+    {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Eine Datei, aus der die Konfiguration gelesen wurde, mit den Angaben zur Prüfung auf
+   * Änderungen.
+   */
+  private static class ManifestEntry
+  {
+    private final String url;
+
+    private final long lastModified;
+
+    private final long length;
+
+    private final String etag;
+
+    private ManifestEntry(String url, long lastModified, long length, String etag)
+    {
+      this.url = url;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.etag = etag;
+    }
+
+    static ManifestEntry of(URL url) throws IOException
+    {
+      Path path = toPath(url);
+      if (path != null)
+      {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return new ManifestEntry(url.toExternalForm(), attrs.lastModifiedTime().toMillis(),
+            attrs.size(), null);
+      }
+
+      URLConnection conn = url.openConnection();
+      try
+      {
+        if (conn instanceof HttpURLConnection)
+        {
+          ((HttpURLConnection) conn).setRequestMethod("HEAD");
+        }
+        return new ManifestEntry(url.toExternalForm(), conn.getLastModified(),
+            conn.getContentLengthLong(), conn.getHeaderField("ETag"));
+      } finally
+      {
+        if (conn instanceof HttpURLConnection)
+        {
+          ((HttpURLConnection) conn).disconnect();
+        }
+      }
+    }
+
+    /**
+     * Liefert true, wenn die Datei noch dieselbe ist. Ohne ETag, Last-Modified und Länge kann
+     * dies nicht festgestellt werden, dann wird false geliefert.
+     */
+    boolean isUnchanged()
+    {
+      if (etag == null && lastModified <= 0 && length < 0)
+      {
+        return false;
+      }
+      try
+      {
+        ManifestEntry current = of(new URL(url));
+        return lastModified == current.lastModified && length == current.length
+            && Objects.equals(etag, current.etag);
+      } catch (IOException e)
+      {
+        LOGGER.debug("", e);
+        return false;
+      }
+    }
+
+    static ManifestEntry read(DataInputStream in) throws IOException
+    {
+      return new ManifestEntry(readString(in), in.readLong(), in.readLong(), readString(in));
+    }
+
+    void write(DataOutputStream out) throws IOException
+    {
+      writeString(out, url);
+      out.writeLong(lastModified);
+      out.writeLong(length);
+      writeString(out, etag);
+    }
+
+    private static Path toPath(URL url)
+    {
+      if (!"file".equalsIgnoreCase(url.getProtocol()))
+      {
+        return null;
+      }
+      try
+      {
+        return Paths.get(url.toURI());
+      } catch (URISyntaxException | IllegalArgumentException e)
+      {
+        return null;
+      }
+    }
+  }
+}
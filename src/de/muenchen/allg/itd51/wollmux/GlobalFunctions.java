@@ -28,7 +28,7 @@ public class GlobalFunctions
    */
   private PrintFunctionLibrary globalPrintFunctions;
   
-  public static GlobalFunctions getInstance()
+  public static synchronized GlobalFunctions getInstance()
   {
     if (instance == null)
       instance = new GlobalFunctions();
@@ -31,9 +31,13 @@
 
 package de.muenchen.allg.itd51.wollmux;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,16 +60,36 @@ public class Shortcuts
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Shortcuts.class);
 
+  /**
+   * Der Abschnitt in {@link StartupFingerprint}.
+   */
+  private static final String FINGERPRINT_SECTION = "Tastenkuerzel";
+
   /**
    * Liest alle Attribute SHORTCUT und URL aus tastenkombinationenConf aus, löscht
    * alle bisher vorhandenen Tastenkombinationen deren URL mit "wollmux:" beginnt und
    * setzt neue Tastenkombination in OOo-Writer.
    *
+   * Sind die Tastenkombinationen seit dem letzten Start unverändert (siehe
+   * {@link StartupFingerprint}) und noch gesetzt, wird nichts geschrieben. Sonst
+   * werden nur die entfallenen Tastenkombinationen gelöscht und die neuen bzw.
+   * geänderten gesetzt. Nur wenn noch kein Fingerabdruck existiert, werden wie
+   * bisher alle Tastenkombinationen durchsucht.
+   *
    * @param tastenkombinationenConf
    *          .conf Abschnitt Tastenkuerzel mit allen Knoten
    */
   public static void createShortcuts(ConfigThingy tastenkombinationenConf)
   {
+    Map<String, String> shortcuts = readShortcuts(tastenkombinationenConf);
+    List<String> entries = new ArrayList<>();
+    for (Map.Entry<String, String> entry : shortcuts.entrySet())
+    {
+      entries.add(entry.getKey() + "=" + entry.getValue());
+    }
+    String fingerprint = StartupFingerprint.fingerprint(entries);
+    StartupFingerprint fingerprints = StartupFingerprint.getInstance();
+
     XAcceleratorConfiguration shortcutManager = null;
      try
     {
@@ -77,8 +101,76 @@ public class Shortcuts
       return;
     }
 
-    // löschen aller KeyEvents die mit "wollmux:" beginnen
-    removeComandFromAllKeyEvents(shortcutManager);
+    Set<String> applied = fingerprints.getApplied(FINGERPRINT_SECTION);
+    if (applied == null)
+    {
+      // löschen aller KeyEvents die mit "wollmux:" beginnen
+      removeComandFromAllKeyEvents(shortcutManager);
+    }
+    else if (fingerprints.matches(FINGERPRINT_SECTION, fingerprint)
+        && allSet(shortcutManager, shortcuts))
+    {
+      LOGGER.debug("Tastenkuerzel unverändert");
+      return;
+    }
+    else
+    {
+      // nur die nicht mehr konfigurierten Tastenkombinationen löschen
+      for (String entry : applied)
+      {
+        String keyId = entry.substring(0, Math.max(0, entry.indexOf('=')));
+        if (!shortcuts.containsKey(keyId))
+        {
+          removeWollMuxKeyEvent(shortcutManager, keyId);
+        }
+      }
+    }
+
+    boolean allApplied = true;
+    for (Map.Entry<String, String> entry : shortcuts.entrySet())
+    {
+      KeyEvent keyEvent = fromKeyId(entry.getKey());
+      if (applied != null && entry.getValue().equals(getCommand(shortcutManager, keyEvent)))
+      {
+        continue;
+      }
+      // setzen der Tastenkombination mit KeyEvent und WollMux-Url
+      try
+      {
+        shortcutManager.setKeyEvent(keyEvent, entry.getValue());
+      }
+      catch (Exception e)
+      {
+        LOGGER.error("", e);
+        allApplied = false;
+      }
+    }
+
+    // Änderung Persistent machen
+    try
+    {
+      if (UNO.XUIConfigurationPersistence(shortcutManager) != null)
+      {
+        UNO.XUIConfigurationPersistence(shortcutManager).store();
+      }
+    }
+    catch (Exception e)
+    {
+      LOGGER.error("", e);
+      allApplied = false;
+    }
+
+    fingerprints.update(FINGERPRINT_SECTION, allApplied ? fingerprint : null, entries);
+  }
+
+  /**
+   * Liest die gültigen Tastenkombinationen aus tastenkombinationenConf, abgebildet von der
+   * Kennung des KeyEvents (siehe {@link #toKeyId(KeyEvent)}) auf die URL. Bei mehrfach
+   * belegten Tastenkombinationen gewinnt wie bisher die letzte.
+   */
+  private static Map<String, String> readShortcuts(ConfigThingy tastenkombinationenConf)
+  {
+    Map<String, String> shortcuts = new LinkedHashMap<>();
 
     // lesen des Knoten SHORTCUT
     ConfigThingy shortcutConf = tastenkombinationenConf.queryByChild("SHORTCUT");
@@ -119,15 +211,10 @@ public class Shortcuts
       KeyEvent keyEvent = createKeyEvent(shortcut);
       if (keyEvent != null)
       {
-        // setzen der Tastenkombination mit KeyEvent und WollMux-Url
-        try
-        {
-          shortcutManager.setKeyEvent(keyEvent, url);
-        }
-        catch (Exception e)
-        {
-          LOGGER.error("", e);
-        }
+        String keyId = toKeyId(keyEvent);
+        // Reihenfolge wie beim Setzen: eine spätere Belegung ersetzt die frühere
+        shortcuts.remove(keyId);
+        shortcuts.put(keyId, url);
       }
       else
       {
@@ -136,18 +223,91 @@ public class Shortcuts
           shortcut));
       }
     }
+    return shortcuts;
+  }
 
-    // Änderung Persistent machen
-    try
+  /**
+   * Liefert true, wenn alle Tastenkombinationen aus shortcuts mit der richtigen URL
+   * gesetzt sind.
+   */
+  private static boolean allSet(XAcceleratorConfiguration shortcutManager,
+      Map<String, String> shortcuts)
+  {
+    for (Map.Entry<String, String> entry : shortcuts.entrySet())
     {
-      if (UNO.XUIConfigurationPersistence(shortcutManager) != null)
+      if (!entry.getValue().equals(getCommand(shortcutManager, fromKeyId(entry.getKey()))))
       {
-        UNO.XUIConfigurationPersistence(shortcutManager).store();
+        return false;
       }
     }
-    catch (Exception e)
+    return true;
+  }
+
+  /**
+   * Löscht die Tastenkombination keyId, falls sie noch mit einer URL belegt ist, die mit
+   * "wollmux:" beginnt.
+   */
+  private static void removeWollMuxKeyEvent(XAcceleratorConfiguration shortcutManager,
+      String keyId)
+  {
+    KeyEvent keyEvent = fromKeyId(keyId);
+    String command = keyEvent != null ? getCommand(shortcutManager, keyEvent) : null;
+    if (command != null && command.startsWith("wollmux:"))
     {
-      LOGGER.error("", e);
+      try
+      {
+        shortcutManager.removeKeyEvent(keyEvent);
+      }
+      catch (NoSuchElementException e)
+      {
+        LOGGER.debug("", e);
+      }
+    }
+  }
+
+  /**
+   * Liefert die URL, mit der keyEvent belegt ist, oder null.
+   */
+  private static String getCommand(XAcceleratorConfiguration shortcutManager,
+      KeyEvent keyEvent)
+  {
+    try
+    {
+      return shortcutManager.getCommandByKeyEvent(keyEvent);
+    }
+    catch (NoSuchElementException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Liefert eine Kennung für keyEvent, aus der es mit {@link #fromKeyId(String)} wieder erzeugt
+   * werden kann.
+   */
+  private static String toKeyId(KeyEvent keyEvent)
+  {
+    return keyEvent.Modifiers + ":" + keyEvent.KeyCode;
+  }
+
+  private static KeyEvent fromKeyId(String keyId)
+  {
+    int idx = keyId.indexOf(':');
+    if (idx < 0)
+    {
+      return null;
+    }
+    try
+    {
+      KeyEvent key = new KeyEvent();
+      key.Modifiers = Short.parseShort(keyId.substring(0, idx));
+      key.KeyCode = Short.parseShort(keyId.substring(idx + 1));
+      key.KeyFunc = KeyFunction.DONTKNOW;
+      return key;
+    }
+    catch (NumberFormatException e)
+    {
+      return null;
     }
   }
 
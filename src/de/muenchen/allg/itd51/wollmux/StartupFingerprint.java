@@ -0,0 +1,149 @@
+package de.muenchen.allg.itd51.wollmux;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Merkt sich, welche Einstellungen der Abschnitte Tastenkuerzel und OOoEinstellungen beim
+ * letzten Start in das LibreOffice-Benutzerprofil geschrieben wurden.
+ *
+ * Je Abschnitt werden ein Fingerabdruck der wirksamen Einträge und die Einträge selbst in
+ * {@link #FILE} im .wollmux-Verzeichnis gespeichert. Stimmt der Fingerabdruck beim nächsten Start
+ * überein, muss nichts geschrieben werden; sonst werden nur die hinzugekommenen bzw. entfallenen
+ * Einträge angewendet.
+ */
+public class StartupFingerprint
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(StartupFingerprint.class);
+
+  /**
+   * Der Name der Datei im .wollmux-Verzeichnis.
+   */
+  public static final String FILE = "startup.fingerprint";
+
+  private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+
+  private static final String ENTRIES_SUFFIX = ".entries";
+
+  private static StartupFingerprint instance;
+
+  private final File file;
+
+  private final Properties props = new Properties();
+
+  private StartupFingerprint(File file)
+  {
+    this.file = file;
+    if (file != null && file.isFile())
+    {
+      try (InputStream in = Files.newInputStream(file.toPath()))
+      {
+        props.load(in);
+      } catch (IOException e)
+      {
+        LOGGER.info("{} kann nicht gelesen werden.", file, e);
+        props.clear();
+      }
+    }
+  }
+
+  /**
+   * Liefert die Fingerabdrücke aus dem .wollmux-Verzeichnis.
+   */
+  public static synchronized StartupFingerprint getInstance()
+  {
+    if (instance == null)
+    {
+      File dir = WollMuxFiles.getWollMuxDir();
+      instance = new StartupFingerprint(dir != null ? new File(dir, FILE) : null);
+    }
+    return instance;
+  }
+
+  /**
+   * Berechnet den Fingerabdruck der Einträge entries. Die Reihenfolge ist relevant.
+   */
+  public static String fingerprint(List<String> entries)
+  {
+    return Hashing.sha256().hashString(String.join("\n", entries), StandardCharsets.UTF_8)
+        .toString();
+  }
+
+  /**
+   * Liefert true, wenn für section zuletzt der Fingerabdruck fingerprint gespeichert wurde.
+   */
+  public synchronized boolean matches(String section, String fingerprint)
+  {
+    return fingerprint.equals(props.getProperty(section + FINGERPRINT_SUFFIX));
+  }
+
+  /**
+   * Liefert die zuletzt für section angewendeten Einträge oder null, wenn es keine gespeicherten
+   * Einträge gibt.
+   */
+  public synchronized Set<String> getApplied(String section)
+  {
+    String entries = props.getProperty(section + ENTRIES_SUFFIX);
+    if (entries == null)
+    {
+      return null;
+    }
+    if (entries.isEmpty())
+    {
+      return Collections.emptySet();
+    }
+    return new LinkedHashSet<>(Arrays.asList(entries.split("\n")));
+  }
+
+  /**
+   * Speichert fingerprint und die angewendeten Einträge applied für section. Konnten nicht alle
+   * Einträge angewendet werden, sollte fingerprint null sein, damit die fehlenden Einträge beim
+   * nächsten Start erneut versucht werden.
+   */
+  public synchronized void update(String section, String fingerprint, Collection<String> applied)
+  {
+    if (fingerprint != null)
+    {
+      props.setProperty(section + FINGERPRINT_SUFFIX, fingerprint);
+    }
+    else
+    {
+      props.remove(section + FINGERPRINT_SUFFIX);
+    }
+    props.setProperty(section + ENTRIES_SUFFIX, String.join("\n", new ArrayList<>(applied)));
+    if (file == null)
+    {
+      return;
+    }
+    try
+    {
+      File tmp = File.createTempFile(FILE, ".tmp", file.getParentFile());
+      try (OutputStream out = Files.newOutputStream(tmp.toPath()))
+      {
+        props.store(out, null);
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e)
+    {
+      LOGGER.error("{} kann nicht geschrieben werden.", file, e);
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package de.muenchen.allg.itd51.wollmux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Führt die Phasen des WollMux-Starts entsprechend ihrer Abhängigkeiten aus und protokolliert
+ * ihren zeitlichen Ablauf.
+ *
+ * Phasen werden entweder sofort im aufrufenden Thread ausgeführt ({@link #run(String, Supplier)}),
+ * im Hintergrund, sobald ihre Abhängigkeiten erledigt sind ({@link #submit(String, Supplier,
+ * CompletableFuture...)}), oder erst nach dem ersten OnViewCreated ({@link #defer(String,
+ * Runnable, CompletableFuture...)}). Eine Phase, die mit einer Exception endet, wird protokolliert
+ * und gilt trotzdem als erledigt, so dass abhängige Phasen wie bisher weiterlaufen.
+ *
+ * Sobald alle Phasen erledigt sind, wird der Ablauf ins Log geschrieben. Er ist außerdem über
+ * {@link #getTimeline()} im Dump (OnDumpInfo) enthalten.
+ */
+public class StartupPhases
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(StartupPhases.class);
+
+  private static final int THREADS = 4;
+
+  /**
+   * Spätestens nach dieser Zeit in Sekunden werden die zurückgestellten Phasen auch dann
+   * gestartet, wenn kein Dokument geöffnet wurde.
+   */
+  private static final long DEFERRED_TIMEOUT = 30;
+
+  private final long start = System.nanoTime();
+
+  private final ExecutorService executor;
+
+  private final CompletableFuture<Void> deferredTrigger = new CompletableFuture<>();
+
+  private final List<CompletableFuture<?>> phases = new ArrayList<>();
+
+  private final List<String> timeline = new ArrayList<>();
+
+  StartupPhases()
+  {
+    AtomicInteger count = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(THREADS, r -> {
+      Thread t = new Thread(r, "WollMux-Startup-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Führt die Phase name sofort im aufrufenden Thread aus und liefert ihr Ergebnis.
+   */
+  <T> T run(String name, Supplier<T> action)
+  {
+    return execute(name, action);
+  }
+
+  /**
+   * Führt die Phase name im Hintergrund aus, sobald alle dependencies erledigt sind.
+   */
+  <T> CompletableFuture<T> submit(String name, Supplier<T> action,
+      CompletableFuture<?>... dependencies)
+  {
+    CompletableFuture<T> phase = CompletableFuture
+        .allOf(dependencies)
+        .thenApplyAsync(v -> execute(name, action), executor);
+    synchronized (phases)
+    {
+      phases.add(phase);
+    }
+    return phase;
+  }
+
+  /**
+   * Führt die Phase name im Hintergrund aus, sobald alle dependencies erledigt sind und
+   * {@link #startDeferred()} aufgerufen wurde.
+   */
+  CompletableFuture<Void> defer(String name, Runnable action,
+      CompletableFuture<?>... dependencies)
+  {
+    CompletableFuture<?>[] all = Arrays.copyOf(dependencies, dependencies.length + 1);
+    all[dependencies.length] = deferredTrigger;
+    return submit(name, () -> {
+      action.run();
+      return null;
+    }, all);
+  }
+
+  /**
+   * Wartet auf das Ende der Phase phase und liefert ihr Ergebnis.
+   */
+  <T> T await(CompletableFuture<T> phase)
+  {
+    try
+    {
+      return phase.get();
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e)
+    {
+      LOGGER.error("", e);
+    }
+    return null;
+  }
+
+  /**
+   * Startet die mit {@link #defer(String, Runnable, CompletableFuture...)} zurückgestellten
+   * Phasen. Weitere Aufrufe haben keine Wirkung.
+   */
+  public void startDeferred()
+  {
+    deferredTrigger.complete(null);
+  }
+
+  /**
+   * Muss aufgerufen werden, nachdem alle Phasen angemeldet wurden. Schreibt den Ablauf ins Log,
+   * sobald alle Phasen erledigt sind.
+   */
+  void finish()
+  {
+    CompletableFuture<?>[] all;
+    synchronized (phases)
+    {
+      all = phases.toArray(new CompletableFuture<?>[phases.size()]);
+    }
+    CompletableFuture.allOf(all).whenComplete((v, t) -> {
+      LOGGER.info("WollMux-Start:\n{}", getTimeline());
+      executor.shutdown();
+    });
+    executor.execute(() -> {
+      try
+      {
+        deferredTrigger.get(DEFERRED_TIMEOUT, TimeUnit.SECONDS);
+      } catch (TimeoutException e)
+      {
+        LOGGER.debug("Kein OnViewCreated, starte zurückgestellte Phasen.");
+        startDeferred();
+      } catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e)
+      {
+        LOGGER.debug("", e);
+      }
+    });
+  }
+
+  /**
+   * Liefert den bisherigen Ablauf des Starts, eine Zeile pro Phase mit Startzeitpunkt (relativ
+   * zum Beginn des Starts), Dauer und Thread.
+   */
+  public String getTimeline()
+  {
+    synchronized (timeline)
+    {
+      return String.join("\n", timeline);
+    }
+  }
+
+  private <T> T execute(String name, Supplier<T> action)
+  {
+    long phaseStart = System.nanoTime();
+    String status = "ok";
+    T result = null;
+    try
+    {
+      result = action.get();
+    } catch (Exception e)
+    {
+      status = "failed";
+      LOGGER.error(name, e);
+    }
+    long end = System.nanoTime();
+    String line = String.format("%6dms +%6dms  %-28s %-22s %s",
+        TimeUnit.NANOSECONDS.toMillis(phaseStart - start),
+        TimeUnit.NANOSECONDS.toMillis(end - phaseStart), name,
+        Thread.currentThread().getName(), status);
+    synchronized (timeline)
+    {
+      timeline.add(line);
+    }
+    LOGGER.debug("Startphase {}", line);
+    return result;
+  }
+}
@@ -0,0 +1,95 @@
+package de.muenchen.allg.itd51.wollmux;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.document.VisibleTextFragmentList;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.core.parser.InvalidIdentifierException;
+
+/**
+ * Index der Textfragmente der wollmux.conf, der zu einer FRAG_ID die URLs liefert.
+ *
+ * {@link VisibleTextFragmentList#getURLsByID(ConfigThingy, String)} durchläuft bei jedem Aufruf
+ * alle Textfragmente-Abschnitte der wollmux.conf und expandiert die Variablen. Der Index merkt
+ * sich das Ergebnis je FRAG_ID, so dass dies für jede FRAG_ID nur einmal geschieht. Die
+ * Auflösung selbst (inklusive Überschreiben von Fragmenten und Variablen) wird weiterhin von
+ * VisibleTextFragmentList erledigt, damit sich die Semantik nicht ändert.
+ *
+ * Wird die wollmux.conf neu eingelesen, muss der Index mit {@link #rebuild(ConfigThingy)} neu
+ * aufgebaut werden. Zur Sicherheit wird er auch verworfen, wenn
+ * {@link WollMuxFiles#getWollmuxConf()} ein anderes Objekt liefert als beim Aufbau.
+ */
+public class TextFragmentIndex
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(TextFragmentIndex.class);
+
+  private static ConfigThingy indexedConf;
+
+  private static final Map<String, List<String>> urlsByID = new ConcurrentHashMap<>();
+
+  private static final AtomicLong hits = new AtomicLong();
+
+  private static final AtomicLong misses = new AtomicLong();
+
+  private TextFragmentIndex()
+  {
+    // nur statische Methoden
+  }
+
+  /**
+   * Verwirft alle bisher aufgelösten FRAG_IDs und baut den Index für conf neu auf.
+   */
+  public static synchronized void rebuild(ConfigThingy conf)
+  {
+    urlsByID.clear();
+    indexedConf = conf;
+    LOGGER.debug("Textfragment-Index zurückgesetzt");
+  }
+
+  /**
+   * Liefert die URLs des Textfragments fragId aus der wollmux.conf (siehe
+   * {@link VisibleTextFragmentList#getURLsByID(ConfigThingy, String)}). Die gelieferte Liste
+   * ist nicht veränderbar.
+   *
+   * @throws InvalidIdentifierException
+   *           falls fragId keine gültige FRAG_ID ist.
+   */
+  public static List<String> getURLsByID(String fragId) throws InvalidIdentifierException
+  {
+    ConfigThingy conf = WollMuxFiles.getWollmuxConf();
+    synchronized (TextFragmentIndex.class)
+    {
+      if (conf != indexedConf)
+      {
+        rebuild(conf);
+      }
+    }
+
+    List<String> urls = urlsByID.get(fragId);
+    if (urls != null)
+    {
+      hits.incrementAndGet();
+      return urls;
+    }
+
+    misses.incrementAndGet();
+    urls = Collections.unmodifiableList(VisibleTextFragmentList.getURLsByID(conf, fragId));
+    urlsByID.put(fragId, urls);
+    return urls;
+  }
+
+  /**
+   * Liefert Größe und Trefferquote des Index für den Dump.
+   */
+  public static String getStatistics()
+  {
+    return "entries=" + urlsByID.size() + ", hits=" + hits.get() + ", misses=" + misses.get();
+  }
+}
@@ -77,9 +77,13 @@ import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Enumeration;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
@@ -116,8 +120,17 @@ import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.core.util.LogConfig;
 import de.muenchen.allg.itd51.wollmux.core.util.Utils;
+import de.muenchen.allg.itd51.wollmux.db.LosCachePersister;
+import de.muenchen.allg.itd51.wollmux.db.SenderSnapshot;
 import de.muenchen.allg.itd51.wollmux.dialog.Common;
 import de.muenchen.allg.itd51.wollmux.dialog.InfoDialog;
+import de.muenchen.allg.itd51.wollmux.document.DocumentLoader;
+import de.muenchen.allg.itd51.wollmux.document.FormDependencyIndex;
+import de.muenchen.allg.itd51.wollmux.document.TrafoResultCache;
+import de.muenchen.allg.itd51.wollmux.event.DispatchMethodRegistry;
+import de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler;
+import de.muenchen.allg.itd51.wollmux.event.WollMuxEventScheduler;
+import de.muenchen.allg.itd51.wollmux.print.PrintFunctionExecutor;
 
 /**
  *
@@ -273,8 +286,19 @@ public class WollMuxFiles
       fido.start();
       try
       {
-        wollmuxConf =
-          new ConfigThingy("wollmuxConf", wollmuxConfFile.toURI().toURL());
+        // Zuerst die Momentaufnahme der letzten erfolgreich geparsten
+        // wollmux.conf versuchen, siehe ConfigSnapshot.
+        URL confURL = wollmuxConfFile.toURI().toURL();
+        File snapshotFile = new File(wollmuxDir, ConfigSnapshot.SNAPSHOT_FILE);
+        ConfigThingy snapshot = ConfigSnapshot.load(snapshotFile, confURL);
+        if (snapshot != null)
+        {
+          wollmuxConf = snapshot;
+        }
+        else
+        {
+          wollmuxConf = ConfigSnapshot.parse(snapshotFile, confURL);
+        }
       }
       catch (Exception e)
       {
@@ -308,6 +332,8 @@ public class WollMuxFiles
 
     determineDefaultContext();
 
+    TextFragmentIndex.rebuild(getWollmuxConf());
+
     initDebugMode();
 
     try
@@ -789,6 +815,59 @@ public class WollMuxFiles
 
       out.write("===================== END java-memoryinfo ==================\n");
 
+      out.write("===================== START print function statistics ==================\n");
+      for (Map.Entry<String, PrintFunctionExecutor.StageStatistics> stage : PrintFunctionExecutor
+          .getStageStatistics().entrySet())
+      {
+        out.write(stage.getKey() + ": " + stage.getValue() + "\n");
+      }
+      out.write("===================== END print function statistics ==================\n");
+
+      out.write("===================== START event statistics ==================\n");
+      for (Map.Entry<String, WollMuxEventScheduler.EventStatistics> stats : WollMuxEventHandler
+          .getInstance().getEventStatistics().entrySet())
+      {
+        out.write(stats.getKey() + ": " + stats.getValue() + "\n");
+      }
+      out.write("===================== END event statistics ==================\n");
+
+      out.write("===================== START dispatch statistics ==================\n");
+      for (Map.Entry<String, DispatchMethodRegistry.DispatchStatistics> stats : DispatchMethodRegistry
+          .getDispatchStatistics().entrySet())
+      {
+        out.write(stats.getKey() + ": " + stats.getValue() + "\n");
+      }
+      out.write("===================== END dispatch statistics ==================\n");
+
+      out.write("===================== START startup timeline ==================\n");
+      if (WollMuxSingleton.getInstance() != null)
+      {
+        out.write(WollMuxSingleton.getInstance().getStartupPhases().getTimeline() + "\n");
+      }
+      out.write("===================== END startup timeline ==================\n");
+
+      out.write("===================== START template cache ==================\n");
+      out.write(DocumentLoader.getInstance().getStatistics() + "\n");
+      out.write("===================== END template cache ==================\n");
+
+      out.write("===================== START text fragment index ==================\n");
+      out.write(TextFragmentIndex.getStatistics() + "\n");
+      out.write("===================== END text fragment index ==================\n");
+
+      out.write("===================== START form dependencies ==================\n");
+      out.write(FormDependencyIndex.getStatistics() + "\n");
+      out.write("===================== END form dependencies ==================\n");
+
+      out.write("===================== START trafo cache ==================\n");
+      out.write(TrafoResultCache.getStatistics() + "\n");
+      out.write("===================== END trafo cache ==================\n");
+      out.write("===================== START sender snapshot ==================\n");
+      out.write(SenderSnapshot.getStatistics() + "\n");
+      out.write("===================== END sender snapshot ==================\n");
+      out.write("===================== START los cache persister ==================\n");
+      out.write(LosCachePersister.getStatistics() + "\n");
+      out.write("===================== END los cache persister ==================\n");
+
       out.write("===================== START wollmuxConfFile ==================\n");
       out.flush(); // weil wir gleich direkt auf den Stream zugreifen
       if (getWollMuxConfFile() != null)
@@ -804,6 +883,7 @@ public class WollMuxFiles
       out.write("===================== END wollmux.conf ==================\n");
 
       out.write("===================== START losCacheFile ==================\n");
+      LosCachePersister.getInstance().flush();
       out.flush(); // weil wir gleich direkt auf den Stream zugreifen
       copyFile(getLosCacheFile(), outStream);
       outStream.flush(); // sollte nicht nötig sein, schadet aber nicht
@@ -1026,16 +1106,28 @@ public class WollMuxFiles
 
   /**
    * Schreibt die Kinder von conf (also keinen umschließenden Wurzel-Abschnitt) in
-   * die Datei file.
+   * die Datei file. Es wird zuerst in eine temporäre Datei im selben Verzeichnis
+   * geschrieben und diese dann umbenannt, so dass file bei einem Absturz während
+   * des Schreibens nicht unvollständig ist.
    */
   public static void writeConfToFile(File file, ConfigThingy conf)
       throws IOException
   {
-    try (OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(file), ConfigThingy.CHARSET))
+    File tmpFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    try (OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(tmpFile), ConfigThingy.CHARSET))
     {
       out.write("\uFEFF");
       out.write(conf.stringRepresentation(true, '"'));
     }
+    try
+    {
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e)
+    {
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
   }
 
   private static class SlowServerWatchdog extends Thread
@@ -52,22 +52,31 @@
 package de.muenchen.allg.itd51.wollmux;
 
 import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.sun.star.beans.PropertyValue;
 import com.sun.star.document.XEventBroadcaster;
 import com.sun.star.lang.WrappedTargetException;
+import com.sun.star.uno.Any;
 import com.sun.star.uno.UnoRuntime;
 import com.sun.star.uno.XComponentContext;
 import com.sun.star.util.XChangesBatch;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.afid.UnoHelperException;
+import de.muenchen.allg.itd51.wollmux.core.db.DatasourceJoiner;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
 import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
@@ -88,7 +97,7 @@ public class WollMuxSingleton
 
   private static final Logger LOGGER = LoggerFactory.getLogger(WollMuxSingleton.class);
 
-  private static WollMuxSingleton singletonInstance = null;
+  private static volatile WollMuxSingleton singletonInstance = null;
 
   /**
    * Enthält den default XComponentContext in dem der WollMux (bzw. das OOo) läuft.
@@ -102,6 +111,13 @@ public class WollMuxSingleton
 
   private boolean menusCreated = false;
 
+  private StartupPhases startupPhases;
+
+  /**
+   * Der Abschnitt in {@link StartupFingerprint}.
+   */
+  private static final String OOO_FINGERPRINT_SECTION = "OOoEinstellungen";
+
   /**
    * Die WollMux-Hauptklasse ist als singleton realisiert.
    */
@@ -123,9 +139,20 @@ public class WollMuxSingleton
 
     boolean successfulStartup = true;
 
-    noConfig = !WollMuxFiles.setupWollMuxDir();
+    /*
+     * Der Start ist in Phasen aufgeteilt, die soweit möglich parallel laufen (siehe
+     * StartupPhases). wollmux.conf und ClassLoader werden von allen weiteren Phasen benötigt und
+     * deshalb sofort geladen.
+     */
+    startupPhases = new StartupPhases();
 
-    WollMuxClassLoader.initClassLoader();
+    noConfig = !Boolean.TRUE
+        .equals(startupPhases.run("setupWollMuxDir", WollMuxFiles::setupWollMuxDir));
+
+    startupPhases.run("initClassLoader", () -> {
+      WollMuxClassLoader.initClassLoader();
+      return null;
+    });
 
     LOGGER.debug(L.m("StartupWollMux"));
     LOGGER.debug("Build-Info: " + getBuildInfo());
@@ -141,29 +168,42 @@ public class WollMuxSingleton
      * geschehen, da die entsprechenden Datenquellen womöglich schon für WollMux-Datenquellen
      * benötigt werden.
      */
-    registerDatasources(WollMuxFiles.getWollmuxConf(), WollMuxFiles.getDEFAULT_CONTEXT());
+    CompletableFuture<Void> datasources = startupPhases.submit("registerDatasources", () -> {
+      registerDatasources(WollMuxFiles.getWollmuxConf(), WollMuxFiles.getDEFAULT_CONTEXT());
+      return null;
+    });
 
     // Versuchen, den DJ zu initialisieren und Flag setzen, falls nicht
     // erfolgreich.
-    if (DatasourceJoinerFactory.getDatasourceJoiner() == null)
+    CompletableFuture<DatasourceJoiner> dj = startupPhases.submit("getDatasourceJoiner",
+        DatasourceJoinerFactory::getDatasourceJoiner, datasources);
+    if (startupPhases.await(dj) == null)
     {
       successfulStartup = false;
     } else
     {
+      // Globale Funktionen vorab im Hintergrund parsen, damit das erste Dokument
+      // nicht darauf warten muss.
+      startupPhases.submit("parseGlobalFunctions", GlobalFunctions::getInstance);
+
       // Initialisiere EventProcessor
       WollMuxEventHandler.getInstance().setAcceptEvents(successfulStartup);
   
       // register global EventListener
-      try
-      {
-        XEventBroadcaster eventBroadcaster = UNO.XEventBroadcaster(ctx.getServiceManager()
-            .createInstanceWithContext("com.sun.star.frame.GlobalEventBroadcaster", ctx));
-        eventBroadcaster
-            .addEventListener(new GlobalEventListener(DocumentManager.getDocumentManager()));
-      } catch (Exception e)
-      {
-        LOGGER.error("", e);
-      }
+      startupPhases.run("registerGlobalEventListener", () -> {
+        try
+        {
+          XEventBroadcaster eventBroadcaster = UNO.XEventBroadcaster(ctx.getServiceManager()
+              .createInstanceWithContext("com.sun.star.frame.GlobalEventBroadcaster", ctx));
+          eventBroadcaster
+              .addEventListener(
+                  new GlobalEventListener(DocumentManager.getDocumentManager(), startupPhases));
+        } catch (Exception e)
+        {
+          LOGGER.error("", e);
+        }
+        return null;
+      });
   
       /*
        * FIXME: Darf nur im Falle des externen WollMux gemacht werden, da ansonsten endlosschleifen
@@ -173,36 +213,120 @@ public class WollMuxSingleton
        * (UNO.desktop).registerDispatchProviderInterceptor( DispatchHandler.globalWollMuxDispatches);
        */
   
-      // setzen von shortcuts
-      ConfigThingy tastenkuerzel = new ConfigThingy("");
-      try
+      // setzen von shortcuts, wird erst nach dem ersten OnViewCreated benötigt
+      startupPhases.defer("createShortcuts", () -> {
+        ConfigThingy tastenkuerzel = new ConfigThingy("");
+        try
+        {
+          tastenkuerzel = WollMuxFiles.getWollmuxConf().query("Tastenkuerzel").getLastChild();
+        } catch (NodeNotFoundException e)
+        {
+          LOGGER.error("", e);
+        }
+
+        try
+        {
+          Shortcuts.createShortcuts(tastenkuerzel);
+        } catch (Exception e)
+        {
+          LOGGER.error("", e);
+        }
+      });
+  
+      // Setzen der in den Abschnitten OOoEinstellungen eingestellten
+      // Konfigurationsoptionen
+      startupPhases.submit("setOOoConfiguration", () -> {
+        this.setOOoConfiguration(WollMuxFiles.getWollmuxConf().query("OOoEinstellungen"));
+        return null;
+      });
+    }
+
+    startupPhases.finish();
+  }
+
+  /**
+   * Liefert die Phasen des WollMux-Starts, z.B. für den Ablauf im Dump.
+   */
+  public StartupPhases getStartupPhases()
+  {
+    return startupPhases;
+  }
+
+  /**
+   * Setzt die Einstellungen aller OOoEinstellungen-Abschnitte. Einstellungen, die laut
+   * {@link StartupFingerprint} schon beim letzten Start geschrieben wurden und in der Registry
+   * noch den gewünschten Wert haben, werden nicht erneut geschrieben. Das Lesen der Registry ist
+   * billig im Vergleich zum Schreiben; so werden auch Einstellungen wiederhergestellt, die der
+   * Benutzer geändert hat oder die durch Zurücksetzen des Profils verloren gegangen sind.
+   */
+  private void setOOoConfiguration(ConfigThingy oooEinstellungenConf)
+  {
+    // Wirksame Einstellungen bestimmen (spätere Einträge überschreiben frühere)
+    Map<String, String> settings = new LinkedHashMap<>();
+    for (ConfigThingy section : oooEinstellungenConf)
+    {
+      for (ConfigThingy element : section)
       {
-        tastenkuerzel = WollMuxFiles.getWollmuxConf().query("Tastenkuerzel").getLastChild();
-      } catch (NodeNotFoundException e)
+        try
+        {
+          String node = element.get("NODE").toString();
+          String prop = element.get("PROP").toString();
+          String type = element.get("TYPE").toString();
+          String value = element.get("VALUE").toString();
+          String key = node + "\t" + prop;
+          settings.remove(key);
+          settings.put(key, key + "\t" + type + "\t" + value);
+        } catch (NodeNotFoundException e)
+        {
+          LOGGER.error(L.m("OOoEinstellungen: Konnte Einstellung '%1'nicht setzen:",
+              element.stringRepresentation()), e);
+        }
+      }
+    }
+
+    List<String> entries = new ArrayList<>(settings.values());
+    String fingerprint = StartupFingerprint.fingerprint(entries);
+    StartupFingerprint fingerprints = StartupFingerprint.getInstance();
+    boolean unchanged = fingerprints.matches(OOO_FINGERPRINT_SECTION, fingerprint);
+    Set<String> previous = unchanged
+        ? new HashSet<>(entries)
+        : fingerprints.getApplied(OOO_FINGERPRINT_SECTION);
+    List<String> applied = new ArrayList<>();
+    boolean allApplied = true;
+    int written = 0;
+    for (String entry : entries)
+    {
+      String[] parts = entry.split("\t", 4);
+      if (previous != null && previous.contains(entry)
+          && isConfigurationValue(parts[0], parts[1], parts[3]))
       {
-        LOGGER.error("", e);
+        applied.add(entry);
+        continue;
       }
-      
       try
       {
-        Shortcuts.createShortcuts(tastenkuerzel);
+        ++written;
+        if (setConfigurationValue(parts[0], parts[1], getObjectByType(parts[2], parts[3])))
+        {
+          applied.add(entry);
+        }
+        else
+        {
+          allApplied = false;
+        }
       } catch (Exception e)
       {
-        LOGGER.error("", e);
+        LOGGER.error(L.m("OOoEinstellungen: Konnte Einstellung '%1'nicht setzen:",
+            entry.replace('\t', ' ')), e);
+        allApplied = false;
       }
-  
-      // Setzen der in den Abschnitten OOoEinstellungen eingestellten
-      // Konfigurationsoptionen
-      this.setOOoConfiguration(WollMuxFiles.getWollmuxConf().query("OOoEinstellungen"));
     }
-  }
-
-  private void setOOoConfiguration(ConfigThingy oooEinstellungenConf)
-  {
-    for (ConfigThingy settings : oooEinstellungenConf)
+    if (unchanged && written == 0)
     {
-      setConfigurationValues(settings);
+      LOGGER.debug("OOoEinstellungen unverändert");
+      return;
     }
+    fingerprints.update(OOO_FINGERPRINT_SECTION, allApplied ? fingerprint : null, applied);
   }
 
   /**
@@ -411,34 +535,6 @@ public class WollMuxSingleton
     }
   }
 
-  /**
-   * Setzt die im ConfigThingy übergebenen OOoEinstellungen-Abschnitt enthaltenen Einstellungen in
-   * der OOo-Registry.
-   *
-   * @param oooEinstellungenConf
-   *          Der Knoten OOoEinstellungen eines solchen Abschnitts.
-   */
-  private static void setConfigurationValues(ConfigThingy oooEinstellungenConf)
-  {
-    for (ConfigThingy element : oooEinstellungenConf)
-    {
-      try
-      {
-        String node = element.get("NODE").toString();
-        String prop = element.get("PROP").toString();
-        String type = element.get("TYPE").toString();
-        String value = element.get("VALUE").toString();
-        Object v = getObjectByType(type, value);
-
-        setConfigurationValue(node, prop, v);
-      } catch (Exception e)
-      {
-        LOGGER.error(L.m("OOoEinstellungen: Konnte Einstellung '%1'nicht setzen:",
-            element.stringRepresentation()), e);
-      }
-    }
-  }
-
   /**
    * Konvertiert den als String übergebenen Wert value in ein Objekt vom Typ type oder liefert eine
    * IllegalArgumentException, wenn die Werte nicht konvertiert werden können.
@@ -488,8 +584,9 @@ public class WollMuxSingleton
    *          z.B. "ooInetProxyType"
    * @param value
    *          der zu setzende Wert als Objekt vom entsprechenden Typ.
+   * @return true, wenn die Einstellung gespeichert wurde.
    */
-  private static void setConfigurationValue(String node, String prop, Object value)
+  private static boolean setConfigurationValue(String node, String prop, Object value)
   {
     XChangesBatch updateAccess;
     try
@@ -498,7 +595,7 @@ public class WollMuxSingleton
     } catch (UnoHelperException e1)
     {
       LOGGER.error("setConfigurationValue(): updateAccess is NULL.", e1);
-      return;
+      return false;
     }
 
     Utils.setProperty(updateAccess, prop, value);
@@ -506,21 +603,39 @@ public class WollMuxSingleton
     try
     {
       updateAccess.commitChanges();
+      return true;
     } catch (WrappedTargetException e)
     {
       LOGGER.error("", e);
+      return false;
     }
   }
 
   /**
-   * Überprüft, ob von url gelesen werden kann und wirft eine IOException, falls nicht.
-   *
-   * @throws IOException
-   *           falls von url nicht gelesen werden kann.
+   * Liefert true, wenn die Einstellung prop unter node in der OOo-Registry den Wert value (in
+   * seiner String-Darstellung) hat.
    */
-  public static void checkURL(URL url) throws IOException
+  private static boolean isConfigurationValue(String node, String prop, String value)
   {
-    url.openStream().close();
+    try
+    {
+      Object cp = UNO.createUNOService("com.sun.star.configuration.ConfigurationProvider");
+      PropertyValue pathArgument = new PropertyValue();
+      pathArgument.Name = "nodepath";
+      pathArgument.Value = node;
+      Object access = UNO.XMultiServiceFactory(cp).createInstanceWithArguments(
+          "com.sun.star.configuration.ConfigurationAccess", new Object[] { pathArgument });
+      Object current = UNO.getProperty(access, prop);
+      if (current instanceof Any)
+      {
+        current = ((Any) current).getObject();
+      }
+      return current != null && value.equalsIgnoreCase(current.toString());
+    } catch (Exception e)
+    {
+      LOGGER.trace("", e);
+      return false;
+    }
   }
 
   /**
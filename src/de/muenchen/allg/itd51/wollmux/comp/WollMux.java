@@ -36,6 +36,8 @@
 
 package de.muenchen.allg.itd51.wollmux.comp;
 
+import java.util.Map;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,12 +69,8 @@ import de.muenchen.allg.itd51.wollmux.WollMuxSingleton;
 import de.muenchen.allg.itd51.wollmux.XPALChangeEventListener;
 import de.muenchen.allg.itd51.wollmux.XWollMux;
 import de.muenchen.allg.itd51.wollmux.XWollMuxDocument;
-import de.muenchen.allg.itd51.wollmux.core.db.ColumnNotFoundException;
-import de.muenchen.allg.itd51.wollmux.core.db.DJDataset;
-import de.muenchen.allg.itd51.wollmux.core.db.DatasetNotFoundException;
-import de.muenchen.allg.itd51.wollmux.core.db.DatasourceJoiner;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
-import de.muenchen.allg.itd51.wollmux.db.DatasourceJoinerFactory;
+import de.muenchen.allg.itd51.wollmux.db.SenderSnapshot;
 import de.muenchen.allg.itd51.wollmux.event.Dispatch;
 import de.muenchen.allg.itd51.wollmux.event.DispatchProviderAndInterceptor;
 import de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler;
@@ -412,25 +410,11 @@ public class WollMux extends WeakBase implements XServiceInfo, XDispatchProvider
   {
     // Diese Methode nimmt keine Synchronisierung über den WollMuxEventHandler vor,
     // da das reine Auslesen der Datenstrukturen unkritisch ist.
-    DatasourceJoiner dj = DatasourceJoinerFactory.getDatasourceJoiner();
     UnoProps p = new UnoProps();
-    try
+    for (Map.Entry<String, String> entry : SenderSnapshot.get().getRawValues().entrySet())
     {
-      DJDataset ds = dj.getSelectedDataset();
-      for (String key : dj.getMainDatasourceSchema())
-      {
-        String val;
-        try
-        {
-          val = ds.get(key);
-          if (val != null) p.setPropertyValue(key, val);
-        }
-        catch (ColumnNotFoundException x1)
-        {}
-      }
+      p.setPropertyValue(entry.getKey(), entry.getValue());
     }
-    catch (DatasetNotFoundException x)
-    {}
     return p.getProps();
   }
 
@@ -465,9 +449,7 @@ public class WollMux extends WeakBase implements XServiceInfo, XDispatchProvider
      */
     try
     {
-      String value =
-          DatasourceJoinerFactory.getDatasourceJoiner().getSelectedDatasetTransformed().get(
-          dbSpalte);
+      String value = SenderSnapshot.get().get(dbSpalte);
       if (value == null) value = "";
       return value;
     }
@@ -45,6 +45,11 @@ public class DatasourceJoinerFactory
    */
   private static DatasourceJoiner datasourceJoiner;
 
+  /**
+   * Die Spaltenumsetzung aus dem Abschnitt AbsenderdatenSpaltenumsetzung.
+   */
+  private static ColumnTransformer columnTransformer;
+
   private DatasourceJoinerFactory()
   {
     // hide public constructor
@@ -120,7 +125,7 @@ public class DatasourceJoinerFactory
         FunctionLibrary funcLib = new FunctionLibrary();
         DialogLibrary dialogLib = new DialogLibrary();
         Map<Object, Object> context = new HashMap<>();
-        ColumnTransformer columnTransformer =
+        columnTransformer =
           new ColumnTransformer(FunctionFactory.parseTrafos(WollMuxFiles.getWollmuxConf(),
             "AbsenderdatenSpaltenumsetzung", funcLib, dialogLib, context));
         datasourceJoiner.setTransformer(columnTransformer);
@@ -134,6 +139,15 @@ public class DatasourceJoinerFactory
     return datasourceJoiner;
   }
 
+  /**
+   * Liefert die Spaltenumsetzung des DJ oder null, wenn sie nicht initialisiert werden konnte.
+   */
+  static ColumnTransformer getColumnTransformer()
+  {
+    getDatasourceJoiner();
+    return columnTransformer;
+  }
+
   private static Map<String, Datasource> collectDatasources(ConfigThingy joinConf, URL context)
   {
     HashMap<String, Datasource> datasources = new HashMap<>();
@@ -0,0 +1,129 @@
+package de.muenchen.allg.itd51.wollmux.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+
+/**
+ * Schreibt den Cache und LOS des DatasourceJoiner (siehe
+ * {@link WollMuxFiles#getLosCacheFile()}) im Hintergrund.
+ *
+ * Der Inhalt wird weiterhin im WollMux-Event-Thread mit saveCacheAndLOS() erzeugt, damit der
+ * DatasourceJoiner nur von diesem Thread benutzt wird. Das Serialisieren und Schreiben übernimmt
+ * ein eigener Thread erst {@link #DELAY} Millisekunden nach der ersten Anforderung. Kommen in
+ * dieser Zeit weitere Anforderungen, z.B. weil der Benutzer sich durch die Absenderliste klickt,
+ * wird nur der letzte Stand geschrieben. Mit {@link #flush()} wird ein ausstehender Stand sofort
+ * geschrieben, z.B. beim Beenden.
+ */
+public class LosCachePersister
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(LosCachePersister.class);
+
+  /**
+   * Wartezeit in Millisekunden zwischen der ersten Anforderung und dem Schreiben.
+   */
+  private static final long DELAY = 1000;
+
+  private static final AtomicLong requests = new AtomicLong();
+
+  private static final AtomicLong writes = new AtomicLong();
+
+  private static LosCachePersister instance;
+
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Sorgt dafür, dass die Stände in der Reihenfolge ihrer Anforderung geschrieben werden.
+   */
+  private final Object writeLock = new Object();
+
+  private final File file;
+
+  /**
+   * Der noch nicht geschriebene Stand oder null.
+   */
+  private ConfigThingy pending;
+
+  private boolean scheduled;
+
+  private LosCachePersister(File file)
+  {
+    this.file = file;
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "WollMux-LOS-Cache");
+      t.setDaemon(true);
+      return t;
+    });
+    Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "WollMux-LOS-Cache-Flush"));
+  }
+
+  public static synchronized LosCachePersister getInstance()
+  {
+    if (instance == null)
+    {
+      instance = new LosCachePersister(WollMuxFiles.getLosCacheFile());
+    }
+    return instance;
+  }
+
+  /**
+   * Merkt sich cache zum Schreiben. cache darf danach nicht mehr verändert werden.
+   */
+  public synchronized void save(ConfigThingy cache)
+  {
+    requests.incrementAndGet();
+    pending = cache;
+    if (!scheduled)
+    {
+      scheduled = true;
+      executor.schedule(this::flush, DELAY, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Schreibt einen ausstehenden Stand sofort im aufrufenden Thread.
+   */
+  public void flush()
+  {
+    synchronized (writeLock)
+    {
+      ConfigThingy cache;
+      synchronized (this)
+      {
+        cache = pending;
+        pending = null;
+        scheduled = false;
+      }
+      if (cache == null)
+      {
+        return;
+      }
+
+      try
+      {
+        WollMuxFiles.writeConfToFile(file, cache);
+        writes.incrementAndGet();
+      } catch (IOException e)
+      {
+        LOGGER.error("Cache konnte nicht gespeichert werden.", e);
+      }
+    }
+  }
+
+  /**
+   * Liefert die Anzahl der angeforderten und tatsächlich geschriebenen Stände für den Dump.
+   */
+  public static String getStatistics()
+  {
+    return "requests=" + requests.get() + ", writes=" + writes.get();
+  }
+}
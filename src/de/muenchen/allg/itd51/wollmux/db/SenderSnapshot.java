@@ -0,0 +1,203 @@
+package de.muenchen.allg.itd51.wollmux.db;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.db.ColumnNotFoundException;
+import de.muenchen.allg.itd51.wollmux.core.db.ColumnTransformer;
+import de.muenchen.allg.itd51.wollmux.core.db.DJDataset;
+import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
+import de.muenchen.allg.itd51.wollmux.core.db.DatasetNotFoundException;
+import de.muenchen.allg.itd51.wollmux.core.db.DatasourceJoiner;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Unveränderlicher Stand der Daten des ausgewählten Absenders.
+ *
+ * Die Spaltenumsetzung aus dem Abschnitt AbsenderdatenSpaltenumsetzung wird nur einmal je Stand
+ * ausgeführt und nicht bei jedem insertValue-Kommando oder Aufruf von
+ * {@link de.muenchen.allg.itd51.wollmux.comp.WollMux#getValue(String)}. Ein neuer Stand wird mit
+ * {@link #refresh()} erzeugt, sobald sich die Auswahl oder der LOS geändert hat (siehe
+ * {@link de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler#handlePALChangedNotify()}). Leser holen sich mit {@link #get()} den aktuellen Stand ohne Sperre und
+ * ohne Zugriff auf den {@link DatasourceJoiner}.
+ */
+public class SenderSnapshot
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(SenderSnapshot.class);
+
+  private static final AtomicLong versions = new AtomicLong();
+
+  private static final AtomicLong reads = new AtomicLong();
+
+  private static volatile SenderSnapshot current;
+
+  private final long version;
+
+  /**
+   * Die umgesetzten Werte aller Spalten. Fehlt eine Spalte, ist sie nicht vorhanden.
+   */
+  private final Map<String, String> values;
+
+  /**
+   * Die nicht umgesetzten Werte (ungleich null) der Spalten der Hauptdatenquelle in der
+   * Reihenfolge des Schemas.
+   */
+  private final Map<String, String> rawValues;
+
+  /**
+   * Die Exception, falls kein Absender ausgewählt ist, sonst null.
+   */
+  private final DatasetNotFoundException notFound;
+
+  private SenderSnapshot(long version, Map<String, String> values,
+      Map<String, String> rawValues, DatasetNotFoundException notFound)
+  {
+    this.version = version;
+    this.values = Collections.unmodifiableMap(values);
+    this.rawValues = Collections.unmodifiableMap(rawValues);
+    this.notFound = notFound;
+  }
+
+  /**
+   * Liefert den aktuellen Stand. Gibt es noch keinen, wird er erzeugt.
+   */
+  public static SenderSnapshot get()
+  {
+    SenderSnapshot snapshot = current;
+    if (snapshot == null)
+    {
+      synchronized (SenderSnapshot.class)
+      {
+        snapshot = current;
+        if (snapshot == null)
+        {
+          snapshot = create();
+          current = snapshot;
+        }
+      }
+    }
+    reads.incrementAndGet();
+    return snapshot;
+  }
+
+  /**
+   * Erzeugt einen neuen Stand aus dem ausgewählten Datensatz des DatasourceJoiner. Muss nach
+   * jeder Änderung der Auswahl oder des LOS aufgerufen werden.
+   */
+  public static synchronized void refresh()
+  {
+    current = create();
+  }
+
+  private static SenderSnapshot create()
+  {
+    long version = versions.incrementAndGet();
+    DatasourceJoiner dj = DatasourceJoinerFactory.getDatasourceJoiner();
+    Map<String, String> values = new HashMap<>();
+    Map<String, String> rawValues = new LinkedHashMap<>();
+    try
+    {
+      DJDataset raw = dj.getSelectedDataset();
+      Dataset transformed = dj.getSelectedDatasetTransformed();
+
+      Set<String> columns = new LinkedHashSet<>(dj.getMainDatasourceSchema());
+      ColumnTransformer columnTransformer = DatasourceJoinerFactory.getColumnTransformer();
+      if (columnTransformer != null)
+      {
+        columns.addAll(columnTransformer.getSchema());
+      }
+      for (String column : columns)
+      {
+        try
+        {
+          values.put(column, transformed.get(column));
+        }
+        catch (ColumnNotFoundException x)
+        {
+          // Spalte ist nicht vorhanden
+        }
+      }
+
+      for (String column : dj.getMainDatasourceSchema())
+      {
+        try
+        {
+          String value = raw.get(column);
+          if (value != null)
+          {
+            rawValues.put(column, value);
+          }
+        }
+        catch (ColumnNotFoundException x)
+        {
+          // Spalte ist nicht vorhanden
+        }
+      }
+      LOGGER.debug("Absenderdaten Version {} mit {} Spalten erzeugt", version, values.size());
+      return new SenderSnapshot(version, values, rawValues, null);
+    }
+    catch (DatasetNotFoundException x)
+    {
+      LOGGER.debug("Absenderdaten Version {}: kein Absender ausgewählt", version);
+      return new SenderSnapshot(version, values, rawValues, x);
+    }
+  }
+
+  /**
+   * Liefert die Version dieses Stands. Jeder neue Stand hat eine höhere Version.
+   */
+  public long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Liefert den umgesetzten Wert der Spalte columnName des ausgewählten Absenders, also dasselbe
+   * wie {@link DatasourceJoiner#getSelectedDatasetTransformed()}.get(columnName) zum Zeitpunkt
+   * der Erzeugung.
+   *
+   * @throws DatasetNotFoundException
+   *           wenn kein Absender ausgewählt ist.
+   * @throws ColumnNotFoundException
+   *           wenn es die Spalte nicht gibt.
+   */
+  public String get(String columnName) throws DatasetNotFoundException, ColumnNotFoundException
+  {
+    if (notFound != null)
+    {
+      throw notFound;
+    }
+    if (!values.containsKey(columnName))
+    {
+      throw new ColumnNotFoundException(L.m("Spalte %1 existiert nicht!", columnName));
+    }
+    return values.get(columnName);
+  }
+
+  /**
+   * Liefert die nicht umgesetzten Werte des ausgewählten Absenders zu den Spalten der
+   * Hauptdatenquelle. Spalten ohne Wert fehlen. Ist kein Absender ausgewählt, ist die Map leer.
+   */
+  public Map<String, String> getRawValues()
+  {
+    return rawValues;
+  }
+
+  /**
+   * Liefert die aktuelle Version und die Anzahl der Lesezugriffe für den Dump.
+   */
+  public static String getStatistics()
+  {
+    SenderSnapshot snapshot = current;
+    return "version=" + (snapshot != null ? snapshot.version : 0) + ", selected="
+        + (snapshot != null && snapshot.notFound == null) + ", reads=" + reads.get();
+  }
+}
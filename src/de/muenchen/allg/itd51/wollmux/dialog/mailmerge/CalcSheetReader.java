@@ -0,0 +1,441 @@
+package de.muenchen.allg.itd51.wollmux.dialog.mailmerge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.beans.XPropertySet;
+import com.sun.star.container.NoSuchElementException;
+import com.sun.star.container.XIndexAccess;
+import com.sun.star.lang.EventObject;
+import com.sun.star.lang.IndexOutOfBoundsException;
+import com.sun.star.lang.Locale;
+import com.sun.star.lang.WrappedTargetException;
+import com.sun.star.sheet.CellFlags;
+import com.sun.star.sheet.XCellRangeData;
+import com.sun.star.sheet.XCellRangesQuery;
+import com.sun.star.sheet.XSheetCellRanges;
+import com.sun.star.sheet.XSpreadsheetDocument;
+import com.sun.star.sheet.XUniqueCellFormatRangesSupplier;
+import com.sun.star.table.CellRangeAddress;
+import com.sun.star.table.XCellRange;
+import com.sun.star.uno.UnoRuntime;
+import com.sun.star.util.XModifyBroadcaster;
+import com.sun.star.util.XModifyListener;
+import com.sun.star.util.XNumberFormatTypes;
+import com.sun.star.util.XNumberFormats;
+import com.sun.star.util.XNumberFormatsSupplier;
+import com.sun.star.util.XNumberFormatter;
+
+import de.muenchen.allg.afid.UNO;
+
+/**
+ * Liest die sichtbaren, nicht-leeren Zellen der Tabellenblätter eines Calc-Dokuments blockweise
+ * aus und hält das Ergebnis im Speicher, bis das Dokument verändert wird.
+ *
+ * Statt jede Zelle einzeln über getCellByPosition() und getString() abzufragen (zwei
+ * UNO-Aufrufe pro Zelle), wird jeder sichtbare, nicht-leere Zellbereich mit einem einzigen Aufruf
+ * von {@link XCellRangeData#getDataArray()} gelesen. Die Zahlenformate eines Bereichs werden über
+ * {@link XUniqueCellFormatRangesSupplier} einmal pro Format bestimmt; numerische Werte werden
+ * damit durch den {@link ValueFormatter} in den angezeigten Text umgewandelt, ohne die Zelle
+ * erneut abzufragen.
+ *
+ * Der Reader registriert sich als {@link XModifyListener} am Dokument und verwirft bei jeder
+ * Änderung den Cache.
+ */
+class CalcSheetReader implements XModifyListener
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(CalcSheetReader.class);
+
+  private static final short CONTENT_FLAGS = (short) (CellFlags.VALUE | CellFlags.DATETIME
+      | CellFlags.STRING | CellFlags.FORMULA);
+
+  private final XSpreadsheetDocument doc;
+
+  /**
+   * Bereits eingelesene Tabellenblätter; wird bei jeder Änderung des Dokuments geleert.
+   */
+  private final Map<String, CalcTable> tables = new HashMap<>();
+
+  /**
+   * Formatiert die numerischen Zellwerte; wird beim ersten Zugriff erzeugt.
+   */
+  private ValueFormatter formatter;
+
+  /**
+   * Erzeugt einen Reader für das Calc-Dokument doc und registriert ihn als Listener für
+   * Änderungen an diesem Dokument.
+   */
+  CalcSheetReader(XSpreadsheetDocument doc)
+  {
+    this.doc = doc;
+    XModifyBroadcaster broadcaster = UnoRuntime.queryInterface(XModifyBroadcaster.class, doc);
+    if (broadcaster != null)
+    {
+      broadcaster.addModifyListener(this);
+    }
+  }
+
+  /**
+   * Liefert das Calc-Dokument, aus dem dieser Reader liest.
+   */
+  XSpreadsheetDocument getDocument()
+  {
+    return doc;
+  }
+
+  /**
+   * Meldet den Reader vom Dokument ab und verwirft den Cache.
+   */
+  void dispose()
+  {
+    XModifyBroadcaster broadcaster = UnoRuntime.queryInterface(XModifyBroadcaster.class, doc);
+    if (broadcaster != null)
+    {
+      try
+      {
+        broadcaster.removeModifyListener(this);
+      } catch (Exception e)
+      {
+        LOGGER.trace("", e);
+      }
+    }
+    invalidate();
+  }
+
+  /**
+   * Liefert das Tabellenblatt sheetName. Die Indizes der sichtbaren, nicht-leeren Zeilen und
+   * Spalten werden beim ersten Zugriff bestimmt und bis zur nächsten Änderung des Dokuments
+   * wiederverwendet.
+   *
+   * @throws NoSuchElementException
+   *           falls es kein Tabellenblatt dieses Namens gibt.
+   * @throws WrappedTargetException
+   *           falls das Tabellenblatt nicht gelesen werden kann.
+   */
+  synchronized CalcTable getTable(String sheetName)
+      throws NoSuchElementException, WrappedTargetException
+  {
+    CalcTable table = tables.get(sheetName);
+    if (table == null)
+    {
+      XCellRangesQuery sheet = UNO.XCellRangesQuery(doc.getSheets().getByName(sheetName));
+      if (formatter == null)
+      {
+        formatter = new ValueFormatter(doc);
+      }
+      table = new CalcTable(sheet, formatter);
+      tables.put(sheetName, table);
+    }
+    return table;
+  }
+
+  /**
+   * Verwirft alle zwischengespeicherten Daten.
+   */
+  synchronized void invalidate()
+  {
+    tables.clear();
+    formatter = null;
+  }
+
+  @Override
+  public void modified(EventObject event)
+  {
+    invalidate();
+  }
+
+  @Override
+  public void disposing(EventObject event)
+  {
+    invalidate();
+  }
+
+  /**
+   * Die sichtbaren, nicht-leeren Zeilen und Spalten eines Tabellenblattes. Die erste Zeile
+   * enthält die Spaltennamen, alle weiteren Zeilen sind Datensätze.
+   */
+  static class CalcTable
+  {
+    private final XCellRangesQuery sheet;
+
+    private final ValueFormatter formatter;
+
+    /**
+     * Aufsteigend sortierte Indizes aller Zeilen mit mindestens einer sichtbaren, nicht-leeren
+     * Zelle.
+     */
+    private final int[] rows;
+
+    /**
+     * Aufsteigend sortierte Indizes aller Spalten mit mindestens einer sichtbaren, nicht-leeren
+     * Zelle.
+     */
+    private final int[] columns;
+
+    /**
+     * Die sichtbaren, nicht-leeren Zellbereiche des Tabellenblattes.
+     */
+    private final List<CellRangeAddress> ranges = new ArrayList<>();
+
+    /**
+     * Der Inhalt der Zellen, indiziert über die Position in {@link #rows} und {@link #columns}.
+     * Wird erst beim ersten Zugriff auf Zellinhalte gelesen.
+     */
+    private String[][] cells;
+
+    private CalcTable(XCellRangesQuery sheet, ValueFormatter formatter)
+    {
+      this.sheet = sheet;
+      this.formatter = formatter;
+      SortedSet<Integer> rowIndexes = new TreeSet<>();
+      SortedSet<Integer> columnIndexes = new TreeSet<>();
+
+      XSheetCellRanges visibleCellRanges = sheet.queryVisibleCells();
+      XSheetCellRanges nonEmptyCellRanges = sheet.queryContentCells(CONTENT_FLAGS);
+      for (CellRangeAddress nonEmpty : nonEmptyCellRanges.getRangeAddresses())
+      {
+        XSheetCellRanges intersection = UNO.XCellRangesQuery(visibleCellRanges)
+            .queryIntersection(nonEmpty);
+        for (CellRangeAddress addr : intersection.getRangeAddresses())
+        {
+          ranges.add(addr);
+          for (int x = addr.StartColumn; x <= addr.EndColumn; ++x)
+            columnIndexes.add(x);
+          for (int y = addr.StartRow; y <= addr.EndRow; ++y)
+            rowIndexes.add(y);
+        }
+      }
+
+      rows = toArray(rowIndexes);
+      columns = toArray(columnIndexes);
+    }
+
+    /**
+     * Liefert die Anzahl der sichtbaren, nicht-leeren Zeilen (inklusive der Kopfzeile).
+     */
+    int getRowCount()
+    {
+      return rows.length;
+    }
+
+    /**
+     * Liefert die Anzahl der sichtbaren, nicht-leeren Spalten.
+     */
+    int getColumnCount()
+    {
+      return columns.length;
+    }
+
+    /**
+     * Liefert den Spaltenindex im Tabellenblatt der col-ten sichtbaren, nicht-leeren Spalte.
+     */
+    int getSheetColumn(int col)
+    {
+      return columns[col];
+    }
+
+    /**
+     * Liefert den Zeilenindex im Tabellenblatt der row-ten sichtbaren, nicht-leeren Zeile.
+     */
+    int getSheetRow(int row)
+    {
+      return rows[row];
+    }
+
+    /**
+     * Liefert die nicht-leeren Inhalte der ersten sichtbaren Zeile, also die Spaltennamen.
+     */
+    List<String> getColumnNames()
+    {
+      if (rows.length == 0)
+      {
+        return Collections.emptyList();
+      }
+      List<String> names = new ArrayList<>();
+      for (int col = 0; col < columns.length; ++col)
+      {
+        String name = getCell(0, col);
+        if (!name.isEmpty())
+        {
+          names.add(name);
+        }
+      }
+      return names;
+    }
+
+    /**
+     * Liefert den angezeigten Text der Zelle in der row-ten sichtbaren, nicht-leeren Zeile und
+     * der col-ten sichtbaren, nicht-leeren Spalte.
+     */
+    synchronized String getCell(int row, int col)
+    {
+      if (cells == null)
+      {
+        cells = readCells();
+      }
+      return cells[row][col];
+    }
+
+    /**
+     * Liest alle sichtbaren, nicht-leeren Zellbereiche mit jeweils einem Aufruf von
+     * {@link XCellRangeData#getDataArray()}. Numerische Werte werden mit dem Zahlenformat ihrer
+     * Zelle formatiert; nur Zellen, für die weder Text noch Zahl geliefert wird (z.B. Fehlerwerte),
+     * werden einzeln abgefragt.
+     */
+    private String[][] readCells()
+    {
+      String[][] result = new String[rows.length][columns.length];
+      for (String[] row : result)
+        Arrays.fill(row, "");
+
+      XCellRange sheetCellRange = UNO.XCellRange(sheet);
+      for (CellRangeAddress addr : ranges)
+      {
+        try
+        {
+          XCellRange block = sheetCellRange.getCellRangeByPosition(addr.StartColumn,
+              addr.StartRow, addr.EndColumn, addr.EndRow);
+          Object[][] data = UnoRuntime.queryInterface(XCellRangeData.class, block).getDataArray();
+          int[][] formatKeys = readFormatKeys(block, addr);
+          for (int r = 0; r < data.length; ++r)
+          {
+            int row = Arrays.binarySearch(rows, addr.StartRow + r);
+            for (int c = 0; c < data[r].length; ++c)
+            {
+              int col = Arrays.binarySearch(columns, addr.StartColumn + c);
+              Object value = data[r][c];
+              if (value instanceof String)
+              {
+                result[row][col] = (String) value;
+              } else if (value instanceof Double && formatKeys != null)
+              {
+                result[row][col] = formatter.format(formatKeys[r][c], (Double) value);
+              } else
+              {
+                result[row][col] = UNO.XTextRange(block.getCellByPosition(c, r)).getString();
+              }
+            }
+          }
+        } catch (IndexOutOfBoundsException e)
+        {
+          LOGGER.error("", e);
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Liefert die Zahlenformate der Zellen von block (relativ zu addr indiziert), wobei pro
+     * einheitlich formatiertem Teilbereich nur einmal nach dem Format gefragt wird. Im Fehlerfall
+     * wird null geliefert.
+     */
+    private static int[][] readFormatKeys(XCellRange block, CellRangeAddress addr)
+    {
+      int[][] keys = new int[addr.EndRow - addr.StartRow + 1][addr.EndColumn - addr.StartColumn
+          + 1];
+      try
+      {
+        XIndexAccess formatRanges = UnoRuntime
+            .queryInterface(XUniqueCellFormatRangesSupplier.class, block)
+            .getUniqueCellFormatRanges();
+        for (int i = 0; i < formatRanges.getCount(); ++i)
+        {
+          Object ranges = formatRanges.getByIndex(i);
+          int key = (Integer) UNO.XPropertySet(ranges).getPropertyValue("NumberFormat");
+          for (CellRangeAddress part : UnoRuntime.queryInterface(XSheetCellRanges.class, ranges)
+              .getRangeAddresses())
+          {
+            for (int y = part.StartRow; y <= part.EndRow; ++y)
+              Arrays.fill(keys[y - addr.StartRow], part.StartColumn - addr.StartColumn,
+                  part.EndColumn - addr.StartColumn + 1, key);
+          }
+        }
+        return keys;
+      } catch (Exception e)
+      {
+        LOGGER.debug("", e);
+        return null;
+      }
+    }
+
+    private static int[] toArray(SortedSet<Integer> set)
+    {
+      int[] array = new int[set.size()];
+      int i = 0;
+      for (int value : set)
+        array[i++] = value;
+      return array;
+    }
+  }
+
+  /**
+   * Wandelt numerische Zellwerte mit dem Zahlenformat der Zelle in den angezeigten Text um.
+   * Ganze Zahlen im Standardformat werden lokal formatiert, alle anderen Werte über den
+   * {@link XNumberFormatter} des Dokuments, wobei das Ergebnis pro Format und Wert gemerkt wird.
+   */
+  static class ValueFormatter
+  {
+    /**
+     * Bis zu diesem Betrag stellt das Standardformat ganze Zahlen ohne Exponent dar.
+     */
+    private static final double MAX_PLAIN_INTEGER = 1e15;
+
+    private final XNumberFormatter formatter;
+
+    private final XNumberFormats formats;
+
+    private final Map<Integer, Boolean> standardFormats = new HashMap<>();
+
+    private final Map<Integer, Map<Double, String>> formatted = new HashMap<>();
+
+    private ValueFormatter(XSpreadsheetDocument doc)
+    {
+      XNumberFormatsSupplier supplier = UnoRuntime.queryInterface(XNumberFormatsSupplier.class,
+          doc);
+      formats = supplier.getNumberFormats();
+      formatter = UnoRuntime.queryInterface(XNumberFormatter.class,
+          UNO.createUNOService("com.sun.star.util.NumberFormatter"));
+      formatter.attachNumberFormatsSupplier(supplier);
+    }
+
+    /**
+     * Liefert den Text, den Calc für value im Zahlenformat formatKey anzeigt.
+     */
+    synchronized String format(int formatKey, double value)
+    {
+      if (value == Math.rint(value) && Math.abs(value) < MAX_PLAIN_INTEGER
+          && isStandardFormat(formatKey))
+      {
+        return Long.toString((long) value);
+      }
+      return formatted.computeIfAbsent(formatKey, k -> new HashMap<>()).computeIfAbsent(value,
+          v -> formatter.convertNumberToString(formatKey, v));
+    }
+
+    private boolean isStandardFormat(int formatKey)
+    {
+      return standardFormats.computeIfAbsent(formatKey, key -> {
+        try
+        {
+          XPropertySet format = formats.getByKey(key);
+          Locale locale = (Locale) format.getPropertyValue("Locale");
+          return UnoRuntime.queryInterface(XNumberFormatTypes.class, formats)
+              .getStandardIndex(locale) == key;
+        } catch (Exception e)
+        {
+          LOGGER.trace("", e);
+          return false;
+        }
+      });
+    }
+  }
+}
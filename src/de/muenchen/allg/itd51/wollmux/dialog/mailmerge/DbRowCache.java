@@ -0,0 +1,404 @@
+package de.muenchen.allg.itd51.wollmux.dialog.mailmerge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.beans.XPropertySet;
+import com.sun.star.container.ContainerEvent;
+import com.sun.star.container.XContainer;
+import com.sun.star.container.XContainerListener;
+import com.sun.star.lang.EventObject;
+import com.sun.star.sdb.CommandType;
+import com.sun.star.sdbc.SQLException;
+import com.sun.star.sdbc.XColumnLocate;
+import com.sun.star.sdbc.XConnection;
+import com.sun.star.sdbc.XDataSource;
+import com.sun.star.sdbc.XRow;
+import com.sun.star.sdbc.XRowSet;
+import com.sun.star.sdbc.XResultSet;
+import com.sun.star.sdbc.XStatement;
+import com.sun.star.sdbcx.XColumnsSupplier;
+import com.sun.star.uno.AnyConverter;
+import com.sun.star.uno.UnoRuntime;
+
+import de.muenchen.allg.afid.UNO;
+import de.muenchen.allg.itd51.wollmux.core.db.TimeoutException;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Ein seitenweiser Cache für die Datensätze einer Tabelle oder Abfrage einer OOo-Datenquelle, der
+ * von der Seriendruck-Vorschau verwendet wird.
+ *
+ * Die Datensätze werden über ein scrollbares {@link XRowSet} mit absoluter Positionierung in Seiten
+ * zu {@link #PAGE_SIZE} Zeilen gelesen. Die zuletzt verwendeten {@link #MAX_PAGES} Seiten werden
+ * vorgehalten, so dass das Blättern in der Vorschau nicht jedes Mal die ganze Tabelle ausliest.
+ *
+ * Der Cache wird verworfen, wenn {@link #invalidate()} aufgerufen wird (z.B. bei Auswahl einer
+ * anderen Tabelle oder beim Start des Seriendrucks). Da Änderungen an der Datenbank nicht gemeldet
+ * werden, wird er außerdem spätestens nach {@link #MAX_AGE_MILLIS} Millisekunden neu gelesen. Wird
+ * die Datenquelle beim DatabaseContext neu registriert oder entfernt, wird zusätzlich die
+ * Verbindung geschlossen und beim nächsten Zugriff neu aufgebaut.
+ */
+class DbRowCache implements XContainerListener
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(DbRowCache.class);
+
+  /**
+   * Anzahl der Datensätze, die auf einmal gelesen werden.
+   */
+  static final int PAGE_SIZE = 100;
+
+  /**
+   * Maximale Anzahl der vorgehaltenen Seiten.
+   */
+  static final int MAX_PAGES = 10;
+
+  /**
+   * Nach dieser Zeit in Millisekunden werden die vorgehaltenen Seiten verworfen und beim nächsten
+   * Zugriff neu aus der Datenbank gelesen.
+   */
+  static final long MAX_AGE_MILLIS = 30000;
+
+  private final String datasourceName;
+
+  private final String tableName;
+
+  private final long loginTimeout;
+
+  private XConnection conn;
+
+  private XRowSet rowSet;
+
+  /**
+   * true, wenn {@link #tableName} eine Tabelle und keine Abfrage ist.
+   */
+  private boolean isTable;
+
+  /**
+   * Die Spaltennamen in der Reihenfolge, in der die Werte in den Seiten abgelegt sind.
+   */
+  private List<String> columnNames;
+
+  /**
+   * Die Positionen der Spalten aus {@link #columnNames} im {@link #rowSet}.
+   */
+  private int[] columnPositions;
+
+  private int rowCount = -1;
+
+  /**
+   * Zeitpunkt, zu dem das {@link #rowSet} ausgeführt wurde.
+   */
+  private long openedAt;
+
+  /**
+   * Die zuletzt verwendeten Seiten, abgebildet von der Seitennummer auf die Zeilen der Seite.
+   */
+  private final Map<Integer, String[][]> pages = new LinkedHashMap<Integer, String[][]>(
+      MAX_PAGES + 1, 0.75f, true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, String[][]> eldest)
+    {
+      return size() > MAX_PAGES;
+    }
+  };
+
+  /**
+   * Erzeugt einen Cache für die Tabelle bzw. Abfrage tableName der beim DatabaseContext unter
+   * datasourceName registrierten Datenquelle. Die Verbindung wird erst beim ersten Zugriff
+   * aufgebaut.
+   *
+   * @param loginTimeout
+   *          Timeout in Millisekunden für den Aufbau der Verbindung.
+   */
+  DbRowCache(String datasourceName, String tableName, long loginTimeout)
+  {
+    this.datasourceName = datasourceName;
+    this.tableName = tableName;
+    this.loginTimeout = loginTimeout;
+
+    XContainer container = UnoRuntime.queryInterface(XContainer.class, UNO.dbContext);
+    if (container != null)
+    {
+      container.addContainerListener(this);
+    }
+  }
+
+  /**
+   * Liefert true, wenn dieser Cache die Tabelle tableName der Datenquelle datasourceName
+   * repräsentiert.
+   */
+  boolean isFor(String datasourceName, String tableName)
+  {
+    return this.datasourceName.equals(datasourceName) && this.tableName.equals(tableName);
+  }
+
+  /**
+   * Liefert die Spaltennamen der Tabelle in der Reihenfolge, in der {@link #getRow(int)} die Werte
+   * liefert.
+   */
+  synchronized List<String> getColumnNames() throws Exception
+  {
+    open();
+    return Collections.unmodifiableList(columnNames);
+  }
+
+  /**
+   * Liefert die Anzahl der Datensätze der Tabelle. Bei Tabellen wird sie mit SELECT COUNT(*)
+   * bestimmt, damit nicht alle Datensätze gelesen werden müssen; bei Abfragen (oder wenn die
+   * Datenbank das nicht unterstützt) durch Positionieren auf den letzten Datensatz.
+   */
+  synchronized int getRowCount() throws Exception
+  {
+    open();
+    if (rowCount < 0 && isTable)
+    {
+      try
+      {
+        rowCount = countRows();
+      } catch (SQLException e)
+      {
+        LOGGER.debug("", e);
+      }
+    }
+    if (rowCount < 0)
+    {
+      XResultSet results = UNO.XResultSet(rowSet);
+      rowCount = results.last() ? results.getRow() : 0;
+    }
+    return rowCount;
+  }
+
+  /**
+   * Liefert die Werte des rowIndex-ten Datensatzes (der erste Datensatz hat die Nummer 1) in der
+   * Reihenfolge von {@link #getColumnNames()}. Gibt es diesen Datensatz nicht, wird eine Liste aus
+   * leeren Strings geliefert.
+   */
+  synchronized List<String> getRow(int rowIndex) throws Exception
+  {
+    if (rowIndex < 1)
+      throw new IllegalArgumentException(L.m("Illegale Datensatznummer: %1", rowIndex));
+    open();
+
+    int pageNumber = (rowIndex - 1) / PAGE_SIZE;
+    String[][] page = pages.get(pageNumber);
+    if (page == null)
+    {
+      page = loadPage(pageNumber);
+      pages.put(pageNumber, page);
+    }
+
+    int offset = (rowIndex - 1) % PAGE_SIZE;
+    if (offset < page.length)
+    {
+      return new ArrayList<>(Arrays.asList(page[offset]));
+    }
+
+    String[] empty = new String[columnNames.size()];
+    Arrays.fill(empty, "");
+    return new ArrayList<>(Arrays.asList(empty));
+  }
+
+  /**
+   * Verwirft alle vorgehaltenen Seiten und die Anzahl der Datensätze. Die Verbindung bleibt
+   * bestehen, das {@link XRowSet} wird beim nächsten Zugriff neu ausgeführt.
+   */
+  synchronized void invalidate()
+  {
+    pages.clear();
+    rowCount = -1;
+    if (rowSet != null)
+    {
+      UNO.XComponent(rowSet).dispose();
+      rowSet = null;
+    }
+  }
+
+  /**
+   * Verwirft den Cache und schließt die Verbindung. Sie wird beim nächsten Zugriff neu aufgebaut.
+   */
+  private synchronized void close()
+  {
+    invalidate();
+    if (conn != null)
+    {
+      try
+      {
+        conn.close();
+      } catch (SQLException e)
+      {
+        LOGGER.error("", e);
+      }
+      conn = null;
+    }
+  }
+
+  /**
+   * Verwirft den Cache, schließt die Verbindung und meldet den Listener beim DatabaseContext ab.
+   */
+  synchronized void dispose()
+  {
+    close();
+
+    XContainer container = UnoRuntime.queryInterface(XContainer.class, UNO.dbContext);
+    if (container != null)
+    {
+      container.removeContainerListener(this);
+    }
+  }
+
+  private void open() throws Exception
+  {
+    if (rowSet != null && System.currentTimeMillis() - openedAt > MAX_AGE_MILLIS)
+    {
+      invalidate();
+    }
+    if (rowSet != null)
+    {
+      return;
+    }
+
+    if (conn == null)
+    {
+      try
+      {
+        XDataSource ds = UNO.XDataSource(UNO.dbContext.getRegisteredObject(datasourceName));
+        long lgto = loginTimeout / 1000;
+        if (lgto < 1)
+        {
+          lgto = 1;
+        }
+        ds.setLoginTimeout((int) lgto);
+        conn = ds.getConnection("", "");
+      } catch (Exception x)
+      {
+        LOGGER.debug("", x);
+        throw new TimeoutException(
+            L.m("Kann keine Verbindung zur Datenquelle \"%1\" herstellen", datasourceName));
+      }
+    }
+
+    isTable = UNO.XTablesSupplier(conn).getTables().hasByName(tableName);
+
+    XRowSet results = UNO.XRowSet(UNO.createUNOService("com.sun.star.sdb.RowSet"));
+    XPropertySet xProp = UNO.XPropertySet(results);
+    xProp.setPropertyValue("ActiveConnection", conn);
+    xProp.setPropertyValue("CommandType",
+        Integer.valueOf(isTable ? CommandType.TABLE : CommandType.QUERY));
+    xProp.setPropertyValue("Command", tableName);
+    xProp.setPropertyValue("ResultSetType",
+        Integer.valueOf(com.sun.star.sdbc.ResultSetType.SCROLL_INSENSITIVE));
+    xProp.setPropertyValue("ResultSetConcurrency",
+        Integer.valueOf(com.sun.star.sdbc.ResultSetConcurrency.READ_ONLY));
+    xProp.setPropertyValue("FetchSize", Integer.valueOf(PAGE_SIZE));
+    results.execute();
+
+    String[] names = UnoRuntime.queryInterface(XColumnsSupplier.class, results).getColumns()
+        .getElementNames();
+    XColumnLocate locate = UnoRuntime.queryInterface(XColumnLocate.class, results);
+    columnNames = new ArrayList<>(Arrays.asList(names));
+    columnPositions = new int[names.length];
+    for (int i = 0; i < names.length; ++i)
+    {
+      columnPositions[i] = locate.findColumn(names[i]);
+    }
+
+    rowSet = results;
+    openedAt = System.currentTimeMillis();
+  }
+
+  private int countRows() throws SQLException
+  {
+    String quote = conn.getMetaData().getIdentifierQuoteString().trim();
+    StringBuilder name = new StringBuilder();
+    for (String part : tableName.split("\\."))
+    {
+      if (name.length() > 0)
+      {
+        name.append('.');
+      }
+      name.append(quote).append(part).append(quote);
+    }
+
+    XStatement statement = conn.createStatement();
+    try
+    {
+      XResultSet results = statement.executeQuery("SELECT COUNT(*) FROM " + name);
+      return results.next() ? UNO.XRow(results).getInt(1) : 0;
+    } finally
+    {
+      UNO.XComponent(statement).dispose();
+    }
+  }
+
+  private String[][] loadPage(int pageNumber) throws SQLException
+  {
+    XResultSet results = UNO.XResultSet(rowSet);
+    XRow row = UNO.XRow(rowSet);
+    List<String[]> rows = new ArrayList<>(PAGE_SIZE);
+    if (results.absolute(pageNumber * PAGE_SIZE + 1))
+    {
+      do
+      {
+        String[] values = new String[columnPositions.length];
+        for (int i = 0; i < columnPositions.length; ++i)
+        {
+          String value = row.getString(columnPositions[i]);
+          values[i] = (value == null || row.wasNull()) ? "" : value;
+        }
+        rows.add(values);
+      } while (rows.size() < PAGE_SIZE && results.next());
+    }
+    LOGGER.trace("Seite {} von {}.{} gelesen ({} Datensätze)", pageNumber, datasourceName,
+        tableName, rows.size());
+    return rows.toArray(new String[rows.size()][]);
+  }
+
+  @Override
+  public void elementInserted(ContainerEvent event)
+  {
+    // eine neue Datenquelle betrifft den Cache nicht.
+  }
+
+  @Override
+  public void elementRemoved(ContainerEvent event)
+  {
+    checkInvalidate(event);
+  }
+
+  @Override
+  public void elementReplaced(ContainerEvent event)
+  {
+    checkInvalidate(event);
+  }
+
+  @Override
+  public void disposing(EventObject event)
+  {
+    close();
+  }
+
+  private void checkInvalidate(ContainerEvent event)
+  {
+    try
+    {
+      if (datasourceName.equals(AnyConverter.toString(event.Accessor)))
+      {
+        close();
+      }
+    } catch (com.sun.star.lang.IllegalArgumentException e)
+    {
+      close();
+    }
+  }
+}
@@ -107,6 +107,17 @@ public class MailMergeController
 
   public static final String PROP_EMAIL_MAIL_SERVER_SETTINGS = "MailMergeNew_MailServerSettings";
 
+  /**
+   * Key für die Liste der noch laufenden Sendungen (CompletableFutures), auf die vor dem Versand
+   * der Zusammenfassung gewartet werden muss.
+   */
+  public static final String PROP_EMAIL_DELIVERIES = "MailMergeNew_EMailDeliveries";
+
+  /**
+   * Key für den ersten Fehler beim Versand einer E-Mail. Er wird nach dem Seriendruck angezeigt.
+   */
+  public static final String PROP_EMAIL_FAILURE = "MailMergeNew_EMailFailure";
+
   /**
    * ID der Property in der das Dateinamenmuster für den Einzeldokumentdruck
    * gespeichert wird.
@@ -374,6 +385,7 @@ public class MailMergeController
         documentController.setFormFieldsPreviewMode(true);
         pmod.printWithProps();
         documentController.setFormFieldsPreviewMode(false);
+        MailMergeNew.waitForEmailDeliveries(pmod);
 
         long duration = (System.currentTimeMillis() - startTime) / 1000;
         
@@ -39,32 +39,26 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sun.star.awt.XTopWindow;
-import com.sun.star.beans.XPropertySet;
+import com.sun.star.container.NoSuchElementException;
 import com.sun.star.container.XEnumeration;
 import com.sun.star.container.XNameAccess;
 import com.sun.star.frame.XModel;
 import com.sun.star.lang.DisposedException;
+import com.sun.star.lang.WrappedTargetException;
 import com.sun.star.lang.XComponent;
 import com.sun.star.sdb.XDocumentDataSource;
 import com.sun.star.sdb.XOfficeDatabaseDocument;
-import com.sun.star.sdbc.SQLException;
 import com.sun.star.sdbc.XConnection;
 import com.sun.star.sdbc.XDataSource;
-import com.sun.star.sdbc.XRow;
-import com.sun.star.sdbc.XRowSet;
 import com.sun.star.sdbcx.XColumnsSupplier;
 import com.sun.star.sheet.XCellRangesQuery;
-import com.sun.star.sheet.XSheetCellRanges;
 import com.sun.star.sheet.XSpreadsheetDocument;
 import com.sun.star.sheet.XSpreadsheets;
-import com.sun.star.table.CellRangeAddress;
 import com.sun.star.table.XCellRange;
 import com.sun.star.ui.dialogs.FilePicker;
 import com.sun.star.ui.dialogs.TemplateDescription;
@@ -80,7 +74,6 @@ import de.muenchen.allg.itd51.wollmux.core.db.Datasource;
 import de.muenchen.allg.itd51.wollmux.core.db.OOoDatasource;
 import de.muenchen.allg.itd51.wollmux.core.db.QueryResults;
 import de.muenchen.allg.itd51.wollmux.core.db.QueryResultsWithSchema;
-import de.muenchen.allg.itd51.wollmux.core.db.TimeoutException;
 import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel.FieldSubstitution;
 import de.muenchen.allg.itd51.wollmux.core.exceptions.UnavailableException;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
@@ -173,6 +166,19 @@ public class MailMergeDatasource
    */
   private DBModel selectedDBModel = null;
 
+  /**
+   * Liest die Daten des Calc-Dokuments aus {@link #selectedCalcModel} und hält sie bis zur nächsten
+   * Änderung des Dokuments vor. Ist null, solange noch nicht auf ein Calc-Dokument zugegriffen
+   * wurde.
+   */
+  private CalcSheetReader calcReader = null;
+
+  /**
+   * Seitenweiser Cache der Datensätze der ausgewählten Tabelle, falls {@link #sourceType} ==
+   * {@link #DB}, ansonsten null.
+   */
+  private DbRowCache dbRowCache = null;
+
   /**
    * Erzeugt eine neue Datenquelle.
    *
@@ -205,9 +211,7 @@ public class MailMergeDatasource
         columnNames = getColumnNames(selectedCalcModel.getSpreadSheetDocument(), tableName);
         break;
       case DB:
-        Object table = getDbTableByName(selectedDBModel.getDatasourceName(),
-            selectedDBModel.getTableNames().get(0));
-        columnNames = getDbColumns(table);
+        columnNames = new ArrayList<>(getDbRowCache().getColumnNames());
         break;
       default:
         columnNames = new ArrayList<>();
@@ -248,7 +252,7 @@ public class MailMergeDatasource
         return getValuesFromSpreadsheetDocument(selectedCalcModel.getSpreadSheetDocument(),
             tableName, rowIndex);
       case DB:
-        return getDbValuesForDataset(getOOoDatasource(), rowIndex);
+        return getDbValuesForDataset(rowIndex);
       default:
         return new ArrayList<>();
       }
@@ -598,86 +602,16 @@ public class MailMergeDatasource
       return 0;
     }
 
-    XRowSet results = null;
-    XConnection conn = null;
     try
     {
-      try
-      {
-        XDataSource ds = UNO.XDataSource(UNO.dbContext.getRegisteredObject(selectedDBModel.datasourceName));
-        long lgto = MAILMERGE_LOGIN_TIMEOUT / 1000;
-        if (lgto < 1)
-        {
-          lgto = 1;
-        }
-        ds.setLoginTimeout((int) lgto);
-        conn = ds.getConnection("", "");
-      } catch (Exception x)
-      {
-        throw new TimeoutException(
-            L.m("Kann keine Verbindung zur Datenquelle \"%1\" herstellen", selectedDBModel.datasourceName));
-      }
-
-      Object rowSet = UNO.createUNOService("com.sun.star.sdb.RowSet");
-      results = UNO.XRowSet(rowSet);
-
-      XPropertySet xProp = UNO.XPropertySet(results);
-
-      xProp.setPropertyValue("ActiveConnection", conn);
-
-      /*
-       * EscapeProcessing == false bedeutet, dass OOo die Query nicht selbst anfassen darf, sondern
-       * direkt an die Datenbank weiterleiten soll. Wird dies verwendet ist das Ergebnis (derzeit)
-       * immer read-only, da OOo keine Updates von Statements durchführen kann, die es nicht geparst
-       * hat. Siehe Kommentar zu http://qa.openoffice.org/issues/show_bug.cgi?id=78522 Entspricht
-       * dem Button SQL mit grünem Haken (SQL-Kommando direkt ausführen) im Base-Abfrageentwurf.
-       */
-      xProp.setPropertyValue("EscapeProcessing", Boolean.FALSE);
-
-      xProp.setPropertyValue("CommandType", Integer.valueOf(com.sun.star.sdb.CommandType.COMMAND));
-
-      xProp.setPropertyValue("Command", "SELECT COUNT(*) FROM " + sqlIdentifier(tableName) + ";");
-
-      results.execute();
-
-      results.first();
-      XRow row = UNO.XRow(results);
-
-      return row.getInt(1);
+      return getDbRowCache().getRowCount();
     } catch (Exception x)
     {
       LOGGER.error("", x);
       return 0;
-    } finally
-    {
-      if (results != null)
-      {
-        UNO.XComponent(results).dispose();
-      }
-      if (conn != null)
-      {
-        try
-        {
-          conn.close();
-        } catch (SQLException e)
-        {
-          LOGGER.error("", e);
-        }
-      }
     }
   }
 
-  /**
-   * Liefert str zurück, als Identifier-Name vorbereitet für das Einfügen in SQL-Statements.
-   *
-   * @param str
-   *          beginnt und endet immer mit einem Doublequote.
-   */
-  private static String sqlIdentifier(String str)
-  {
-    return "\"" + str.replaceAll("\"", "\"\"") + "\"";
-  }
-
   /**
    * Liefert die Anzahl Zeilen in Tabelle tableName von Calc-Dokument calcDoc in denen mindestens
    * eine sichtbare nicht-leere Zelle ist, wobei die erste sichtbare Zeile nicht gezählt wird, weil
@@ -689,14 +623,10 @@ public class MailMergeDatasource
     {
       try
       {
-        XCellRangesQuery sheet = UNO.XCellRangesQuery(calcDoc.getSheets().getByName(tableName));
-        SortedSet<Integer> columnIndexes = new TreeSet<>();
-        SortedSet<Integer> rowIndexes = new TreeSet<>();
-        getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
-
-        if (!columnIndexes.isEmpty() && rowIndexes.size() > 1)
+        CalcSheetReader.CalcTable table = getCalcTable(calcDoc, tableName);
+        if (table.getColumnCount() > 0 && table.getRowCount() > 1)
         {
-          return rowIndexes.size() - 1;
+          return table.getRowCount() - 1;
         }
       } catch (Exception x)
       {
@@ -707,117 +637,43 @@ public class MailMergeDatasource
     return 0;
   }
 
-  /**
-   * Liefert die Spaltennamen der Tabelle tableName aus der OOo-Datenquelle oooDatasourceName in
-   * alphabetischer Reihenfolge. Die Reihenfolge entspricht der von
-   * {@link #getDbValuesForDataset(Datasource, int)}.
-   */
-  private List<String> getDbColumnNames(Datasource oooDatasource)
-  {
-    List<String> columnNames = new ArrayList<>();
-    columnNames.addAll(oooDatasource.getSchema());
-
-    return columnNames;
-  }
-
   /**
    * Liefert die Inhalte (als Strings) der nicht-leeren Zellen der ersten sichtbaren Zeile von
    * Tabellenblatt tableName in Calc-Dokument calcDoc.
    */
   private List<String> getColumnNames(XSpreadsheetDocument calcDoc, String tableName)
   {
-    List<String> columnNames = new ArrayList<>();
     if (calcDoc == null)
     {
-      return columnNames;
+      return new ArrayList<>();
     }
     try
     {
-      XCellRangesQuery sheet = UNO.XCellRangesQuery(calcDoc.getSheets().getByName(tableName));
-      SortedSet<Integer> columnIndexes = new TreeSet<>();
-      SortedSet<Integer> rowIndexes = new TreeSet<>();
-      getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
-
-      if (!columnIndexes.isEmpty() && !rowIndexes.isEmpty())
-      {
-        XCellRange sheetCellRange = UNO.XCellRange(sheet);
-
-        /*
-         * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
-         * Tabellenspaltennamen interpretieren.
-         */
-        int ymin = rowIndexes.first().intValue();
-        Iterator<Integer> iter = columnIndexes.iterator();
-        while (iter.hasNext())
-        {
-          int x = iter.next().intValue();
-          String columnName = UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
-          if (columnName.length() > 0)
-          {
-            columnNames.add(columnName);
-          }
-        }
-      }
+      return getCalcTable(calcDoc, tableName).getColumnNames();
     } catch (Exception x)
     {
       LOGGER.error(L.m("Kann Spaltennamen nicht bestimmen"), x);
     }
-    return columnNames;
+    return new ArrayList<>();
   }
 
   /**
-   * Liefert die Daten des rowIndex-ten Datensatzes der Datenquelle oooDatasource (wobei der erste
-   * Datensatz die Nummer 1 hat!!!) Falls sich die Daten zwischen den Aufrufen der beiden Methoden
-   * nicht geändert haben, passen die zurückgelieferten Daten in Anzahl und Reihenfolge genau zu der
-   * von {@link #getDbColumnNames(Datasource)} gelieferten Liste.
+   * Liefert die Daten des rowIndex-ten Datensatzes der ausgewählten OOo-Datenquelle (wobei der
+   * erste Datensatz die Nummer 1 hat!!!) Falls sich die Daten zwischen den Aufrufen der beiden
+   * Methoden nicht geändert haben, passen die zurückgelieferten Daten in Anzahl und Reihenfolge
+   * genau zu der von {@link #getColumnNames()} gelieferten Liste.
+   *
+   * Die Datensätze werden seitenweise über den {@link DbRowCache} gelesen, so dass beim Blättern in
+   * der Vorschau nicht jedes Mal die ganze Tabelle ausgelesen werden muss.
    *
    * Falls rowIndex zu groß ist, wird ein Vektor mit leeren Strings zurückgeliefert. Im Fehlerfall
    * wird ein leerer Vektor zurückgeliefert.
    */
-  private List<String> getDbValuesForDataset(Datasource oooDatasource, int rowIndex)
+  private List<String> getDbValuesForDataset(int rowIndex)
   {
-    /*
-     * Die folgende Implementierung ist nicht schön. Sie hat die folgenden Probleme
-     *
-     * o Liest jedes Mal erneut die ganze Tabelle aus => langsam, übermäßige Garbage Produktion
-     *
-     * o Kann kein Ergebnis zurückliefern, wenn das Auslesen der gesamten Tabelle nicht innerhalb
-     * des Timeouts möglich ist => Vorschau broken bei langsamen Datenquellen
-     *
-     * Der große Vorteil dieser Implementierung ist ihre Einfachheit.
-     */
-
-    List<String> list = getDbColumnNames(oooDatasource);
     try
     {
-      if (rowIndex < 1)
-        throw new IllegalArgumentException(L.m("Illegale Datensatznummer: %1", rowIndex));
-      QueryResults res = oooDatasource.getContents(MAILMERGE_GETCONTENTS_TIMEOUT);
-      for (Dataset ds : res)
-      {
-        if (--rowIndex == 0)
-        {
-          // Avoid needless obj creation by overwriting col names with return values
-          for (int i = 0; i < list.size(); ++i)
-          {
-            String str;
-            try
-            {
-              str = ds.get(list.get(i));
-            } catch (ColumnNotFoundException x)
-            {
-              str = "";
-            }
-            list.set(i, str);
-          }
-          return list;
-        }
-      }
-
-      // Avoid needless object creation by overwriting col names with return values
-      for (int i = 0; i < list.size(); ++i)
-        list.set(i, "");
-      return list;
+      return getDbRowCache().getRow(rowIndex);
     } catch (Exception x)
     {
       LOGGER.error("", x);
@@ -825,6 +681,68 @@ public class MailMergeDatasource
     }
   }
 
+  /**
+   * Liefert den {@link DbRowCache} für die aktuell ausgewählte Tabelle der OOo-Datenquelle. Wurde
+   * seit dem letzten Aufruf eine andere Datenquelle oder Tabelle ausgewählt, so wird der alte
+   * Cache verworfen.
+   */
+  private DbRowCache getDbRowCache()
+  {
+    String datasourceName = selectedDBModel.getDatasourceName();
+    if (dbRowCache == null || !dbRowCache.isFor(datasourceName, tableName))
+    {
+      disposeDbRowCache();
+      dbRowCache = new DbRowCache(datasourceName, tableName, MAILMERGE_LOGIN_TIMEOUT);
+    }
+    return dbRowCache;
+  }
+
+  /**
+   * Verwirft die zwischengespeicherten Datensätze der OOo-Datenquelle, damit zwischenzeitlich in
+   * der Datenbank geänderte Datensätze beim nächsten Zugriff neu gelesen werden.
+   */
+  public void refresh()
+  {
+    if (dbRowCache != null)
+    {
+      dbRowCache.invalidate();
+    }
+  }
+
+  /**
+   * Gibt alle Ressourcen der Datenquelle frei, insbesondere die Verbindung zur OOo-Datenquelle.
+   * Muss aufgerufen werden, wenn der Seriendruck für das Dokument beendet wird.
+   */
+  public void dispose()
+  {
+    disposeDbRowCache();
+    disposeCalcReader();
+  }
+
+  /**
+   * Verwirft den {@link CalcSheetReader} und meldet seinen Listener am Calc-Dokument ab.
+   */
+  private void disposeCalcReader()
+  {
+    if (calcReader != null)
+    {
+      calcReader.dispose();
+      calcReader = null;
+    }
+  }
+
+  /**
+   * Verwirft den {@link DbRowCache} und schließt die zugehörige Verbindung.
+   */
+  private void disposeDbRowCache()
+  {
+    if (dbRowCache != null)
+    {
+      dbRowCache.dispose();
+      dbRowCache = null;
+    }
+  }
+
   /**
    * Liefert die sichtbaren Inhalte (als Strings) der Zellen aus der rowIndex-ten sichtbaren
    * nicht-leeren Zeile (wobei die erste solche Zeile, diejenige die die Namen for
@@ -847,51 +765,20 @@ public class MailMergeDatasource
     }
     try
     {
-      XCellRangesQuery sheet = UNO.XCellRangesQuery(calcDoc.getSheets().getByName(tableName));
-      SortedSet<Integer> columnIndexes = new TreeSet<>();
-      SortedSet<Integer> rowIndexes = new TreeSet<>();
-      getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
-
-      if (!columnIndexes.isEmpty())
+      CalcSheetReader.CalcTable table = getCalcTable(calcDoc, tableName);
+      if (table.getColumnCount() > 0)
       {
-        XCellRange sheetCellRange = UNO.XCellRange(sheet);
-
-        /*
-         * Den Zeilenindex in der Tabelle von der rowIndex-ten sichtbaren Zeile bestimmen.
-         */
-        int yTargetRow = -1;
-        int count = rowIndex;
-
-        for (int index : rowIndexes)
-        {
-          if (--count < 0)
-          {
-            yTargetRow = index;
-            break;
-          }
-        }
-
         /*
-         * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
-         * Tabellenspaltennamen interpretieren (dies ist nötig, damit die zurückgelieferten Werte zu
-         * denen von getColumnNames() passen). Wurde ein Tabellenspaltenname identifiziert, so lies
-         * den zugehörigen Wert aus der rowIndex-ten Zeile aus.
+         * Die erste sichtbare Zeile liefert die Spaltennamen. Nur für Spalten mit nicht-leerem
+         * Spaltennamen wird ein Wert geliefert (dies ist nötig, damit die zurückgelieferten Werte
+         * zu denen von getColumnNames() passen).
          */
-        int ymin = rowIndexes.first().intValue();
-        Iterator<Integer> iter = columnIndexes.iterator();
-        while (iter.hasNext())
+        boolean validRow = rowIndex >= 0 && rowIndex < table.getRowCount();
+        for (int col = 0; col < table.getColumnCount(); ++col)
         {
-          int x = iter.next().intValue();
-          String columnName = UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
-          if (columnName.length() > 0)
+          if (!table.getCell(0, col).isEmpty())
           {
-            if (yTargetRow >= 0)
-            {
-              String columnValue = UNO.XTextRange(sheetCellRange.getCellByPosition(x, yTargetRow))
-                  .getString();
-              columnValues.add(columnValue);
-            } else
-              columnValues.add("");
+            columnValues.add(validRow ? table.getCell(rowIndex, col) : "");
           }
         }
       }
@@ -975,7 +862,9 @@ public class MailMergeDatasource
       LOGGER.info("Es ist keine Datenquelle mehr ausgewählt.");
       currentSourceType = SOURCE_TYPE.NONE;
       selectedCalcModel = null;
+      disposeCalcReader();
       selectedDBModel = null;
+      disposeDbRowCache();
       return;
     }
 
@@ -990,12 +879,14 @@ public class MailMergeDatasource
             selectedDBModel = (DBModel) model;
             this.tableName = tableName;
             currentSourceType = SOURCE_TYPE.DB;
+            disposeCalcReader();
           } else
           {
             selectedCalcModel = (CalcModel) model;
             this.tableName = tableName;
             currentSourceType = SOURCE_TYPE.CALC;
             oooDatasource = null;
+            disposeDbRowCache();
           }
           break;
         }
@@ -1160,9 +1051,11 @@ public class MailMergeDatasource
 
     currentSourceType = SOURCE_TYPE.DB;
     selectedCalcModel = null;
+    disposeCalcReader();
 
     selectedDBModel.datasourceName = newDsName;
     oooDatasource = null;
+    disposeDbRowCache();
     storeDatasourceSettings();
   }
 
@@ -1202,54 +1095,40 @@ public class MailMergeDatasource
     }
 
     XCellRangesQuery sheet;
+    CalcSheetReader.CalcTable table;
     try
     {
       sheet = UNO.XCellRangesQuery(
           selectedCalcModel.getSpreadSheetDocument().getSheets().getByName(tableName));
+      table = getCalcTable(selectedCalcModel.getSpreadSheetDocument(), tableName);
     } catch (Exception x)
     {
       return;
     }
 
     /*
-     * Indizes sichtbarer Zellen sowie Mapping von Spaltennamen (basierend auf erster sichtbarer
-     * Zeile) auf Calc-Spaltennamen (z.B. "A") erstellen.
+     * Mapping von Spaltennamen (basierend auf erster sichtbarer Zeile) auf Calc-Spaltennamen (z.B.
+     * "A") erstellen.
      */
     Map<String, String> mapColumnNameToCalcColumnName = new HashMap<>();
-    SortedSet<Integer> columnIndexes = new TreeSet<>();
-    SortedSet<Integer> rowIndexes = new TreeSet<>();
-    try
+    if (table.getColumnCount() == 0 || table.getRowCount() == 0)
     {
-      getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
-
-      if (!columnIndexes.isEmpty() && !rowIndexes.isEmpty())
+      return;
+    }
+    for (int col = 0; col < table.getColumnCount(); ++col)
+    {
+      String columnName = table.getCell(0, col);
+      if (columnName.length() > 0)
       {
-        XCellRange sheetCellRange = UNO.XCellRange(sheet);
-
-        /*
-         * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
-         * Tabellenspaltennamen interpretieren.
-         */
-        int ymin = rowIndexes.first().intValue();
-        Iterator<Integer> iter = columnIndexes.iterator();
-        while (iter.hasNext())
-        {
-          int x = iter.next().intValue();
-          String columnName = UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
-          if (columnName.length() > 0)
-          {
-            mapColumnNameToCalcColumnName.put(columnName, getCalcColumnNameForColumnIndex(x + 1));
-          }
-        }
+        mapColumnNameToCalcColumnName.put(columnName,
+            getCalcColumnNameForColumnIndex(table.getSheetColumn(col) + 1));
       }
-    } catch (Exception x)
-    {
-      LOGGER.error(L.m("Fehler beim Zugriff auf Calc-Dokument"), x);
-      return;
     }
 
     // Erste neue Spalte hinter die letzte Spalte
-    int newColumnX = columnIndexes.last() + 1;
+    int newColumnX = table.getSheetColumn(table.getColumnCount() - 1) + 1;
+    int ymin = table.getSheetRow(0);
+    int ymax = table.getSheetRow(table.getRowCount() - 1);
 
     for (Map.Entry<String, FieldSubstitution> ent : mapIdToSubstitution.entrySet())
     {
@@ -1298,8 +1177,6 @@ public class MailMergeDatasource
       {
         XCellRange sheetCellRange = UNO.XCellRange(sheet);
 
-        int ymin = rowIndexes.first();
-        int ymax = rowIndexes.last();
         UNO.XTextRange(sheetCellRange.getCellByPosition(newColumnX, ymin)).setString(fieldId);
 
         /*
@@ -1407,7 +1284,7 @@ public class MailMergeDatasource
    *
    * @author Matthias Benkmann (D-III-ITD 5.1) TESTED
    */
-  private static QueryResults getVisibleCalcData(XSpreadsheetDocument doc, String sheetName,
+  private QueryResults getVisibleCalcData(XSpreadsheetDocument doc, String sheetName,
       List<String> schema)
   {
     MailMergeDatasource.CalcCellQueryResults results = new CalcCellQueryResults();
@@ -1416,65 +1293,42 @@ public class MailMergeDatasource
     {
       if (doc != null)
       {
-        XCellRangesQuery sheet = UNO.XCellRangesQuery(doc.getSheets().getByName(sheetName));
-        if (sheet != null)
+        CalcSheetReader.CalcTable table = getCalcTable(doc, sheetName);
+        if (table.getColumnCount() > 0 && table.getRowCount() > 0)
         {
-          SortedSet<Integer> columnIndexes = new TreeSet<>();
-          SortedSet<Integer> rowIndexes = new TreeSet<>();
-          getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
-
-          if (!columnIndexes.isEmpty() && !rowIndexes.isEmpty())
+          /*
+           * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
+           * Tabellenspaltennamen interpretieren. Ein Mapping in mapColumnNameToIndex wird erzeugt,
+           * wobei NICHT auf den Index in der Calc-Tabelle gemappt wird, sondern auf den Index im
+           * später für jeden Datensatz existierenden String[]-Array. Spalten mit leerem
+           * Spaltennamen werden nicht benötigt.
+           */
+          Map<String, Integer> mapColumnNameToIndex = new HashMap<>();
+          List<Integer> columns = new ArrayList<>();
+          for (int col = 0; col < table.getColumnCount(); ++col)
           {
-            XCellRange sheetCellRange = UNO.XCellRange(sheet);
-
-            /*
-             * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
-             * Tabellenspaltennamen interpretieren. Ein Mapping in mapColumnNameToIndex wird
-             * erzeugt, wobei NICHT auf den Index in der Calc-Tabelle gemappt wird, sondern auf den
-             * Index im später für jeden Datensatz existierenden String[]-Array.
-             */
-            int ymin = rowIndexes.first().intValue();
-            Map<String, Integer> mapColumnNameToIndex = new HashMap<>();
-            int idx = 0;
-            Iterator<Integer> iter = columnIndexes.iterator();
-            while (iter.hasNext())
+            String columnName = table.getCell(0, col);
+            if (columnName.length() > 0)
             {
-              int x = iter.next().intValue();
-              String columnName = UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin))
-                  .getString();
-              if (columnName.length() > 0)
-              {
-                mapColumnNameToIndex.put(columnName, Integer.valueOf(idx));
-                schema.add(columnName);
-                ++idx;
-              } else
-                iter.remove(); // Spalten mit leerem Spaltennamen werden nicht
-              // benötigt.
+              mapColumnNameToIndex.put(columnName, Integer.valueOf(columns.size()));
+              schema.add(columnName);
+              columns.add(col);
             }
+          }
 
-            results.setColumnNameToIndexMap(mapColumnNameToIndex);
+          results.setColumnNameToIndexMap(mapColumnNameToIndex);
 
-            /*
-             * Datensätze erzeugen
-             */
-            Iterator<Integer> rowIndexIter = rowIndexes.iterator();
-            rowIndexIter.next(); // erste Zeile enthält die Tabellennamen, keinen
-            // Datensatz
-            while (rowIndexIter.hasNext())
+          /*
+           * Datensätze erzeugen; die erste Zeile enthält die Spaltennamen, keinen Datensatz.
+           */
+          for (int row = 1; row < table.getRowCount(); ++row)
+          {
+            String[] data = new String[columns.size()];
+            for (int idx = 0; idx < data.length; ++idx)
             {
-              int y = rowIndexIter.next().intValue();
-              String[] data = new String[columnIndexes.size()];
-              Iterator<Integer> columnIndexIter = columnIndexes.iterator();
-              idx = 0;
-              while (columnIndexIter.hasNext())
-              {
-                int x = columnIndexIter.next().intValue();
-                String value = UNO.XTextRange(sheetCellRange.getCellByPosition(x, y)).getString();
-                data[idx++] = value;
-              }
-
-              results.addDataset(data);
+              data[idx] = table.getCell(row, columns.get(idx));
             }
+            results.addDataset(data);
           }
         }
       }
@@ -1487,40 +1341,19 @@ public class MailMergeDatasource
   }
 
   /**
-   * Liefert von Tabellenblatt sheet die Indizes aller Zeilen und Spalten, in denen mindestens eine
-   * sichtbare nicht-leere Zelle existiert.
-   *
-   * @param sheet
-   *          das zu scannende Tabellenblatt
-   * @param columnIndexes
-   *          diesem Set werden die Spaltenindizes hinzugefügt
-   * @param rowIndexes
-   *          diesem Set werden die Zeilenindizes hinzugefügt
-   * @author Matthias Benkmann (D-III-ITD 5.1)
+   * Liefert die sichtbaren, nicht-leeren Zeilen und Spalten des Tabellenblattes sheetName von
+   * calcDoc. Der zugehörige {@link CalcSheetReader} wird wiederverwendet, solange calcDoc das
+   * aktuelle Dokument ist, und hält die Daten bis zur nächsten Änderung des Dokuments.
    */
-  private static void getVisibleNonemptyRowsAndColumns(XCellRangesQuery sheet,
-      SortedSet<Integer> columnIndexes, SortedSet<Integer> rowIndexes)
+  private CalcSheetReader.CalcTable getCalcTable(XSpreadsheetDocument calcDoc, String sheetName)
+      throws NoSuchElementException, WrappedTargetException
   {
-    XSheetCellRanges visibleCellRanges = sheet.queryVisibleCells();
-    XSheetCellRanges nonEmptyCellRanges = sheet.queryContentCells(
-        (short) (com.sun.star.sheet.CellFlags.VALUE | com.sun.star.sheet.CellFlags.DATETIME
-            | com.sun.star.sheet.CellFlags.STRING | com.sun.star.sheet.CellFlags.FORMULA));
-    CellRangeAddress[] nonEmptyCellRangeAddresses = nonEmptyCellRanges.getRangeAddresses();
-    for (int i = 0; i < nonEmptyCellRangeAddresses.length; ++i)
-    {
-      XSheetCellRanges ranges = UNO.XCellRangesQuery(visibleCellRanges)
-          .queryIntersection(nonEmptyCellRangeAddresses[i]);
-      CellRangeAddress[] rangeAddresses = ranges.getRangeAddresses();
-      for (int k = 0; k < rangeAddresses.length; ++k)
-      {
-        CellRangeAddress addr = rangeAddresses[k];
-        for (int x = addr.StartColumn; x <= addr.EndColumn; ++x)
-          columnIndexes.add(Integer.valueOf(x));
-
-        for (int y = addr.StartRow; y <= addr.EndRow; ++y)
-          rowIndexes.add(Integer.valueOf(y));
-      }
+    if (calcReader == null || !UnoRuntime.areSame(calcReader.getDocument(), calcDoc))
+    {
+      disposeCalcReader();
+      calcReader = new CalcSheetReader(calcDoc);
     }
+    return calcReader.getTable(sheetName);
   }
 
   private static class CalcCellQueryResults implements QueryResults
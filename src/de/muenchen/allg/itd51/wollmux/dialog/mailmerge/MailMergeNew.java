@@ -46,6 +46,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
 
 import javax.mail.MessagingException;
 
@@ -74,6 +78,7 @@ import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
 import de.muenchen.allg.itd51.wollmux.email.AuthenticationDialog;
 import de.muenchen.allg.itd51.wollmux.email.EMailSender;
 import de.muenchen.allg.itd51.wollmux.email.IAuthenticationDialogListener;
+import de.muenchen.allg.itd51.wollmux.email.MailDeliveryService;
 import de.muenchen.allg.itd51.wollmux.email.MailServerSettings;
 import de.muenchen.allg.itd51.wollmux.print.PrintModels;
 
@@ -88,6 +93,13 @@ public class MailMergeNew
   private static final Logger LOGGER = LoggerFactory
       .getLogger(MailMergeNew.class);
 
+  /**
+   * Sperre für die Properties des E-Mail-Versands (Empfängerliste, Anzahl, Sendungen, Fehler).
+   * Jeder Datensatz hat ein eigenes SlavePrintModel, die Properties liegen aber im gemeinsamen
+   * MasterPrintModel und werden auch aus den Versand-Threads geändert.
+   */
+  private static final Object EMAIL_REPORT_LOCK = new Object();
+
   /**
    * true gdw wir uns im Vorschau-Modus befinden.
    */
@@ -131,6 +143,7 @@ public class MailMergeNew
    */
   public void dispose()
   {
+    ds.dispose();
     if (abortListener != null)
       abortListener.actionPerformed(new ActionEvent(this, 0, ""));
   }
@@ -199,64 +212,74 @@ public class MailMergeNew
     Iterator<Integer> selIter = selection.iterator();
     int selectedIdx = selIter.next();
 
-    pmod.setPrintProgressMaxValue((short) selection.size());
+    // Der Ausgangszustand für die Simulation wird einmal je Seriendruck erfasst.
+    documentController.resetSimulationBaseline();
 
-    int index = -1;
-    int serienbriefNummer = 1;
-    while (iter.hasNext() && selectedIdx >= 0)
+    try
     {
-      if (pmod.isCanceled()) {
-        return;
-      }
+      pmod.setPrintProgressMaxValue((short) selection.size());
 
-      Dataset ds = iter.next();
-      if (++index < selectedIdx) {
-        continue;
-      }
+      int index = -1;
+      int serienbriefNummer = 1;
+      while (iter.hasNext() && selectedIdx >= 0)
+      {
+        if (pmod.isCanceled()) {
+          return;
+        }
 
-      int datensatzNummer = index + 1;
+        Dataset ds = iter.next();
+        if (++index < selectedIdx) {
+          continue;
+        }
 
-      if (selIter.hasNext())
-        selectedIdx = selIter.next();
-      else
-        selectedIdx = -1;
+        int datensatzNummer = index + 1;
 
-      if (simProc != null) {
-        documentController.startSimulation();
-      }
+        if (selIter.hasNext())
+          selectedIdx = selIter.next();
+        else
+          selectedIdx = -1;
 
-      // only used internally, isn't the datasource for the actual mailmerge
-      HashMap<String, String> dataSetExport = new HashMap<>();
-      try
-      {
-        pmod.setPropertyValue(MailMergeController.PROP_DATASET_EXPORT, dataSetExport);
-      }
-      catch (Exception x)
-      {}
+        if (simProc != null) {
+          documentController.startSimulation();
+        }
 
-      for(String spalte : schema)
-      {
-        String value = ds.get(spalte);
-        pmod.setFormValue(spalte, value);
-        dataSetExport.put(spalte, value);
-      }
-      pmod.setFormValue(MailMergeController.TAG_DATENSATZNUMMER, "" + datensatzNummer);
-      dataSetExport.put(MailMergeController.TAG_DATENSATZNUMMER, "" + datensatzNummer);
-      pmod.setFormValue(MailMergeController.TAG_SERIENBRIEFNUMMER, ""
-        + serienbriefNummer);
-      dataSetExport.put(MailMergeController.TAG_SERIENBRIEFNUMMER, ""
-        + serienbriefNummer);
-
-      // Weiterreichen des Drucks an die nächste Druckfunktion. Dies findet nicht
-      // statt, wenn simProc != null ist, da die Verarbeitung in diesem Fall über
-      // simProc durchgeführt wird.
-      if (simProc == null)
-        pmod.printWithProps();
-      else
-        simProc.processSimulationResults(documentController.stopSimulation());
+        // only used internally, isn't the datasource for the actual mailmerge
+        HashMap<String, String> dataSetExport = new HashMap<>();
+        try
+        {
+          pmod.setPropertyValue(MailMergeController.PROP_DATASET_EXPORT, dataSetExport);
+        }
+        catch (Exception x)
+        {}
 
-      pmod.setPrintProgressValue((short) serienbriefNummer);
-      ++serienbriefNummer;
+        for(String spalte : schema)
+        {
+          String value = ds.get(spalte);
+          pmod.setFormValue(spalte, value);
+          dataSetExport.put(spalte, value);
+        }
+        pmod.setFormValue(MailMergeController.TAG_DATENSATZNUMMER, "" + datensatzNummer);
+        dataSetExport.put(MailMergeController.TAG_DATENSATZNUMMER, "" + datensatzNummer);
+        pmod.setFormValue(MailMergeController.TAG_SERIENBRIEFNUMMER, ""
+          + serienbriefNummer);
+        dataSetExport.put(MailMergeController.TAG_SERIENBRIEFNUMMER, ""
+          + serienbriefNummer);
+
+        // Weiterreichen des Drucks an die nächste Druckfunktion. Dies findet nicht
+        // statt, wenn simProc != null ist, da die Verarbeitung in diesem Fall über
+        // simProc durchgeführt wird.
+        if (simProc == null)
+          pmod.printWithProps();
+        else
+          simProc.processSimulationResults(documentController.stopSimulation());
+
+        pmod.setPrintProgressValue((short) serienbriefNummer);
+        ++serienbriefNummer;
+      }
+    } finally
+    {
+      // Den Ausgangszustand auch bei Abbruch oder Fehler verwerfen.
+      documentController.resetSimulationBaseline();
     }
   }
 
@@ -444,38 +467,48 @@ public class MailMergeNew
       File document = saveOutputFile(createTempDocumentFileByFilePattern(pmod, isODT),
           pmod.getTextDocument());
 
-      sendMail(mail, smtpSettings, document);
-
-      // Wenn Properties noch nicht gesetzt worden sind initial setzen da
-      // sonst bei getPropertyValue() UnknownPropertyException geworfen wird.
-      if (!pmod.getPropertySetInfo()
-          .hasPropertyByName(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST))
+      List<CompletableFuture<Void>> deliveries;
+      synchronized (EMAIL_REPORT_LOCK)
       {
-        pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST,
-          new ArrayList<String>());
+        // Wenn Properties noch nicht gesetzt worden sind initial setzen da
+        // sonst bei getPropertyValue() UnknownPropertyException geworfen wird.
+        if (!pmod.getPropertySetInfo()
+            .hasPropertyByName(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST))
+        {
+          pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST,
+            new ArrayList<String>());
+        }
+
+        if (!pmod.getPropertySetInfo()
+            .hasPropertyByName(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT))
+        {
+          pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT, 0);
+        }
+
+        if (!pmod.getPropertySetInfo()
+            .hasPropertyByName(MailMergeController.PROP_EMAIL_DELIVERIES))
+        {
+          pmod.setPropertyValue(MailMergeController.PROP_EMAIL_DELIVERIES,
+              new ArrayList<CompletableFuture<Void>>());
+        }
+        deliveries = (List<CompletableFuture<Void>>) pmod
+            .getPropertyValue(MailMergeController.PROP_EMAIL_DELIVERIES);
       }
 
-      if (!pmod.getPropertySetInfo()
-          .hasPropertyByName(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT))
+      // Der Versand läuft im Hintergrund weiter, während das nächste Dokument erzeugt wird.
+      // Wird der Seriendruck abgebrochen, werden noch wartende Nachrichten nicht mehr versendet.
+      CompletableFuture<Void> delivery = sendMail(mail, smtpSettings, document, pmod::isCanceled)
+          .whenComplete((v, e) -> {
+            if (e != null)
+            {
+              recordEmailFailure(pmod, e);
+            }
+          })
+          .thenRun(() -> addToEmailReport(pmod, to));
+      synchronized (EMAIL_REPORT_LOCK)
       {
-        pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT, 0);
+        deliveries.add(delivery);
       }
-
-      List<String> reportRecipientList = (List<String>) pmod
-          .getPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST);
-      int mailsSentCount = (int) pmod
-          .getPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT);
-
-      if (reportRecipientList == null)
-        reportRecipientList = new ArrayList<>();
-
-      reportRecipientList.add(to);
-      mailsSentCount++;
-
-      pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST,
-          reportRecipientList);
-      pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT,
-          mailsSentCount);
     }
     catch (ConfigurationErrorException e)
     {
@@ -502,8 +535,15 @@ public class MailMergeNew
     }
   }
 
-  private static void sendMail(EMailSender mail, MailServerSettings smtpSettings, File document)
+  /**
+   * Hängt document an mail an und versendet mail im Hintergrund, sofern canceled bis dahin nicht
+   * true liefert. Das Dokument wird nach dem Versand oder Abbruch gelöscht. Fehler werden
+   * protokolliert; das gelieferte Future endet dann mit der Exception.
+   */
+  private static CompletableFuture<Void> sendMail(EMailSender mail,
+      MailServerSettings smtpSettings, File document, BooleanSupplier canceled)
   {
+    CompletableFuture<Void> delivery;
     try
     {
       String path = document.getPath();
@@ -515,13 +555,112 @@ public class MailMergeNew
         path = path.replaceFirst("file:", "");
       }
       mail.addAttachment(new File(path));
-      mail.sendMessage(smtpSettings);
-    } catch (ConfigurationErrorException | MessagingException | IOException e)
-    {
-      LOGGER.error("", e);
-    } finally
+      delivery = mail.sendMessageAsync(smtpSettings, canceled);
+    } catch (MessagingException | IOException e)
     {
+      delivery = new CompletableFuture<>();
+      delivery.completeExceptionally(e);
+    }
+    return delivery.whenComplete((v, e) -> {
+      if (e != null && !(e instanceof CancellationException))
+      {
+        LOGGER.error("", e);
+      }
       document.delete();
+    });
+  }
+
+  /**
+   * Merkt sich den ersten fehlgeschlagenen Versand von pmod und bricht den Seriendruck ab. Der
+   * Fehler wird in {@link #waitForEmailDeliveries(XPrintModel)} angezeigt. Abgebrochene
+   * Sendungen zählen nicht als Fehler.
+   */
+  private static void recordEmailFailure(XPrintModel pmod, Throwable e)
+  {
+    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    if (cause instanceof CancellationException)
+    {
+      return;
+    }
+    synchronized (EMAIL_REPORT_LOCK)
+    {
+      try
+      {
+        if (pmod.getProp(MailMergeController.PROP_EMAIL_FAILURE, null) == null)
+        {
+          pmod.setPropertyValue(MailMergeController.PROP_EMAIL_FAILURE, cause);
+        }
+      } catch (Exception x)
+      {
+        LOGGER.error("", x);
+      }
+    }
+    pmod.cancel();
+  }
+
+  /**
+   * Trägt to in die Zusammenfassung des E-Mail-Versands ein.
+   */
+  @SuppressWarnings("unchecked")
+  private static void addToEmailReport(XPrintModel pmod, String to)
+  {
+    synchronized (EMAIL_REPORT_LOCK)
+    {
+      try
+      {
+        List<String> reportRecipientList = (List<String>) pmod
+            .getPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST);
+        int mailsSentCount = (int) pmod
+            .getPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT);
+
+        if (reportRecipientList == null)
+          reportRecipientList = new ArrayList<>();
+
+        reportRecipientList.add(to);
+        mailsSentCount++;
+
+        pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST,
+            reportRecipientList);
+        pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT,
+            mailsSentCount);
+      } catch (Exception e)
+      {
+        LOGGER.error("", e);
+      }
+    }
+  }
+
+  /**
+   * Wartet, bis alle mit {@link #sendAsEmail(XPrintModel, boolean)} begonnenen Sendungen von
+   * pmod versendet wurden oder fehlgeschlagen sind, und schließt danach die freien
+   * SMTP-Verbindungen. Ist ein Versand fehlgeschlagen, wird der Benutzer darüber informiert.
+   */
+  @SuppressWarnings("unchecked")
+  public static void waitForEmailDeliveries(XPrintModel pmod)
+  {
+    List<CompletableFuture<Void>> deliveries = (List<CompletableFuture<Void>>) pmod
+        .getProp(MailMergeController.PROP_EMAIL_DELIVERIES, null);
+    if (deliveries != null)
+    {
+      CompletableFuture<?>[] all;
+      synchronized (EMAIL_REPORT_LOCK)
+      {
+        all = deliveries.toArray(new CompletableFuture<?>[deliveries.size()]);
+      }
+      try
+      {
+        CompletableFuture.allOf(all).join();
+      } catch (Exception e)
+      {
+        // Fehler wurden bereits beim Versand protokolliert.
+      }
+    }
+    MailDeliveryService.getInstance().closeIdleTransports();
+
+    if (pmod.getProp(MailMergeController.PROP_EMAIL_FAILURE, null) != null)
+    {
+      InfoDialog.showInfoModal(MailMergeController.MAIL_ERROR_MESSAGE_TITLE,
+          L.m("Der Versand der E-Mail ist fehlgeschlagen."));
     }
   }
 
@@ -3,42 +3,70 @@ package de.muenchen.allg.itd51.wollmux.document;
 import java.nio.ByteBuffer;
 
 import com.sun.star.io.IOException;
+import com.sun.star.io.NotConnectedException;
 import com.sun.star.io.XInputStream;
 import com.sun.star.io.XSeekable;
+import com.sun.star.lang.IllegalArgumentException;
 
 /**
  * Wrapper für ByteBuffer zur Benutzung mit UNO.
+ *
+ * Der Stream liest über eine eigene, schreibgeschützte Sicht auf den Buffer
+ * (siehe {@link ByteBuffer#asReadOnlyBuffer()}) mit eigener Position. Der
+ * übergebene Buffer wird weder verändert noch kopiert, so dass mehrere Streams
+ * gleichzeitig auf demselben gecachten Dokument arbeiten können.
+ *
+ * LibreOffice liest in Blöcken gleicher Größe. Damit dabei nicht für jeden Block
+ * ein neues Array entsteht, wird das zuletzt gelieferte Array wiederverwendet,
+ * solange die angeforderte Länge gleich bleibt. Der Aufrufer darf das Array
+ * daher nur bis zum nächsten Aufruf von readBytes verwenden.
  */
 public class ByteBufferInputStream implements XInputStream, XSeekable
 {
 
   private ByteBuffer buffer;
 
+  /**
+   * Das zuletzt an den Aufrufer gelieferte Array.
+   */
+  private byte[] scratch;
+
   public ByteBufferInputStream(ByteBuffer buffer)
   {
-    this.buffer = buffer;
+    this.buffer = buffer.asReadOnlyBuffer();
+    this.buffer.rewind();
   }
 
   @Override
-  public int available() throws IOException
+  public synchronized int available() throws IOException
   {
-    return buffer.remaining();
+    return getBuffer().remaining();
   }
 
   @Override
-  public void closeInput() throws IOException
+  public synchronized void closeInput() throws IOException
   {
     buffer = null;
+    scratch = null;
   }
 
   @Override
-  public int readBytes(byte[][] data, int len) throws IOException
+  public synchronized int readBytes(byte[][] data, int len) throws IOException
   {
-    int n = Math.min(len, buffer.remaining());
+    ByteBuffer buf = getBuffer();
+    int n = Math.min(len, buf.remaining());
     if (n > 0)
     {
-      data[0] = new byte[n];
-      buffer.get(data[0], 0, n);
+      if (scratch == null || scratch.length != n)
+      {
+        scratch = new byte[n];
+      }
+      buf.get(scratch, 0, n);
+      data[0] = scratch;
+    }
+    else
+    {
+      data[0] = new byte[0];
     }
     return n;
   }
@@ -50,26 +78,41 @@ public class ByteBufferInputStream implements XInputStream, XSeekable
   }
 
   @Override
-  public void skipBytes(int n) throws IOException
+  public synchronized void skipBytes(int n) throws IOException
   {
-    buffer.position(buffer.position() + n);
+    ByteBuffer buf = getBuffer();
+    buf.position(buf.position() + Math.max(0, Math.min(n, buf.remaining())));
   }
 
   @Override
-  public long getLength() throws IOException
+  public synchronized long getLength() throws IOException
   {
-    return buffer.capacity();
+    return getBuffer().limit();
   }
 
   @Override
-  public long getPosition() throws IOException
+  public synchronized long getPosition() throws IOException
   {
-    return buffer.position();
+    return getBuffer().position();
   }
 
   @Override
-  public void seek(long pos) throws IOException
+  public synchronized void seek(long pos) throws IllegalArgumentException, IOException
+  {
+    ByteBuffer buf = getBuffer();
+    if (pos < 0 || pos > buf.limit())
+    {
+      throw new IllegalArgumentException("Ungültige Position " + pos);
+    }
+    buf.position((int) pos);
+  }
+
+  private ByteBuffer getBuffer() throws NotConnectedException
   {
-    buffer.position((int) pos);
+    if (buffer == null)
+    {
+      throw new NotConnectedException("Der Stream wurde bereits geschlossen.");
+    }
+    return buffer;
   }
-}
\ No newline at end of file
+}
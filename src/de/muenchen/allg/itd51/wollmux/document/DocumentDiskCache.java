@@ -0,0 +1,341 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Ein Cache für Vorlagen und Textfragmente auf der Festplatte (im .wollmux-Verzeichnis).
+ *
+ * Zu jeder URL werden der Inhalt und die Angaben zur Revalidierung (ETag, Last-Modified bzw.
+ * Änderungszeit der Datei) abgelegt, so dass der Inhalt nach einem Neustart von LibreOffice nicht
+ * erneut vollständig vom Server geladen werden muss. Die Einträge werden in einer Datei
+ * &lt;Hash der URL&gt;.data und den zugehörigen Metadaten in &lt;Hash der URL&gt;.properties
+ * gespeichert. Übersteigt die Gesamtgröße {@link #maxSize}, so werden die am längsten nicht
+ * benutzten Einträge entfernt.
+ *
+ * Ob ein Eintrag noch aktuell ist, entscheidet der {@link DocumentLoader}.
+ */
+class DocumentDiskCache
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocumentDiskCache.class);
+
+  private static final String DATA_SUFFIX = ".data";
+
+  private static final String META_SUFFIX = ".properties";
+
+  private static final String URL = "url";
+
+  private static final String ETAG = "etag";
+
+  private static final String LAST_MODIFIED = "lastModified";
+
+  private static final String LENGTH = "length";
+
+  private static final String LAST_ACCESS = "lastAccess";
+
+  private final File dir;
+
+  private final long maxSize;
+
+  /**
+   * Alle Einträge in der Reihenfolge ihrer letzten Benutzung, abgebildet von der URL.
+   */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long size;
+
+  /**
+   * Erzeugt einen Cache im Verzeichnis dir, das höchstens maxSize Bytes belegt, und liest die
+   * bereits vorhandenen Einträge ein.
+   */
+  DocumentDiskCache(File dir, long maxSize)
+  {
+    this.dir = dir;
+    this.maxSize = maxSize;
+    if (!dir.exists() && !dir.mkdirs())
+    {
+      LOGGER.error("Das Verzeichnis {} kann nicht angelegt werden.", dir);
+    }
+    loadIndex();
+  }
+
+  /**
+   * Liefert den Eintrag zu url oder null, wenn es keinen gibt.
+   */
+  synchronized Entry get(String url)
+  {
+    return entries.get(url);
+  }
+
+  /**
+   * Liest den Inhalt von entry. Liefert null, wenn die Datei nicht mehr existiert (z.B. weil der
+   * Eintrag inzwischen verdrängt wurde). Der Eintrag wird als zuletzt benutzt markiert.
+   */
+  byte[] read(Entry entry) throws IOException
+  {
+    try
+    {
+      byte[] data = Files.readAllBytes(new File(dir, entry.key + DATA_SUFFIX).toPath());
+      if (data.length != entry.length)
+      {
+        LOGGER.debug("Eintrag für {} ist unvollständig", entry.url);
+        remove(entry.url);
+        return null;
+      }
+      touch(entry);
+      return data;
+    } catch (NoSuchFileException e)
+    {
+      remove(entry.url);
+      return null;
+    }
+  }
+
+  /**
+   * Speichert data als Inhalt von url mit den Angaben etag und lastModified zur Revalidierung
+   * und liefert den neuen Eintrag.
+   */
+  synchronized Entry put(String url, byte[] data, String etag, long lastModified)
+  {
+    Entry entry = new Entry(url, key(url), etag, lastModified, data.length);
+    try
+    {
+      writeAtomically(new File(dir, entry.key + DATA_SUFFIX), data);
+      writeMeta(entry);
+    } catch (IOException e)
+    {
+      LOGGER.error("Eintrag für {} kann nicht im Cache gespeichert werden.", url, e);
+      return null;
+    }
+
+    Entry old = entries.put(url, entry);
+    if (old != null)
+    {
+      size -= old.length;
+    }
+    size += entry.length;
+    evict();
+    return entry;
+  }
+
+  /**
+   * Entfernt den Eintrag zu url.
+   */
+  synchronized void remove(String url)
+  {
+    Entry entry = entries.remove(url);
+    if (entry != null)
+    {
+      size -= entry.length;
+      delete(entry);
+    }
+  }
+
+  /**
+   * Liefert eine kurze Beschreibung von Anzahl und Größe der Einträge.
+   */
+  @Override
+  public synchronized String toString()
+  {
+    return "entries=" + entries.size() + ", size=" + size / 1024 + "kB, maxSize="
+        + maxSize / 1024 + "kB";
+  }
+
+  private synchronized void touch(Entry entry)
+  {
+    if (entries.get(entry.url) != entry)
+    {
+      return;
+    }
+    entry.lastAccess = System.currentTimeMillis();
+    try
+    {
+      writeMeta(entry);
+    } catch (IOException e)
+    {
+      LOGGER.debug("", e);
+    }
+  }
+
+  /**
+   * Entfernt die am längsten nicht benutzten Einträge, bis die Gesamtgröße höchstens
+   * {@link #maxSize} beträgt. Der zuletzt benutzte Eintrag bleibt immer erhalten.
+   */
+  private void evict()
+  {
+    Iterator<Entry> iter = entries.values().iterator();
+    while (size > maxSize && entries.size() > 1 && iter.hasNext())
+    {
+      Entry eldest = iter.next();
+      iter.remove();
+      size -= eldest.length;
+      delete(eldest);
+      LOGGER.debug("{} aus dem Cache entfernt", eldest.url);
+    }
+  }
+
+  private void loadIndex()
+  {
+    File[] metaFiles = dir.listFiles((d, name) -> name.endsWith(META_SUFFIX));
+    if (metaFiles == null)
+    {
+      return;
+    }
+
+    List<Entry> loaded = new ArrayList<>();
+    for (File metaFile : metaFiles)
+    {
+      Properties props = new Properties();
+      try (InputStream in = Files.newInputStream(metaFile.toPath()))
+      {
+        props.load(in);
+        String url = props.getProperty(URL);
+        String key = metaFile.getName().substring(0,
+            metaFile.getName().length() - META_SUFFIX.length());
+        Entry entry = new Entry(url, key, props.getProperty(ETAG),
+            Long.parseLong(props.getProperty(LAST_MODIFIED, "0")),
+            Long.parseLong(props.getProperty(LENGTH, "-1")));
+        entry.lastAccess = Long.parseLong(props.getProperty(LAST_ACCESS, "0"));
+        if (url != null && key.equals(key(url))
+            && new File(dir, key + DATA_SUFFIX).length() == entry.length)
+        {
+          loaded.add(entry);
+        }
+        else
+        {
+          delete(entry);
+        }
+      } catch (IOException | NumberFormatException e)
+      {
+        LOGGER.debug("Ungültiger Cache-Eintrag {}", metaFile, e);
+        metaFile.delete();
+      }
+    }
+
+    loaded.sort(Comparator.comparingLong(e -> e.lastAccess));
+    for (Entry entry : loaded)
+    {
+      entries.put(entry.url, entry);
+      size += entry.length;
+    }
+    evict();
+    LOGGER.debug("Vorlagen-Cache: {}", this);
+  }
+
+  private void writeMeta(Entry entry) throws IOException
+  {
+    Properties props = new Properties();
+    props.setProperty(URL, entry.url);
+    if (entry.etag != null)
+    {
+      props.setProperty(ETAG, entry.etag);
+    }
+    props.setProperty(LAST_MODIFIED, Long.toString(entry.lastModified));
+    props.setProperty(LENGTH, Long.toString(entry.length));
+    props.setProperty(LAST_ACCESS, Long.toString(entry.lastAccess));
+    File tmp = File.createTempFile(entry.key, ".tmp", dir);
+    try (OutputStream out = Files.newOutputStream(tmp.toPath()))
+    {
+      props.store(out, null);
+    }
+    move(tmp, new File(dir, entry.key + META_SUFFIX));
+  }
+
+  private void writeAtomically(File target, byte[] data) throws IOException
+  {
+    File tmp = File.createTempFile(target.getName(), ".tmp", dir);
+    Files.write(tmp.toPath(), data);
+    move(tmp, target);
+  }
+
+  private static void move(File from, File to) throws IOException
+  {
+    try
+    {
+      Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e)
+    {
+      Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private void delete(Entry entry)
+  {
+    new File(dir, entry.key + META_SUFFIX).delete();
+    new File(dir, entry.key + DATA_SUFFIX).delete();
+  }
+
+  private static String key(String url)
+  {
+    return Hashing.sha1().hashString(url, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Ein Eintrag des Caches.
+   */
+  static class Entry
+  {
+    private final String url;
+
+    private final String key;
+
+    private final String etag;
+
+    private final long lastModified;
+
+    private final long length;
+
+    private long lastAccess = System.currentTimeMillis();
+
+    private Entry(String url, String key, String etag, long lastModified, long length)
+    {
+      this.url = url;
+      this.key = key;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+
+    /**
+     * Der ETag des Servers oder null.
+     */
+    String getEtag()
+    {
+      return etag;
+    }
+
+    /**
+     * Last-Modified des Servers bzw. die Änderungszeit der Datei in Millisekunden oder 0, wenn
+     * unbekannt.
+     */
+    long getLastModified()
+    {
+      return lastModified;
+    }
+
+    long getLength()
+    {
+      return length;
+    }
+  }
+}
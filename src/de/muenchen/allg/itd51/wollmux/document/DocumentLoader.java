@@ -1,11 +1,29 @@
 package de.muenchen.allg.itd51.wollmux.document;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -23,26 +41,86 @@ import com.sun.star.uno.Exception;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.afid.UnoHelperException;
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 
 /**
  * Funktionen zum Laden und Einfügen von Dokumenten. Geladene Dokumente werden
  * gecacht.
+ *
+ * Der Cache hat zwei Stufen: Die zuletzt benutzten Dokumente werden im Speicher
+ * gehalten, alle anderen zusätzlich im {@link DocumentDiskCache} im
+ * .wollmux-Verzeichnis. Bevor eine Kopie von der Festplatte verwendet wird, wird
+ * sie revalidiert: bei http(s) über einen bedingten Request (If-None-Match,
+ * If-Modified-Since), bei Dateien über Änderungszeit und Größe. Antwortet der
+ * Server bzw. das (Netz-)Laufwerk nicht innerhalb von {@link #TIMEOUT_KEY}
+ * Millisekunden oder gar nicht, so wird die vorhandene Kopie verwendet.
  */
 public class DocumentLoader
 {
   private static final Logger LOGGER = LoggerFactory
     .getLogger(DocumentLoader.class);
 
+  /**
+   * Der Schlüssel in der wollmux.conf für die maximale Größe des Caches auf der
+   * Festplatte in MB. Ein Wert von 0 schaltet den Cache auf der Festplatte ab.
+   */
+  public static final String SIZE_KEY = "VORLAGEN_CACHE_GROESSE";
+
+  /**
+   * Der Schlüssel in der wollmux.conf für die Zeit in Millisekunden, nach der die
+   * Revalidierung abgebrochen und die Kopie von der Festplatte verwendet wird.
+   */
+  public static final String TIMEOUT_KEY = "VORLAGEN_CACHE_TIMEOUT";
+
+  private static final long DEFAULT_SIZE = 200;
+
+  private static final long DEFAULT_TIMEOUT = 5000;
+
+  /**
+   * Maximale Anzahl gleichzeitiger Downloads beim Vorabladen.
+   */
+  private static final int PREFETCH_THREADS = 4;
+
   private static DocumentLoader instance;
   private LoadingCache<String, ByteBuffer> cache;
 
+  /**
+   * Der Cache auf der Festplatte oder null, wenn er abgeschaltet ist.
+   */
+  private DocumentDiskCache diskCache;
+
+  private int timeout;
+
+  private final AtomicLong downloaded = new AtomicLong();
+
+  private final AtomicLong revalidated = new AtomicLong();
+
+  private final AtomicLong stale = new AtomicLong();
+
+  private final AtomicLong prefetched = new AtomicLong();
+
+  /**
+   * Die Threads, die Dokumente mit {@link #prefetch(Collection)} im Hintergrund
+   * laden.
+   */
+  private final ThreadPoolExecutor prefetchPool;
+
+  /**
+   * Die Threads, die Dateien mit Zeitbegrenzung lesen. Ein Thread, der an einem
+   * hängenden Netzlaufwerk blockiert, hält so weder den Aufrufer noch andere
+   * Dateizugriffe auf.
+   */
+  private final ExecutorService filePool;
+
   /**
    * Zugriff auf den DocumentLoader als Singleton.
    *
    * @return Singleton-Instanz des DocumentLoaders
    */
-  public static DocumentLoader getInstance()
+  public static synchronized DocumentLoader getInstance()
   {
     if (instance == null)
     {
@@ -61,25 +139,221 @@ public class DocumentLoader
         @Override
           public ByteBuffer load(String url) throws Exception
         {
-          return downloadDocument(url);
+          // Die Streams lesen über eigene Sichten, der gecachte Buffer selbst
+          // wird nie verändert.
+          return downloadDocument(url).asReadOnlyBuffer();
         }
       });
+
+    AtomicInteger threadCount = new AtomicInteger();
+    prefetchPool = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 60,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+          Thread t = new Thread(r, "WollMux-Prefetch-" + threadCount.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    prefetchPool.allowCoreThreadTimeOut(true);
+
+    AtomicInteger fileThreadCount = new AtomicInteger();
+    filePool = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "WollMux-File-" + fileThreadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+
+    timeout = (int) getConfiguredLong(TIMEOUT_KEY, DEFAULT_TIMEOUT);
+    long size = getConfiguredLong(SIZE_KEY, DEFAULT_SIZE);
+    File dir = WollMuxFiles.getWollMuxDir();
+    if (size > 0 && dir != null)
+    {
+      diskCache = new DocumentDiskCache(new File(dir, "vorlagen-cache"),
+          size * 1024 * 1024);
+    }
   }
 
-  private ByteBuffer downloadDocument(String url)
+  private ByteBuffer downloadDocument(String url) throws IOException
   {
-    byte[] buf = null;
-    try (InputStream in = new URL(url).openStream())
+    URL u = new URL(url);
+    DocumentDiskCache.Entry cached = diskCache != null ? diskCache.get(url) : null;
+    try
     {
-      buf = IOUtils.toByteArray(in);
+      if ("file".equalsIgnoreCase(u.getProtocol()))
+      {
+        return ByteBuffer.wrap(fetchFileWithTimeout(u, url, cached));
+      }
+      return ByteBuffer.wrap(fetchURL(u, url, cached));
     } catch (IOException e)
     {
-      LOGGER.error(
-        L.m("Die Vorlage mit der URL '%1' kann nicht geöffnet werden.", url),
+      byte[] copy = cached != null ? diskCache.read(cached) : null;
+      if (copy == null)
+      {
+        LOGGER.error(
+          L.m("Die Vorlage mit der URL '%1' kann nicht geöffnet werden.", url),
+          e);
+        throw e;
+      }
+      stale.incrementAndGet();
+      LOGGER.warn(
+        L.m("Die Vorlage mit der URL '%1' kann nicht geladen werden. Es wird die Kopie aus dem Cache verwendet.", url),
         e);
+      return ByteBuffer.wrap(copy);
     }
+  }
 
-    return ByteBuffer.wrap(buf);
+  /**
+   * Liest eine Datei mit {@link #fetchFile(URL, String, DocumentDiskCache.Entry)}.
+   * Gibt es einen Eintrag cached, so wird nach {@link #timeout} Millisekunden
+   * abgebrochen, damit ein nicht erreichbares Netzlaufwerk wie ein nicht
+   * antwortender Server behandelt wird.
+   *
+   * @throws IOException
+   *           falls die Datei nicht gelesen werden kann oder die Zeit abgelaufen
+   *           ist.
+   */
+  private byte[] fetchFileWithTimeout(URL u, String url,
+      DocumentDiskCache.Entry cached) throws IOException
+  {
+    if (cached == null)
+    {
+      return fetchFile(u, url, null);
+    }
+
+    Future<byte[]> future = filePool.submit(() -> fetchFile(u, url, cached));
+    try
+    {
+      return future.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e)
+    {
+      future.cancel(true);
+      throw new IOException(
+          L.m("Zeitüberschreitung beim Lesen von '%1'", url), e);
+    } catch (InterruptedException e)
+    {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+      {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Liest eine Datei. Stimmen Änderungszeit und Größe mit dem Eintrag cached
+   * überein, so wird der Inhalt aus dem Cache gelesen.
+   */
+  private byte[] fetchFile(URL u, String url, DocumentDiskCache.Entry cached)
+      throws IOException
+  {
+    Path path;
+    try
+    {
+      path = Paths.get(u.toURI());
+    } catch (URISyntaxException | IllegalArgumentException e)
+    {
+      LOGGER.debug("", e);
+      try (InputStream in = u.openStream())
+      {
+        downloaded.incrementAndGet();
+        return IOUtils.toByteArray(in);
+      }
+    }
+
+    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    long lastModified = attrs.lastModifiedTime().toMillis();
+    if (cached != null && cached.getLastModified() == lastModified
+        && cached.getLength() == attrs.size())
+    {
+      byte[] copy = diskCache.read(cached);
+      if (copy != null)
+      {
+        revalidated.incrementAndGet();
+        return copy;
+      }
+    }
+
+    byte[] data = Files.readAllBytes(path);
+    downloaded.incrementAndGet();
+    if (diskCache != null)
+    {
+      diskCache.put(url, data, null, lastModified);
+    }
+    return data;
+  }
+
+  /**
+   * Lädt ein Dokument über eine URLConnection. Gibt es einen Eintrag cached, so
+   * wird bei http(s) ein bedingter Request gestellt und die Verbindung nach
+   * {@link #timeout} Millisekunden abgebrochen.
+   */
+  private byte[] fetchURL(URL u, String url, DocumentDiskCache.Entry cached)
+      throws IOException
+  {
+    URLConnection conn = u.openConnection();
+    if (cached != null)
+    {
+      conn.setConnectTimeout(timeout);
+      conn.setReadTimeout(timeout);
+      if (conn instanceof HttpURLConnection)
+      {
+        if (cached.getEtag() != null)
+        {
+          conn.setRequestProperty("If-None-Match", cached.getEtag());
+        }
+        if (cached.getLastModified() > 0)
+        {
+          conn.setIfModifiedSince(cached.getLastModified());
+        }
+      }
+    }
+
+    if (conn instanceof HttpURLConnection && cached != null
+        && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+    {
+      ((HttpURLConnection) conn).disconnect();
+      byte[] copy = diskCache.read(cached);
+      if (copy != null)
+      {
+        revalidated.incrementAndGet();
+        return copy;
+      }
+      // Die Kopie ist inzwischen verschwunden, daher ohne Bedingung neu laden.
+      return fetchURL(u, url, null);
+    }
+
+    byte[] data;
+    try (InputStream in = conn.getInputStream())
+    {
+      data = IOUtils.toByteArray(in);
+    }
+    downloaded.incrementAndGet();
+    if (diskCache != null)
+    {
+      diskCache.put(url, data,
+          conn instanceof HttpURLConnection ? conn.getHeaderField("ETag") : null,
+          conn.getLastModified());
+    }
+    return data;
+  }
+
+  private static long getConfiguredLong(String key, long defaultValue)
+  {
+    ConfigThingy conf = WollMuxFiles.getWollmuxConf().query(key, 1);
+    if (conf.count() > 0)
+    {
+      try
+      {
+        return Math.max(0, Long.parseLong(conf.getLastChild().toString()));
+      } catch (NumberFormatException | NodeNotFoundException e)
+      {
+        LOGGER.error("Ungültiger Wert für {}", key, e);
+      }
+    }
+    return defaultValue;
   }
 
   /**
@@ -131,11 +405,104 @@ public class DocumentLoader
     return null;
   }
 
+  /**
+   * Lädt die Formatvorlagen aus dem Dokument path. Das Dokument wird über den Cache
+   * geladen und als "InputStream" an loadStylesFromURL übergeben.
+   *
+   * @param target
+   *          die StyleFamilies des Zieldokuments (XStyleLoader)
+   * @param path
+   *          URL des Dokuments
+   * @param options
+   *          die Optionen für loadStylesFromURL (z.B. "LoadTextStyles")
+   */
+  public void loadStyles(Object target, String path, PropertyValue[] options)
+  {
+    try
+    {
+      XInputStream in = getDocumentStream(path);
+      PropertyValue[] props = Arrays.copyOf(options, options.length + 1);
+      props[options.length] = new PropertyValue("InputStream", -1, in,
+          PropertyState.DIRECT_VALUE);
+      UNO.XStyleLoader(target).loadStylesFromURL(path, props);
+    } catch (com.sun.star.io.IOException | ExecutionException e)
+    {
+      LOGGER.error("", e);
+    }
+  }
+
   public boolean hasDocument(String path)
   {
     return cache.getIfPresent(path) != null;
   }
 
+  /**
+   * Stellt sicher, dass das Dokument path im Cache liegt, und lädt es bei Bedarf.
+   * Ersetzt die frühere Prüfung mit url.openStream(), so dass das Dokument nur
+   * einmal geholt wird.
+   *
+   * @throws IOException
+   *           falls das Dokument weder geladen werden kann noch im Cache liegt.
+   */
+  public void fetchDocument(String path) throws IOException
+  {
+    try
+    {
+      cache.get(path);
+    } catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+      {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Lädt die noch nicht gecachten Dokumente aus paths parallel im Hintergrund in
+   * den Cache und kehrt sofort zurück. Ein späteres {@link #fetchDocument(String)}
+   * oder {@link #getDocumentStream(String)} für ein Dokument, das gerade geladen
+   * wird, wartet auf diesen Ladevorgang, statt das Dokument ein zweites Mal zu
+   * laden. Fehler werden erst beim späteren Zugriff gemeldet.
+   */
+  public void prefetch(Collection<String> paths)
+  {
+    for (String path : paths)
+    {
+      if (hasDocument(path))
+      {
+        continue;
+      }
+      prefetched.incrementAndGet();
+      prefetchPool.execute(() -> {
+        try
+        {
+          cache.get(path);
+        } catch (ExecutionException e)
+        {
+          LOGGER.debug("", e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Liefert Kennzahlen zum Cache für den Dump.
+   */
+  public String getStatistics()
+  {
+    return "memory=" + cache.size() + ", downloaded=" + downloaded.get()
+        + ", revalidated=" + revalidated.get() + ", stale=" + stale.get()
+        + ", prefetched=" + prefetched.get()
+        + ", disk=[" + diskCache + "]";
+  }
+
+  /**
+   * Liefert einen Stream auf das gecachte Dokument path. Jeder Stream hat eine
+   * eigene Position, so dass dasselbe Dokument gleichzeitig mehrfach gelesen
+   * werden kann.
+   */
   public XInputStream getDocumentStream(String path) throws ExecutionException
   {
     ByteBuffer buf = cache.get(path);
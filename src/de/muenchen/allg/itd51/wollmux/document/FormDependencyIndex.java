@@ -0,0 +1,145 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.muenchen.allg.itd51.wollmux.core.document.VisibilityElement;
+
+/**
+ * Abhängigkeiten der Formularfelder und Sichtbarkeitselemente eines Dokuments von den
+ * Formularwerten bzw. Gruppen, damit bei einer Änderung nur die betroffenen Elemente neu
+ * berechnet werden.
+ *
+ * Welche IDs eine TRAFO liest, ergibt sich aus den Parametern der Funktion; die davon abhängigen
+ * Felder stehen bereits in der Zuordnung getIdToTextFieldFormFields() des TextDocumentModel. Die
+ * Felder aus getStaticTextFieldFormFields() haben TRAFOs ohne Parameter und hängen daher von
+ * keinem Formularwert ab. Sie werden nur neu berechnet, wenn sie sich geändert haben oder alle
+ * Felder aktualisiert werden.
+ *
+ * Für die Sichtbarkeit wird zu jeder Gruppe die Liste der {@link VisibilityElement}s geführt,
+ * die zu dieser Gruppe gehören. Jede Änderung der Dokumentkommandos muss über
+ * {@link TextDocumentController#updateDocumentCommands()} laufen, die den Zähler
+ * {@link #invalidateGroups()} erhöht. Der Index wird neu aufgebaut, sobald sich der Zähler seit
+ * dem letzten Aufbau geändert hat.
+ */
+public class FormDependencyIndex
+{
+  private static final AtomicLong evaluated = new AtomicLong();
+
+  private static final AtomicLong skipped = new AtomicLong();
+
+  private static final AtomicLong visibilityChecked = new AtomicLong();
+
+  private static final AtomicLong visibilitySkipped = new AtomicLong();
+
+  private boolean staticFieldsDirty = true;
+
+  /**
+   * Wird bei jeder Änderung der Sichtbarkeitselemente erhöht.
+   */
+  private long modCount;
+
+  /**
+   * Stand von {@link #modCount} beim letzten Aufbau des Index.
+   */
+  private long indexedModCount = -1;
+
+  private Iterable<VisibilityElement> indexedElements;
+
+  private int indexedSize;
+
+  private Map<String, List<VisibilityElement>> groupIndex;
+
+  /**
+   * Liefert true, wenn die Felder ohne abhängige IDs neu berechnet werden müssen.
+   */
+  boolean isStaticFieldsDirty()
+  {
+    return staticFieldsDirty;
+  }
+
+  /**
+   * Merkt sich, dass die Felder ohne abhängige IDs neu berechnet werden müssen, z.B. weil sie neu
+   * eingesammelt wurden oder alle Felder aktualisiert werden.
+   */
+  void invalidateStaticFields()
+  {
+    staticFieldsDirty = true;
+  }
+
+  /**
+   * Merkt sich, dass die Felder ohne abhängige IDs im Dokument aktuell sind.
+   */
+  void staticFieldsUpdated()
+  {
+    staticFieldsDirty = false;
+  }
+
+  /**
+   * Merkt sich, dass sich die Sichtbarkeitselemente geändert haben und der Index neu aufgebaut
+   * werden muss.
+   */
+  void invalidateGroups()
+  {
+    ++modCount;
+  }
+
+  /**
+   * Liefert die Elemente aus elements, die zur Gruppe groupId gehören, in der Reihenfolge von
+   * elements.
+   */
+  List<VisibilityElement> getVisibilityElements(Iterable<VisibilityElement> elements,
+      String groupId)
+  {
+    if (groupIndex == null || indexedModCount != modCount || elements != indexedElements)
+    {
+      groupIndex = new HashMap<>();
+      int count = 0;
+      for (VisibilityElement element : elements)
+      {
+        for (String gid : element.getGroups())
+        {
+          groupIndex.computeIfAbsent(gid, k -> new ArrayList<>()).add(element);
+        }
+        ++count;
+      }
+      indexedElements = elements;
+      indexedSize = count;
+      indexedModCount = modCount;
+    }
+
+    List<VisibilityElement> result = groupIndex.get(groupId);
+    if (result == null)
+    {
+      result = Collections.emptyList();
+    }
+    visibilityChecked.addAndGet(result.size());
+    visibilitySkipped.addAndGet(indexedSize - result.size());
+    return result;
+  }
+
+  static void countEvaluated()
+  {
+    evaluated.incrementAndGet();
+  }
+
+  static void countSkipped(int count)
+  {
+    skipped.addAndGet(count);
+  }
+
+  /**
+   * Liefert die Anzahl der berechneten und übersprungenen TRAFOs und Sichtbarkeitselemente für
+   * den Dump.
+   */
+  public static String getStatistics()
+  {
+    return "trafos evaluated=" + evaluated.get() + ", skipped=" + skipped.get()
+        + "; visibility elements checked=" + visibilityChecked.get() + ", skipped="
+        + visibilitySkipped.get();
+  }
+}
@@ -0,0 +1,183 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
+import de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler;
+
+/**
+ * Sammelt die Wertänderungen und Sichtbarkeitsänderungen, die das FormModel der Formular-GUI an den
+ * {@link TextDocumentController} meldet, und überträgt sie gebündelt ins Dokument.
+ *
+ * Jeder Tastendruck in einem Feld der Formular-GUI führt zu einer Wertänderung. Früher wurde jede
+ * einzelne davon als eigenes Event ins Dokument übertragen, wobei jedes Mal alle Formularfelder
+ * mit dieser ID neu geschrieben und die persistenten Daten neu serialisiert wurden. Der
+ * FormValueCoalescer merkt sich statt dessen nur den jeweils letzten Wert jeder ID (bzw. den
+ * letzten Sichtbarkeitsstatus jeder Gruppe) und überträgt alle gesammelten Änderungen nach Ablauf
+ * von {@link #DELAY_KEY} Millisekunden mit einem einzigen Event.
+ *
+ * Vor Aktionen, die den aktuellen Stand des Dokuments benötigen (Drucken, Speichern, Schließen,
+ * Simulation), muss {@link #flush()} aufgerufen werden, damit noch ausstehende Änderungen sofort
+ * übertragen werden.
+ */
+public class FormValueCoalescer
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(FormValueCoalescer.class);
+
+  /**
+   * Der Schlüssel in der wollmux.conf, über den die Verzögerung in Millisekunden eingestellt
+   * werden kann. Ein Wert von 0 überträgt die Änderungen ohne Verzögerung (aber weiterhin
+   * zusammengefasst, solange das Event noch nicht abgearbeitet wurde).
+   */
+  public static final String DELAY_KEY = "FORMULAR_AKTUALISIERUNG_VERZOEGERUNG";
+
+  private static final long DEFAULT_DELAY = 300;
+
+  private static final ScheduledExecutorService TIMER = Executors
+      .newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "WollMux-FormValueCoalescer");
+        t.setDaemon(true);
+        return t;
+      });
+
+  private static Long configuredDelay = null;
+
+  private final TextDocumentController documentController;
+
+  private final long delay;
+
+  /**
+   * Die noch nicht übertragenen Formularwerte in der Reihenfolge ihrer ersten Änderung.
+   */
+  private final Map<String, String> pendingValues = new LinkedHashMap<>();
+
+  /**
+   * Der noch nicht übertragene Sichtbarkeitsstatus der Sichtbarkeitsgruppen.
+   */
+  private final Map<String, Boolean> pendingVisibility = new LinkedHashMap<>();
+
+  /**
+   * Die geplante Übertragung oder null, wenn keine Übertragung geplant ist.
+   */
+  private ScheduledFuture<?> scheduled;
+
+  FormValueCoalescer(TextDocumentController documentController)
+  {
+    this(documentController, getConfiguredDelay());
+  }
+
+  FormValueCoalescer(TextDocumentController documentController, long delay)
+  {
+    this.documentController = documentController;
+    this.delay = delay;
+  }
+
+  /**
+   * Merkt sich den neuen Wert value für das Formularfeld id. Ein früher gemeldeter, noch nicht
+   * übertragener Wert für id wird dabei verworfen.
+   */
+  public synchronized void valueChanged(String id, String value)
+  {
+    pendingValues.put(id, value);
+    schedule();
+  }
+
+  /**
+   * Merkt sich den neuen Sichtbarkeitsstatus visible für die Gruppe groupId.
+   */
+  public synchronized void visibilityChanged(String groupId, boolean visible)
+  {
+    pendingVisibility.put(groupId, visible);
+    schedule();
+  }
+
+  /**
+   * Überträgt alle ausstehenden Änderungen sofort und im aufrufenden Thread ins Dokument. Eine
+   * bereits geplante Übertragung wird abgebrochen.
+   *
+   * flush() wird aus mehreren Threads aufgerufen (Event-Thread, UNO-Thread bei OnPrepareUnload,
+   * Druckfunktionen). Das Entnehmen der ausstehenden Änderungen und das Schreiben ins Dokument
+   * geschehen daher gemeinsam unter dem Monitor des {@link TextDocumentController}, über den auch
+   * alle anderen Schreibzugriffe auf das Dokument synchronisiert sind. So kann ein älterer Stand
+   * nicht nach einem neueren geschrieben werden.
+   */
+  public void flush()
+  {
+    synchronized (documentController)
+    {
+      Map<String, String> values;
+      Map<String, Boolean> visibility;
+      synchronized (this)
+      {
+        if (scheduled != null)
+        {
+          scheduled.cancel(false);
+          scheduled = null;
+        }
+        if (pendingValues.isEmpty() && pendingVisibility.isEmpty())
+        {
+          return;
+        }
+        values = new LinkedHashMap<>(pendingValues);
+        visibility = new LinkedHashMap<>(pendingVisibility);
+        pendingValues.clear();
+        pendingVisibility.clear();
+      }
+
+      LOGGER.trace("Übertrage {} Formularwerte und {} Sichtbarkeitsgruppen", values.size(),
+          visibility.size());
+      if (!values.isEmpty())
+      {
+        documentController.addFormFieldValues(values);
+      }
+      for (Map.Entry<String, Boolean> entry : visibility.entrySet())
+      {
+        documentController.setVisibleState(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private void schedule()
+  {
+    if (scheduled == null)
+    {
+      scheduled = TIMER.schedule(
+          () -> WollMuxEventHandler.getInstance().handleFormValuesChanged(documentController),
+          delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Liefert die in der wollmux.conf unter {@link #DELAY_KEY} eingestellte Verzögerung oder
+   * {@link #DEFAULT_DELAY}, wenn dort nichts (Gültiges) eingestellt ist.
+   */
+  private static synchronized long getConfiguredDelay()
+  {
+    if (configuredDelay == null)
+    {
+      configuredDelay = DEFAULT_DELAY;
+      ConfigThingy conf = WollMuxFiles.getWollmuxConf().query(DELAY_KEY, 1);
+      if (conf.count() > 0)
+      {
+        try
+        {
+          configuredDelay = Math.max(0, Long.parseLong(conf.getLastChild().toString()));
+        } catch (NumberFormatException | NodeNotFoundException e)
+        {
+          LOGGER.error("Ungültiger Wert für {}", DELAY_KEY, e);
+        }
+      }
+    }
+    return configuredDelay;
+  }
+}
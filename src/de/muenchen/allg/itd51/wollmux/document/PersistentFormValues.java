@@ -0,0 +1,150 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+
+/**
+ * Hält die Formularwerte eines Dokuments in der Form vor, in der sie als Abschnitt
+ * "Formularwerte" in den persistenten Daten abgelegt werden.
+ *
+ * Früher wurde bei jeder Wertänderung ein komplett neuer ConfigThingy-Baum mit allen
+ * Formularwerten aufgebaut, serialisiert und sofort in die persistenten Daten geschrieben. Hier
+ * wird pro Formularfeld ein Eintrag vorgehalten, von dem bei einer Änderung nur der betroffene
+ * ersetzt wird. Die Serialisierung findet erst statt, wenn die Werte tatsächlich in die
+ * persistenten Daten geschrieben werden sollen (siehe
+ * {@link TextDocumentController#flushPersistentData()}), und wird bis zur nächsten Änderung
+ * wiederverwendet.
+ */
+class PersistentFormValues
+{
+  /**
+   * Die Einträge des Abschnitts "Formularwerte", abgebildet von der ID des Formularfelds auf den
+   * Knoten (ID "..." VALUE "...").
+   */
+  private final Map<String, ConfigThingy> entries = new LinkedHashMap<>();
+
+  /**
+   * Die zuletzt berechnete Serialisierung oder null, wenn sich die Werte seitdem geändert haben.
+   */
+  private String serialized;
+
+  /**
+   * true, wenn es Änderungen gibt, die noch nicht in die persistenten Daten geschrieben wurden.
+   */
+  private boolean dirty;
+
+  /**
+   * true, sobald die Einträge mit den Formularwerten des Dokuments initialisiert wurden.
+   */
+  private boolean initialized;
+
+  /**
+   * Initialisiert die Einträge beim ersten Aufruf mit values. Weitere Aufrufe haben keine
+   * Wirkung, bis {@link #reset()} aufgerufen wird.
+   */
+  void init(Map<String, String> values)
+  {
+    if (initialized)
+    {
+      return;
+    }
+    entries.clear();
+    for (Map.Entry<String, String> ent : values.entrySet())
+    {
+      if (ent.getKey() != null && ent.getValue() != null)
+      {
+        entries.put(ent.getKey(), createEntry(ent.getKey(), ent.getValue()));
+      }
+    }
+    serialized = null;
+    initialized = true;
+  }
+
+  /**
+   * Setzt den Wert für das Formularfeld id auf value. Ist value null, so wird der Eintrag
+   * entfernt.
+   */
+  void put(String id, String value)
+  {
+    if (id == null)
+    {
+      return;
+    }
+    if (value == null)
+    {
+      if (entries.remove(id) == null)
+      {
+        return;
+      }
+    }
+    else
+    {
+      entries.put(id, createEntry(id, value));
+    }
+    serialized = null;
+    dirty = true;
+  }
+
+  /**
+   * Liefert true, wenn es Änderungen gibt, die noch nicht mit {@link #markClean()} als
+   * geschrieben markiert wurden.
+   */
+  boolean isDirty()
+  {
+    return dirty;
+  }
+
+  /**
+   * Markiert den aktuellen Stand als in die persistenten Daten geschrieben.
+   */
+  void markClean()
+  {
+    dirty = false;
+  }
+
+  /**
+   * Verwirft alle Einträge, z.B. nachdem der Abschnitt "Formularwerte" aus den persistenten Daten
+   * entfernt wurde. Beim nächsten {@link #init(Map)} werden die Einträge neu aufgebaut.
+   */
+  void reset()
+  {
+    entries.clear();
+    serialized = null;
+    dirty = false;
+    initialized = false;
+  }
+
+  /**
+   * Liefert die Serialisierung des Abschnitts "Formularwerte", wie sie in den persistenten Daten
+   * abgelegt wird.
+   */
+  String getSerialized()
+  {
+    if (serialized == null)
+    {
+      ConfigThingy werte = new ConfigThingy("WM");
+      ConfigThingy formwerte = new ConfigThingy("Formularwerte");
+      werte.addChild(formwerte);
+      for (ConfigThingy entry : entries.values())
+      {
+        formwerte.addChild(entry);
+      }
+      serialized = werte.stringRepresentation();
+    }
+    return serialized;
+  }
+
+  private static ConfigThingy createEntry(String id, String value)
+  {
+    ConfigThingy entry = new ConfigThingy("");
+    ConfigThingy cfID = new ConfigThingy("ID");
+    cfID.add(id);
+    ConfigThingy cfVALUE = new ConfigThingy("VALUE");
+    cfVALUE.add(value);
+    entry.addChild(cfID);
+    entry.addChild(cfVALUE);
+    return entry;
+  }
+}
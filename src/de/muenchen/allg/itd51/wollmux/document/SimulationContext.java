@@ -0,0 +1,158 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormField;
+import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults;
+
+/**
+ * Wiederverwendbarer Zustand für eine Folge von Simulationsläufen (siehe
+ * {@link TextDocumentController#startSimulation()}), z.B. einen Seriendruck.
+ *
+ * Beim Erzeugen wird der Ausgangszustand des Dokuments einmal erfasst: die Formularwerte, die
+ * Sichtbarkeit der Gruppen und der Inhalt aller Formularfelder. Letzteres erfordert einen
+ * UNO-Aufruf je Formularfeld und ist daher der teuerste Teil. Alle Änderungen eines
+ * Simulationslaufs werden in denselben {@link SimulationResults} vorgenommen und gemerkt, so dass
+ * {@link #reset()} nur die geänderten Einträge auf den Ausgangszustand zurücksetzen muss.
+ */
+class SimulationContext
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(SimulationContext.class);
+
+  private final Map<String, String> baselineValues;
+
+  private final Map<String, Boolean> baselineGroups;
+
+  private final Map<FormField, String> baselineContents;
+
+  private final SimulationResults results = new SimulationResults();
+
+  private final Set<String> changedValues = new HashSet<>();
+
+  private final Set<String> changedGroups = new HashSet<>();
+
+  private final Set<FormField> changedContents = new HashSet<>();
+
+  /**
+   * Erfasst den Ausgangszustand.
+   *
+   * @param values
+   *          Die aktuellen Formularwerte.
+   * @param groups
+   *          Die aktuelle Sichtbarkeit der Gruppen.
+   * @param formFields
+   *          Alle Formularfelder des Dokuments. Ihr Inhalt wird hier einmal ausgelesen.
+   */
+  SimulationContext(Map<String, String> values, Map<String, Boolean> groups,
+      Collection<FormField> formFields)
+  {
+    baselineValues = new HashMap<>(values);
+    baselineGroups = new HashMap<>(groups);
+    baselineContents = new HashMap<>();
+    for (FormField ff : formFields)
+    {
+      baselineContents.put(ff, ff.getValue());
+    }
+
+    results.setFormFieldValues(new HashMap<>(baselineValues));
+    results.setGroupsVisibilityState(new HashMap<>(baselineGroups));
+    for (Map.Entry<FormField, String> entry : baselineContents.entrySet())
+    {
+      results.setFormFieldContent(entry.getKey(), entry.getValue());
+    }
+    LOGGER.debug("Simulation mit {} Formularwerten und {} Formularfeldern vorbereitet",
+        baselineValues.size(), baselineContents.size());
+  }
+
+  /**
+   * Liefert das Simulationsergebnis. Es wird bei jedem {@link #reset()} wiederverwendet und muss
+   * daher vorher verarbeitet sein.
+   */
+  SimulationResults getResults()
+  {
+    return results;
+  }
+
+  /**
+   * Liefert die Formularwerte des Ausgangszustands.
+   */
+  Map<String, String> getBaselineValues()
+  {
+    return baselineValues;
+  }
+
+  void setFormFieldValue(String fieldId, String value)
+  {
+    results.setFormFieldValue(fieldId, value);
+    changedValues.add(fieldId);
+  }
+
+  void setFormFieldContent(FormField field, String content)
+  {
+    results.setFormFieldContent(field, content);
+    changedContents.add(field);
+  }
+
+  /**
+   * Liefert die aktuelle Sichtbarkeit der Gruppen und merkt sich, dass die von groupId geändert
+   * wird.
+   */
+  Map<String, Boolean> changeGroup(String groupId)
+  {
+    changedGroups.add(groupId);
+    return results.getGroupsVisibilityState();
+  }
+
+  /**
+   * Setzt alle seit dem letzten Aufruf geänderten Einträge auf den Ausgangszustand zurück.
+   *
+   * @return Die IDs der Formularwerte, die zurückgesetzt wurden.
+   */
+  List<String> reset()
+  {
+    for (String id : changedValues)
+    {
+      if (baselineValues.containsKey(id))
+      {
+        results.setFormFieldValue(id, baselineValues.get(id));
+      }
+      else
+      {
+        results.getFormFieldValues().remove(id);
+      }
+    }
+
+    Map<String, Boolean> groups = results.getGroupsVisibilityState();
+    for (String groupId : changedGroups)
+    {
+      if (baselineGroups.containsKey(groupId))
+      {
+        groups.put(groupId, baselineGroups.get(groupId));
+      }
+      else
+      {
+        groups.remove(groupId);
+      }
+    }
+
+    for (FormField ff : changedContents)
+    {
+      results.setFormFieldContent(ff, baselineContents.get(ff));
+    }
+
+    List<String> reset = new ArrayList<>(changedValues);
+    changedValues.clear();
+    changedGroups.clear();
+    changedContents.clear();
+    return reset;
+  }
+}
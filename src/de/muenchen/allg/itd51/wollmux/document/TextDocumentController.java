@@ -2,8 +2,12 @@ package de.muenchen.allg.itd51.wollmux.document;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -38,7 +42,6 @@ import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.itd51.wollmux.SachleitendeVerfuegung;
 import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.core.db.ColumnNotFoundException;
-import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
 import de.muenchen.allg.itd51.wollmux.core.db.DatasetNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.dialog.DialogLibrary;
 import de.muenchen.allg.itd51.wollmux.core.document.Bookmark;
@@ -68,10 +71,9 @@ import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.parser.SyntaxErrorException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.core.util.Utils;
-import de.muenchen.allg.itd51.wollmux.db.DatasourceJoinerFactory;
+import de.muenchen.allg.itd51.wollmux.db.SenderSnapshot;
 import de.muenchen.allg.itd51.wollmux.dialog.DialogFactory;
 import de.muenchen.allg.itd51.wollmux.dialog.mailmerge.MailMergeDatasource;
-import de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler;
 import de.muenchen.allg.itd51.wollmux.form.control.FormController;
 
 public class TextDocumentController implements FormValueChangedListener, VisibilityChangedListener
@@ -111,6 +113,20 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    */
   private SimulationResults simulationResult = null;
 
+  /**
+   * Der Ausgangszustand für eine Folge von Simulationsläufen oder null. Er wird
+   * beim ersten {@link #startSimulation()} erfasst und bleibt erhalten, bis
+   * {@link #resetSimulationBaseline()} aufgerufen oder das Dokument außerhalb einer
+   * Simulation verändert wird.
+   */
+  private SimulationContext simulationContext = null;
+
+  /**
+   * Bestimmt, welche Formularfelder und Sichtbarkeitselemente bei einer Änderung
+   * neu berechnet werden müssen.
+   */
+  private final FormDependencyIndex dependencies = new FormDependencyIndex();
+
   /**
    * Der Vorschaumodus ist standardmäßig immer gesetzt - ist dieser Modus nicht
    * gesetzt, so werden in den Formularfeldern des Dokuments nur die Feldnamen in
@@ -124,6 +140,23 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
 
   private FormModel formModel;
 
+  /**
+   * Sammelt die Wert- und Sichtbarkeitsänderungen des FormModels, bevor sie ins Dokument
+   * übertragen werden.
+   */
+  private final FormValueCoalescer formValueCoalescer;
+
+  /**
+   * Die Formularwerte in der Form, in der sie in den persistenten Daten abgelegt werden. Sie werden
+   * erst bei {@link #flushPersistentData()} geschrieben.
+   */
+  private final PersistentFormValues persistentFormValues = new PersistentFormValues();
+
+  /**
+   * Die zwischengespeicherten Ergebnisse der TRAFOs dieses Dokuments.
+   */
+  private final TrafoResultCache trafoResults;
+
   public TextDocumentController(TextDocumentModel model, FunctionLibrary globalFunctions, DialogLibrary globalDialogs)
   {
     this.model = model;
@@ -132,6 +165,8 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     this.globalDialogs = globalDialogs;
 
     functionContext = new HashMap<>();
+    formValueCoalescer = new FormValueCoalescer(this);
+    trafoResults = new TrafoResultCache(model);
 
     parseInitialOverrideFragMap(getInitialOverrideFragMap());
   }
@@ -407,9 +442,17 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     return false;
   }
 
-  public synchronized void updateDocumentCommands()
+  /**
+   * Liest die Dokumentkommandos neu ein und verwirft den Index der Sichtbarkeitsgruppen. Alle
+   * Aktualisierungen der Dokumentkommandos müssen über diese Methode laufen.
+   *
+   * @return true, wenn sich die Dokumentkommandos dabei geändert haben.
+   */
+  public synchronized boolean updateDocumentCommands()
   {
-    model.getDocumentCommands().update();
+    boolean changed = model.getDocumentCommands().update();
+    dependencies.invalidateGroups();
+    return changed;
   }
 
   /**
@@ -424,6 +467,48 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     updateFormFields(id);
   }
 
+  /**
+   * Übernimmt mehrere Formularwerte ins Model und ins Dokument. Die persistenten Daten werden
+   * dabei nur einmal geschrieben.
+   *
+   * @param values
+   *          Abbildung der Namen der Formularfelder auf ihren neuen Inhalt.
+   */
+  public synchronized void addFormFieldValues(Map<String, String> values)
+  {
+    if (simulationResult == null)
+    {
+      simulationContext = null;
+      model.updateLastTouchedByVersionInfo();
+      persistentFormValues.init(model.getFormFieldValues());
+      for (Map.Entry<String, String> entry : values.entrySet())
+      {
+        if (entry.getValue() == null)
+          model.getFormFieldValues().remove(entry.getKey());
+        else
+          model.getFormFieldValues().put(entry.getKey(), entry.getValue());
+        persistentFormValues.put(entry.getKey(), entry.getValue());
+      }
+    }
+    else
+    {
+      for (Map.Entry<String, String> entry : values.entrySet())
+        simulationContext.setFormFieldValue(entry.getKey(), entry.getValue());
+    }
+
+    updateFormFields(values.keySet());
+  }
+
+  /**
+   * Überträgt alle von der Formular-GUI gemeldeten, aber noch nicht ins Dokument übernommenen
+   * Änderungen sofort. Muss vor allen Aktionen aufgerufen werden, die den aktuellen Stand des
+   * Dokuments benötigen (z.B. Drucken, Speichern, Schließen).
+   */
+  public void flushFormFieldValues()
+  {
+    formValueCoalescer.flush();
+  }
+
   /**
    * Führt alle Funktionen aus funcs der Reihe nach aus, solange bis eine davon einen
    * nicht-leeren String zurückliefert und interpretiert diesen als Angabe, welche
@@ -530,6 +615,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   {
     model.getIdToTextFieldFormFields().clear();
     model.getStaticTextFieldFormFields().clear();
+    dependencies.invalidateStaticFields();
 
     try
     {
@@ -801,11 +887,10 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       Function func = getFunctionLibrary().get(trafoName);
       if (func != null)
       {
-        SimpleMap args = new SimpleMap();
         String[] pars = func.parameters();
-        for (int i = 0; i < pars.length; i++)
-          args.put(pars[i], value);
-        transformed = func.getString(args);
+        String[] values = new String[pars.length];
+        Arrays.fill(values, value);
+        transformed = getTransformedValue(trafoName, func, pars, values);
       }
       else
       {
@@ -839,11 +924,11 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     Function func = getFunctionLibrary().get(trafoName);
     if (func != null)
     {
-      SimpleMap args = new SimpleMap();
       String[] pars = func.parameters();
+      String[] values = new String[pars.length];
       for (int i = 0; i < pars.length; i++)
-        args.put(pars[i], mapIdToValues.get(pars[i]));
-      return func.getString(args);
+        values[i] = mapIdToValues.get(pars[i]);
+      return getTransformedValue(trafoName, func, pars, values);
     }
     else
     {
@@ -852,6 +937,26 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     }
   }
 
+  /**
+   * Berechnet die Trafofunktion func mit den Werten values für die Parameter pars
+   * oder liefert das zwischengespeicherte Ergebnis einer früheren Berechnung mit
+   * den selben Werten (siehe {@link TrafoResultCache}).
+   */
+  private String getTransformedValue(String trafoName, Function func, String[] pars,
+      String[] values)
+  {
+    String transformed = trafoResults.get(trafoName, func, values);
+    if (transformed == null)
+    {
+      SimpleMap args = new SimpleMap();
+      for (int i = 0; i < pars.length; i++)
+        args.put(pars[i], values[i]);
+      transformed = func.getString(args);
+      trafoResults.put(trafoName, func, values, transformed);
+    }
+    return transformed;
+  }
+
   /**
    * Markiert das Dokument als Formulardokument - damit liefert
    * {@link #isFormDocument()} zukünftig true und der Typ "formDocument" wird
@@ -900,6 +1005,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
 
     model.getPersistentData().removeData(DataID.FORMULARBESCHREIBUNG);
     model.getPersistentData().removeData(DataID.FORMULARWERTE);
+    persistentFormValues.reset();
   }
 
   /**
@@ -1034,12 +1140,20 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
 
   /**
    * Stellt sicher, dass persistente Daten dieses Dokuments auch tatsächlich
-   * persistiert werden.
+   * persistiert werden. Erst hier werden geänderte Formularwerte in den Abschnitt
+   * "Formularwerte" der persistenten Daten geschrieben.
    *
    * @author Christoph Lutz (D-III-ITD-D101)
    */
   public synchronized void flushPersistentData()
   {
+    flushFormFieldValues();
+    if (persistentFormValues.isDirty())
+    {
+      model.getPersistentData().setData(DataID.FORMULARWERTE,
+          persistentFormValues.getSerialized());
+      persistentFormValues.markClean();
+    }
     model.getPersistentData().flush();
   }
 
@@ -1393,6 +1507,68 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     }
   }
 
+  /**
+   * Wie {@link #updateFormFields(String)} für mehrere IDs. Felder, deren TRAFO von mehreren
+   * dieser IDs abhängt, und die Felder ohne abhängige IDs werden dabei nur einmal berechnet.
+   */
+  private void updateFormFields(Collection<String> fieldIds)
+  {
+    if (!formFieldPreviewMode)
+    {
+      for (String fieldId : fieldIds)
+      {
+        updateFormFields(fieldId);
+      }
+      return;
+    }
+
+    List<FormField> dependentFields = new ArrayList<>();
+    Set<FormField> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    String value = "";
+    for (String fieldId : fieldIds)
+    {
+      value = model.getFormFieldValuesMap().get(fieldId);
+      if (simulationResult != null)
+        value = simulationResult.getFormFieldValues().get(fieldId);
+      if (value == null) {
+        value = "";
+      }
+      setFormFields(model.getIdToFormFields().get(fieldId), value, true, false);
+
+      List<FormField> textFields = model.getIdToTextFieldFormFields().get(fieldId);
+      if (textFields == null) {
+        continue;
+      }
+      List<FormField> plainFields = new ArrayList<>();
+      for (FormField field : textFields)
+      {
+        // Felder ohne TRAFO zeigen direkt den Wert dieser ID an.
+        if (field.getTrafoName() == null)
+          plainFields.add(field);
+        else if (seen.add(field))
+          dependentFields.add(field);
+      }
+      setFormFields(plainFields, value, true, true);
+    }
+    setFormFields(dependentFields, value, true, true);
+
+    List<FormField> staticFields = model.getStaticTextFieldFormFields();
+    if (dependencies.isStaticFieldsDirty())
+    {
+      setFormFields(staticFields, value, true, true);
+      if (simulationResult == null)
+        dependencies.staticFieldsUpdated();
+    }
+    else
+    {
+      FormDependencyIndex.countSkipped(staticFields.size());
+    }
+
+    if (simulationResult == null) {
+      model.setDocumentModified(true);
+    }
+  }
+
   /**
    * Blendet alle Sichtbarkeitselemente eines Dokuments (Dokumentkommandos oder
    * Bereiche mit Namensanhang 'GROUPS ...'), die einer bestimmten Gruppe groupId
@@ -1407,17 +1583,18 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     {
       Map<String, Boolean> groupState = model.getMapGroupIdToVisibilityState();
       if (simulationResult != null)
-        groupState = simulationResult.getGroupsVisibilityState();
+        groupState = simulationContext.changeGroup(groupId);
+      else
+        simulationContext = null;
 
       groupState.put(groupId, visible);
 
       VisibilityElement firstChangedElement = null;
 
-      // Sichtbarkeitselemente durchlaufen und alle ggf. updaten:
-      Iterator<VisibilityElement> iter = model.getDocumentCommands().getSetGroups().iterator();
-      while (iter.hasNext())
+      // Sichtbarkeitselemente der Gruppe durchlaufen und alle ggf. updaten:
+      for (VisibilityElement visibleElement : dependencies
+          .getVisibilityElements(model.getDocumentCommands().getSetGroups(), groupId))
       {
-        VisibilityElement visibleElement = iter.next();
         Set<String> groups = visibleElement.getGroups();
         if (!groups.contains(groupId)) {
           continue;
@@ -1480,6 +1657,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    */
   private void updateAllFormFields()
   {
+    dependencies.invalidateStaticFields();
     for (String fieldId : model.getAllFieldIDs())
     {
       updateFormFields(fieldId);
@@ -1489,6 +1667,10 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   /**
    * Setzt den Inhalt aller Formularfelder mit ID fieldId auf value.
    *
+   * Die Felder, deren TRAFO keine Parameter hat, hängen nicht von fieldId ab und
+   * werden nur berechnet, wenn sie noch nicht aktuell sind (siehe
+   * {@link FormDependencyIndex}).
+   *
    * @param applyTrafo
    *          gibt an, ob eine evtl. vorhandene TRAFO-Funktion angewendet werden soll
    *          (true) oder nicht (false).
@@ -1498,7 +1680,18 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   {
     setFormFields(model.getIdToFormFields().get(fieldId), value, applyTrafo, false);
     setFormFields(model.getIdToTextFieldFormFields().get(fieldId), value, applyTrafo, true);
-    setFormFields(model.getStaticTextFieldFormFields(), value, applyTrafo, true);
+
+    List<FormField> staticFields = model.getStaticTextFieldFormFields();
+    if (!applyTrafo || dependencies.isStaticFieldsDirty())
+    {
+      setFormFields(staticFields, value, applyTrafo, true);
+      if (applyTrafo && simulationResult == null)
+        dependencies.staticFieldsUpdated();
+    }
+    else
+    {
+      FormDependencyIndex.countSkipped(staticFields.size());
+    }
   }
 
   /**
@@ -1526,7 +1719,10 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     }
 
     if (simulationResult == null)
+    {
+      simulationContext = null;
       model.updateLastTouchedByVersionInfo();
+    }
 
     for (FormField field : formFields)
       try
@@ -1535,6 +1731,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
         String trafoName = field.getTrafoName();
         if (trafoName != null && applyTrafo)
         {
+          FormDependencyIndex.countEvaluated();
           if (useKnownFormValues)
             result = getTransformedValue(trafoName);
           else
@@ -1546,7 +1743,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
         if (simulationResult == null)
           field.setValue(result);
         else
-          simulationResult.setFormFieldContent(field, result);
+          simulationContext.setFormFieldContent(field, result);
       }
       catch (RuntimeException e)
       {
@@ -1585,6 +1782,12 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    * die Änderungen nicht auf dem gerade offenen TextDocument durchgeführt werden,
    * sondern auf einer durch den OOo-Seriendruckmechanismus verwalteten Kopie des
    * Dokuments.
+   *
+   * Der Ausgangszustand des Dokuments wird nur beim ersten Aufruf erfasst. Bei
+   * weiteren Aufrufen werden nur die im letzten Simulationslauf geänderten Werte
+   * zurückgesetzt, so dass der Aufwand je Datensatz nicht von der Anzahl der
+   * Formularfelder abhängt. Am Ende der Folge von Simulationsläufen sollte
+   * {@link #resetSimulationBaseline()} aufgerufen werden.
    */
   public synchronized void startSimulation()
   {
@@ -1594,32 +1797,45 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       return;
     }
 
-    simulationResult = new SimulationResults();
-    simulationResult.setFormFieldValues(model.getFormFieldValuesMap());
-    simulationResult.setGroupsVisibilityState(model.getMapGroupIdToVisibilityState());
+    flushFormFieldValues();
 
-    // Aktuell gesetzte FormField-Inhalte auslesen und simulationResults bekannt
-    // machen.
-    HashSet<FormField> ffs = new HashSet<>();
-    for (List<FormField> l : model.getIdToFormFields().values())
-      for (FormField ff : l)
-        ffs.add(ff);
-    for (List<FormField> l : model.getIdToTextFieldFormFields().values())
-      for (FormField ff : l)
-        ffs.add(ff);
-    ffs.addAll(model.getStaticTextFieldFormFields());
-    for (FormField ff : ffs)
-      simulationResult.setFormFieldContent(ff, ff.getValue());
+    Map<String, String> values;
+    if (simulationContext == null)
+    {
+      // Aktuell gesetzte FormField-Inhalte auslesen und simulationResults bekannt
+      // machen.
+      HashSet<FormField> ffs = new HashSet<>();
+      for (List<FormField> l : model.getIdToFormFields().values())
+        for (FormField ff : l)
+          ffs.add(ff);
+      for (List<FormField> l : model.getIdToTextFieldFormFields().values())
+        for (FormField ff : l)
+          ffs.add(ff);
+      ffs.addAll(model.getStaticTextFieldFormFields());
+      simulationContext = new SimulationContext(model.getFormFieldValuesMap(),
+          model.getMapGroupIdToVisibilityState(), ffs);
+      values = simulationContext.getBaselineValues();
+    }
+    else
+    {
+      values = new HashMap<>();
+      for (String id : simulationContext.reset())
+      {
+        if (simulationContext.getBaselineValues().containsKey(id))
+          values.put(id, simulationContext.getBaselineValues().get(id));
+      }
+    }
+    simulationResult = simulationContext.getResults();
 
     FormController formController = DocumentManager.getDocumentManager().getFormModel(model.doc);
 
     if (formController != null)
     {
-      for (Map.Entry<String, String> values : simulationResult.getFormFieldValues().entrySet())
+      for (Map.Entry<String, String> entry : values.entrySet())
       {
-        if (formController.hasFieldId(values.getKey()))
+        if (formController.hasFieldId(entry.getKey()))
         {
-          formController.setValue(values.getKey(), values.getValue(), null);
+          formController.setValue(entry.getKey(), entry.getValue(), null);
         }
       }
     }
@@ -1628,7 +1844,9 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   /**
    * Beendet den mit {@link #startSimulation()} gestarteten Simulationsmodus und
    * liefert das Simulationsergebnis in SimulationResults zurück oder null, wenn der
-   * Simulationsmodus vorher nicht gestartet wurde.
+   * Simulationsmodus vorher nicht gestartet wurde. Das Ergebnis wird beim nächsten
+   * {@link #startSimulation()} wiederverwendet und muss daher vorher verarbeitet
+   * sein.
    */
   public synchronized SimulationResults stopSimulation()
   {
@@ -1637,6 +1855,18 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     return r;
   }
 
+  /**
+   * Verwirft den beim ersten {@link #startSimulation()} erfassten Ausgangszustand,
+   * z.B. am Ende eines Seriendrucks. Der nächste Simulationslauf erfasst ihn neu.
+   */
+  public synchronized void resetSimulationBaseline()
+  {
+    if (simulationResult == null)
+    {
+      simulationContext = null;
+    }
+  }
+
   /**
    * Diese Methode entfernt alle Reste, die von nicht mehr referenzierten
    * AUTOFUNCTIONS übrig bleiben: AUTOFUNCTIONS-Definitionen aus der
@@ -1784,47 +2014,19 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   {
     if (simulationResult == null)
     {
+      simulationContext = null;
       model.updateLastTouchedByVersionInfo();
+      persistentFormValues.init(model.getFormFieldValues());
       if (value == null)
         model.getFormFieldValues().remove(fieldId);
       else
         model.getFormFieldValues().put(fieldId, value);
-      model.getPersistentData().setData(DataID.FORMULARWERTE, getFormFieldValuesString());
+      persistentFormValues.put(fieldId, value);
     }
     else
-      simulationResult.setFormFieldValue(fieldId, value);
+      simulationContext.setFormFieldValue(fieldId, value);
   }
 
-  /**
-   * Serialisiert die aktuellen Werte aller Fomularfelder.
-   */
-  private String getFormFieldValuesString()
-  {
-    // Neues ConfigThingy für "Formularwerte"-Abschnitt erzeugen:
-    ConfigThingy werte = new ConfigThingy("WM");
-    ConfigThingy formwerte = new ConfigThingy("Formularwerte");
-    werte.addChild(formwerte);
-    for (Map.Entry<String, String> ent : model.getFormFieldValues().entrySet())
-    {
-      String key = ent.getKey();
-      String value = ent.getValue();
-      if (key != null && value != null)
-      {
-        ConfigThingy entry = new ConfigThingy("");
-        ConfigThingy cfID = new ConfigThingy("ID");
-        cfID.add(key);
-        ConfigThingy cfVALUE = new ConfigThingy("VALUE");
-        cfVALUE.add(value);
-        entry.addChild(cfID);
-        entry.addChild(cfVALUE);
-        formwerte.addChild(entry);
-      }
-    }
-
-    return werte.stringRepresentation();
-  }
-
-
   /**
    * Speichert die aktuelle Formularbeschreibung in den persistenten Daten des
    * Dokuments oder löscht den entsprechenden Abschnitt aus den persistenten Daten,
@@ -1882,6 +2084,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
         model.getFormDescription().query("Formular").query("Funktionen").query(trafoName,
           2).getLastChild();
       substituteValueRecursive(trafoConf, oldFieldId, newFieldId);
+      trafoResults.invalidate();
 
       // neue Formularbeschreibung persistent machen
       storeCurrentFormDescription();
@@ -2069,6 +2272,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       ConfigThingy f = iter.next();
       func.addChild(new ConfigThingy(f));
     }
+    trafoResults.invalidate();
 
     // neue Formularbeschreibung sichern
     storeCurrentFormDescription();
@@ -2380,8 +2584,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     {
       try
       {
-        Dataset ds = DatasourceJoinerFactory.getDatasourceJoiner().getSelectedDatasetTransformed();
-        String value = ds.get(overrideFragDbSpalte);
+        String value = SenderSnapshot.get().get(overrideFragDbSpalte);
         if (value == null) {
           value = "";
         }
@@ -2541,14 +2744,15 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    * newValue (bzw. auf das Ergebnis der zu diesem Formularelement hinterlegten Trafo-Funktion).
    *
    * Es ist nicht garantiert, dass sich der Wert tatsächlich geändert hat. Die fieldId kann leer
-   * sein (aber nie null).
+   * sein (aber nie null). Die Änderung wird nicht sofort, sondern gesammelt mit weiteren
+   * Änderungen über den {@link FormValueCoalescer} ins Dokument übertragen.
    */
   @Override
   public void valueChanged(String id, String value)
   {
     if (!id.isEmpty())
     {
-      WollMuxEventHandler.getInstance().handleFormValueChanged(this, id, value);
+      formValueCoalescer.valueChanged(id, value);
     }
   }
 
@@ -2563,7 +2767,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   @Override
   public void visibilityChanged(String groupId, boolean visible)
   {
-    WollMuxEventHandler.getInstance().handleSetVisibleState(this, groupId, visible, null);
+    formValueCoalescer.visibilityChanged(groupId, visible);
   }
 
   @Override
@@ -0,0 +1,232 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
+import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel;
+import de.muenchen.allg.itd51.wollmux.core.functions.Function;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
+
+/**
+ * Merkt sich die Ergebnisse der TRAFOs eines Dokuments.
+ *
+ * Der Schlüssel besteht aus der {@link Function} und den Werten ihrer Parameter. Ändert sich ein
+ * Eingabewert, ergibt sich ein anderer Schlüssel; wird die TRAFO neu definiert, ist es eine andere
+ * Function. Zwischengespeichert werden nur TRAFOs, deren Ergebnis ausschließlich von ihren
+ * Parametern abhängt, d.h. deren Definition (auch über BIND eingebundene Funktionen) weder EXTERN
+ * noch DIALOG verwendet. TRAFOs, deren Definition nicht gefunden wird, werden immer berechnet.
+ */
+public class TrafoResultCache
+{
+  /**
+   * Die Anzahl der Ergebnisse, die höchstens gespeichert werden.
+   */
+  private static final int MAX_ENTRIES = 2000;
+
+  /**
+   * Funktionen, deren Ergebnis nicht nur von den Parametern abhängt.
+   */
+  private static final Set<String> IMPURE_FUNCTIONS =
+    new HashSet<>(Arrays.asList("EXTERN", "DIALOG"));
+
+  private static final AtomicLong hits = new AtomicLong();
+
+  private static final AtomicLong misses = new AtomicLong();
+
+  private static final AtomicLong uncached = new AtomicLong();
+
+  /**
+   * Das Dokument, in dessen Formularbeschreibung die dokumentlokalen TRAFOs stehen.
+   */
+  private final TextDocumentModel model;
+
+  private final Map<String, Boolean> pure = new HashMap<>();
+
+  private final Map<Key, String> results = new LinkedHashMap<Key, String>(16, 0.75f, true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, String> eldest)
+    {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  TrafoResultCache(TextDocumentModel model)
+  {
+    this.model = model;
+  }
+
+  /**
+   * Liefert das gespeicherte Ergebnis der TRAFO trafoName (Funktion func) für die Werte args ihrer
+   * Parameter oder null, wenn es keines gibt. args muss die Werte in der Reihenfolge von
+   * {@link Function#parameters()} enthalten.
+   */
+  synchronized String get(String trafoName, Function func, String[] args)
+  {
+    if (!isPure(trafoName))
+    {
+      uncached.incrementAndGet();
+      return null;
+    }
+    String result = results.get(new Key(func, args));
+    if (result != null)
+    {
+      hits.incrementAndGet();
+    }
+    else
+    {
+      misses.incrementAndGet();
+    }
+    return result;
+  }
+
+  /**
+   * Speichert das Ergebnis result der TRAFO trafoName, falls sie nur von ihren Parametern abhängt.
+   */
+  synchronized void put(String trafoName, Function func, String[] args, String result)
+  {
+    if (result != null && isPure(trafoName))
+    {
+      results.put(new Key(func, args), result);
+    }
+  }
+
+  /**
+   * Verwirft alle Ergebnisse, z.B. nachdem eine TRAFO geändert wurde.
+   */
+  synchronized void invalidate()
+  {
+    results.clear();
+    pure.clear();
+  }
+
+  private boolean isPure(String trafoName)
+  {
+    Boolean p = pure.get(trafoName);
+    if (p == null)
+    {
+      p = isPure(trafoName, new HashSet<String>());
+      pure.put(trafoName, p);
+    }
+    return p;
+  }
+
+  private boolean isPure(String functionName, Set<String> visited)
+  {
+    if (!visited.add(functionName))
+    {
+      return true;
+    }
+    ConfigThingy def = getDefinition(functionName);
+    return def != null && isPure(def, visited);
+  }
+
+  private boolean isPure(ConfigThingy conf, Set<String> visited)
+  {
+    for (ConfigThingy child : conf)
+    {
+      if (child.count() == 0)
+      {
+        continue;
+      }
+      String name = child.getName();
+      if (IMPURE_FUNCTIONS.contains(name))
+      {
+        return false;
+      }
+      if ("BIND".equals(name))
+      {
+        for (ConfigThingy bound : child.query("FUNCTION", 1))
+        {
+          ConfigThingy ref = bound.count() == 1 ? bound.iterator().next() : null;
+          if (ref != null && ref.count() == 0 && !isPure(ref.getName(), visited))
+          {
+            return false;
+          }
+        }
+      }
+      if (!isPure(child, visited))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Liefert die Definition der Funktion functionName aus der Formularbeschreibung oder der
+   * wollmux.conf oder null, wenn es keine gibt.
+   */
+  private ConfigThingy getDefinition(String functionName)
+  {
+    try
+    {
+      return model.getFormDescription().query("Formular").query("Funktionen")
+          .query(functionName, 2).getLastChild();
+    }
+    catch (NodeNotFoundException e)
+    {
+      // keine dokumentlokale Funktion
+    }
+    try
+    {
+      return WollMuxFiles.getWollmuxConf().query("Funktionen", 1).query(functionName, 2)
+          .getLastChild();
+    }
+    catch (NodeNotFoundException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Liefert die Trefferquote für den Dump.
+   */
+  public static String getStatistics()
+  {
+    long h = hits.get();
+    long m = misses.get();
+    long rate = h + m > 0 ? h * 100 / (h + m) : 0;
+    return "hits=" + h + ", misses=" + m + ", hitRate=" + rate + "%, uncacheable=" + uncached.get();
+  }
+
+  private static class Key
+  {
+    private final Function func;
+
+    private final List<String> args;
+
+    private Key(Function func, String[] args)
+    {
+      this.func = func;
+      this.args = Arrays.asList(args);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * System.identityHashCode(func) + args.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof Key))
+      {
+        return false;
+      }
+      Key other = (Key) obj;
+      return func == other.func && args.equals(other.args);
+    }
+  }
+}
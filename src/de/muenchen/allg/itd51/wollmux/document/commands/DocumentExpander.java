@@ -1,6 +1,8 @@
 package de.muenchen.allg.itd51.wollmux.document.commands;
 
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -17,7 +19,6 @@ import com.sun.star.container.XEnumerationAccess;
 import com.sun.star.io.IOException;
 import com.sun.star.lang.IllegalArgumentException;
 import com.sun.star.style.XStyleFamiliesSupplier;
-import com.sun.star.style.XStyleLoader;
 import com.sun.star.text.XTextCursor;
 import com.sun.star.text.XTextDocument;
 import com.sun.star.text.XTextField;
@@ -25,10 +26,9 @@ import com.sun.star.text.XTextRange;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.afid.UnoProps;
+import de.muenchen.allg.itd51.wollmux.TextFragmentIndex;
 import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
-import de.muenchen.allg.itd51.wollmux.WollMuxSingleton;
 import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel.OverrideFragChainException;
-import de.muenchen.allg.itd51.wollmux.core.document.VisibleTextFragmentList;
 import de.muenchen.allg.itd51.wollmux.core.document.WMCommandsFailedException;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.AbstractExecutor;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand;
@@ -108,8 +108,10 @@ class DocumentExpander extends AbstractExecutor
     {
       i++;
       errors += executeOverrideFrags(commands);
+      prefetchFragments(commands);
       errors += executeAll(commands);
-    } while (commands.update() && i < 50);
+    } while (documentCommandInterpreter.getDocumentController().updateDocumentCommands()
+        && i < 50);
 
     return errors;
   }
@@ -142,6 +144,74 @@ class DocumentExpander extends AbstractExecutor
     return errors;
   }
 
+  /**
+   * Sammelt die URLs aller noch nicht ausgeführten insertFrag- und
+   * insertContent-Kommandos aus commands (unter Berücksichtigung der bereits
+   * ausgewerteten OverrideFrags) und lässt sie vom {@link DocumentLoader}
+   * parallel im Hintergrund laden. Das Einfügen selbst geschieht weiterhin der
+   * Reihe nach in diesem Thread und wartet nur noch auf Fragmente, die noch nicht
+   * geladen sind.
+   *
+   * Bei insertFrag wird nur die erste URL eines Fragments vorab geladen, die
+   * weiteren werden wie bisher erst versucht, wenn die erste nicht funktioniert.
+   */
+  private void prefetchFragments(DocumentCommands commands)
+  {
+    List<String> urls = new ArrayList<>();
+    int nextContent = fragUrlsCount;
+    for (Iterator<DocumentCommand> iter = commands.iterator(); iter.hasNext();)
+    {
+      DocumentCommand cmd = iter.next();
+      if (cmd.isDone() || cmd.hasError())
+      {
+        continue;
+      }
+
+      try
+      {
+        if (cmd instanceof InsertFrag)
+        {
+          String fragId = this.documentCommandInterpreter.getModel()
+              .getOverrideFrag(((InsertFrag) cmd).getFragID());
+          if (fragId.length() > 0)
+          {
+            List<String> fragUrlList = TextFragmentIndex.getURLsByID(fragId);
+            if (!fragUrlList.isEmpty())
+            {
+              urls.add(toLoaderURL(fragUrlList.get(0)));
+            }
+          }
+        }
+        else if (cmd instanceof InsertContent && nextContent < fragUrls.length)
+        {
+          urls.add(toLoaderURL(fragUrls[nextContent++]));
+        }
+      }
+      catch (java.lang.Exception e)
+      {
+        // Der Fehler tritt beim eigentlichen Einfügen erneut auf und wird dort
+        // behandelt.
+        LOGGER.debug("", e);
+      }
+    }
+
+    if (!urls.isEmpty())
+    {
+      DocumentLoader.getInstance().prefetch(urls);
+    }
+  }
+
+  /**
+   * Liefert zu urlStr die URL, unter der das Fragment beim Einfügen im
+   * {@link DocumentLoader} gesucht wird (siehe
+   * {@link #insertDocumentFromURL(DocumentCommand, URL)}).
+   */
+  private static String toLoaderURL(String urlStr) throws MalformedURLException
+  {
+    URL url = WollMuxFiles.makeURL(urlStr);
+    return UNO.getParsedUNOUrl(url.toExternalForm()).Complete;
+  }
+
   /**
    * Wertet ein OverrideFrag-Kommandos aus, über das Fragmente umgemapped werden
    * können, und setzt das Kommando sofort auf DONE. Dies geschieht vor der
@@ -191,7 +261,7 @@ class DocumentExpander extends AbstractExecutor
         return 0;
       }
 
-      List<String> urls = VisibleTextFragmentList.getURLsByID(WollMuxFiles.getWollmuxConf(), fragId);
+      List<String> urls = TextFragmentIndex.getURLsByID(fragId);
       if (urls.isEmpty())
       {
         throw new ConfigurationErrorException(L.m(
@@ -341,10 +411,7 @@ class DocumentExpander extends AbstractExecutor
     // verarbeitet werden kann.
     String urlStr = UNO.getParsedUNOUrl(url.toExternalForm()).Complete;
 
-    if (!DocumentLoader.getInstance().hasDocument(urlStr))
-    {
-      WollMuxSingleton.checkURL(url);
-    }
+    DocumentLoader.getInstance().fetchDocument(urlStr);
 
     // Workaround: Alten Paragraphenstyle merken. Problembeschreibung siehe
     // http://qa.openoffice.org/issues/show_bug.cgi?id=60475
@@ -436,10 +503,7 @@ class DocumentExpander extends AbstractExecutor
     // verarbeitet werden kann.
     String urlStr = UNO.getParsedUNOUrl(url.toExternalForm()).Complete;
 
-    if (!DocumentLoader.getInstance().hasDocument(urlStr))
-    {
-      WollMuxSingleton.checkURL(url);
-    }
+    DocumentLoader.getInstance().fetchDocument(urlStr);
 
     // Styles einfügen:
     try
@@ -457,8 +521,8 @@ class DocumentExpander extends AbstractExecutor
       props.setPropertyValue("LoadNumberingStyles",
         Boolean.valueOf(styles.contains("numberingstyles")));
       XStyleFamiliesSupplier sfs = UNO.XStyleFamiliesSupplier(this.documentCommandInterpreter.getModel().doc);
-      XStyleLoader loader = UNO.XStyleLoader(sfs.getStyleFamilies());
-      loader.loadStylesFromURL(urlStr, props.getProps());
+      DocumentLoader.getInstance().loadStyles(sfs.getStyleFamilies(), urlStr,
+          props.getProps());
     }
     catch (NullPointerException e)
     {
@@ -1,14 +1,13 @@
 package de.muenchen.allg.itd51.wollmux.document.commands;
 
 import de.muenchen.allg.itd51.wollmux.core.db.ColumnNotFoundException;
-import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
 import de.muenchen.allg.itd51.wollmux.core.db.DatasetNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.AbstractExecutor;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommands;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
-import de.muenchen.allg.itd51.wollmux.db.DatasourceJoinerFactory;
+import de.muenchen.allg.itd51.wollmux.db.SenderSnapshot;
 
 /**
  * Der Hauptverarbeitungsschritt, in dem vor allem die Textinhalte gefüllt werden.
@@ -87,8 +86,7 @@ class MainProcessor extends AbstractExecutor
     String value = null;
     try
     {
-      Dataset ds = DatasourceJoinerFactory.getDatasourceJoiner().getSelectedDatasetTransformed();
-      value = ds.get(spaltenname);
+      value = SenderSnapshot.get().get(spaltenname);
       if (value == null) value = "";
 
       // ggf. TRAFO durchführen
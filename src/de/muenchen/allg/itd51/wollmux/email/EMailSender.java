@@ -24,6 +24,8 @@ package de.muenchen.allg.itd51.wollmux.email;
 import java.io.File;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,7 +33,6 @@ import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
@@ -94,13 +95,7 @@ public class EMailSender
       // Notwendig um MIME Types auf Java-Klassen zu mappen.
       // Manchmal funktioniert der ClassLoader nicht richtig
       Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-      Transport tr = session.getTransport("smtp");
-      // FYI: falls getUsername() || getPassword() = "" muss NULL übergeben werden,
-      // auch bei "" glaubt javamail AUTH aktivieren zu müssen was zu einer Auth-Exception führt.
-      tr.connect(mailServerSettings.getMailserver(), mailServerSettings.getMailserverport(),
-          mailServerSettings.getUsername(), mailServerSettings.getPassword());
-      email.saveChanges();
-      tr.sendMessage(email, email.getAllRecipients());
+      MailDeliveryService.getInstance().send(email, mailServerSettings);
     }
     catch (MessagingException e)
     {
@@ -108,6 +103,18 @@ public class EMailSender
     }
   }
 
+  /**
+   * Versendet die Nachricht im Hintergrund über eine wiederverwendete Verbindung (siehe
+   * {@link MailDeliveryService#submit(Message, MailServerSettings, BooleanSupplier)}). Die
+   * Nachricht darf danach nicht mehr verändert werden. Liefert canceled vor dem Versand true, so
+   * wird die Nachricht nicht versendet.
+   */
+  public CompletableFuture<Void> sendMessageAsync(MailServerSettings mailServerSettings,
+      BooleanSupplier canceled)
+  {
+    return MailDeliveryService.getInstance().submit(email, mailServerSettings, canceled);
+  }
+
   public MailServerSettings getWollMuxMailServerSettings()
       throws ConfigurationErrorException
   { 
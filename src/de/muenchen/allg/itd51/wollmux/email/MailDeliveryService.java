@@ -0,0 +1,336 @@
+/*
+ * Dateiname: MailDeliveryService.java
+ * Projekt  : WollMux
+ * Funktion : Teil des E-Mail-Wrappers für javamail
+ *
+ * Copyright (c) 2011-2019 Landeshauptstadt München
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the European Union Public Licence (EUPL),
+ * version 1.0 (or any later version).
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * European Union Public Licence for more details.
+ *
+ * You should have received a copy of the European Union Public Licence
+ * along with this program. If not, see
+ * http://ec.europa.eu/idabc/en/document/7330
+ */
+
+package de.muenchen.allg.itd51.wollmux.email;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Versendet E-Mails über wiederverwendete SMTP-Verbindungen.
+ *
+ * Je {@link MailServerSettings} (Server, Port, Benutzer, Passwort) werden bis zu
+ * {@link #MAX_IDLE_TRANSPORTS} angemeldete {@link Transport}s vorgehalten, so dass beim
+ * Seriendruck nicht für jede Nachricht eine neue Verbindung aufgebaut werden muss. Verbindungen,
+ * die länger als {@link #IDLE_TIMEOUT} ungenutzt waren, werden geschlossen.
+ *
+ * Mit {@link #submit(Message, MailServerSettings, BooleanSupplier)} wird eine Nachricht im
+ * Hintergrund versendet, während der Aufrufer z.B. schon das nächste Dokument erzeugt. Die
+ * Warteschlange ist begrenzt; ist sie voll, versendet der Aufrufer selbst. Wurde der Versand inzwischen abgebrochen, werden
+ * noch wartende Nachrichten nicht mehr versendet. Vorübergehende Fehler (z.B. abgebrochene
+ * Verbindungen) werden bis zu {@link #MAX_ATTEMPTS} mal mit einer neuen Verbindung wiederholt,
+ * fehlgeschlagene Anmeldung und ungültige Adressen nicht.
+ */
+public class MailDeliveryService
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(MailDeliveryService.class);
+
+  private static final int THREADS = 3;
+
+  private static final int QUEUE_SIZE = 20;
+
+  private static final int MAX_IDLE_TRANSPORTS = THREADS;
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  /**
+   * Wartezeit in Millisekunden vor dem zweiten Versuch; sie verlängert sich mit jedem Versuch.
+   */
+  private static final long RETRY_DELAY = 1000;
+
+  /**
+   * Zeit in Millisekunden, nach der eine ungenutzte Verbindung geschlossen wird.
+   */
+  private static final long IDLE_TIMEOUT = 60000;
+
+  private static MailDeliveryService instance;
+
+  private final Session session;
+
+  private final ExecutorService executor;
+
+  /**
+   * Die freien Verbindungen je Mailserver-Einstellung.
+   */
+  private final Map<String, Deque<PooledTransport>> idle = new HashMap<>();
+
+  private MailDeliveryService()
+  {
+    session = Session.getDefaultInstance(new Properties());
+    AtomicInteger count = new AtomicInteger();
+    executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+          Thread t = new Thread(r, "WollMux-Mail-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  public static synchronized MailDeliveryService getInstance()
+  {
+    if (instance == null)
+    {
+      instance = new MailDeliveryService();
+    }
+    return instance;
+  }
+
+  /**
+   * Versendet email über mailServerSettings im aufrufenden Thread.
+   *
+   * @throws MessagingException
+   *           wenn auch der letzte Versuch fehlgeschlagen ist.
+   */
+  public void send(Message email, MailServerSettings mailServerSettings)
+      throws MessagingException
+  {
+    email.saveChanges();
+    for (int attempt = 1;; attempt++)
+    {
+      try
+      {
+        deliver(email, mailServerSettings);
+        return;
+      } catch (MessagingException e)
+      {
+        if (attempt >= MAX_ATTEMPTS || !isTransient(e))
+        {
+          throw e;
+        }
+        LOGGER.debug("Versand fehlgeschlagen, Versuch {} von {}", attempt, MAX_ATTEMPTS, e);
+        try
+        {
+          Thread.sleep(RETRY_DELAY * attempt);
+        } catch (InterruptedException ie)
+        {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Versendet email über mailServerSettings im Hintergrund. Die Nachricht darf danach nicht
+   * mehr verändert werden.
+   *
+   * @param canceled
+   *          wird unmittelbar vor dem Versand abgefragt. Liefert es true, z.B. weil der
+   *          Seriendruck abgebrochen wurde, wird die Nachricht nicht versendet und das Future
+   *          abgebrochen.
+   * @return Ein Future, das nach dem Versand erfüllt ist oder mit der {@link MessagingException}
+   *         des letzten Versuchs endet.
+   */
+  public CompletableFuture<Void> submit(Message email, MailServerSettings mailServerSettings,
+      BooleanSupplier canceled)
+  {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    executor.execute(() -> {
+      if (result.isDone())
+      {
+        return;
+      }
+      if (canceled.getAsBoolean())
+      {
+        result.cancel(false);
+        return;
+      }
+
+      // Notwendig um MIME Types auf Java-Klassen zu mappen. Bei voller Warteschlange läuft der
+      // Versand im Thread des Aufrufers, daher wird dessen ClassLoader danach wiederhergestellt.
+      Thread thread = Thread.currentThread();
+      ClassLoader previous = thread.getContextClassLoader();
+      thread.setContextClassLoader(MailDeliveryService.class.getClassLoader());
+      try
+      {
+        send(email, mailServerSettings);
+        result.complete(null);
+      } catch (Exception e)
+      {
+        result.completeExceptionally(e);
+      } finally
+      {
+        thread.setContextClassLoader(previous);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Schließt alle freien Verbindungen, z.B. am Ende eines Seriendrucks.
+   */
+  public void closeIdleTransports()
+  {
+    synchronized (idle)
+    {
+      for (Deque<PooledTransport> transports : idle.values())
+      {
+        for (PooledTransport t : transports)
+        {
+          close(t.transport);
+        }
+      }
+      idle.clear();
+    }
+  }
+
+  private void deliver(Message email, MailServerSettings mailServerSettings)
+      throws MessagingException
+  {
+    String key = key(mailServerSettings);
+    Transport tr = borrow(key);
+    if (tr == null)
+    {
+      tr = session.getTransport("smtp");
+      // FYI: falls getUsername() || getPassword() = "" muss NULL übergeben werden,
+      // auch bei "" glaubt javamail AUTH aktivieren zu müssen was zu einer Auth-Exception führt.
+      tr.connect(mailServerSettings.getMailserver(), mailServerSettings.getMailserverport(),
+          mailServerSettings.getUsername(), mailServerSettings.getPassword());
+    }
+
+    try
+    {
+      tr.sendMessage(email, email.getAllRecipients());
+    } catch (SendFailedException e)
+    {
+      // Die Verbindung ist noch in Ordnung, nur die Nachricht wurde abgelehnt.
+      release(key, tr);
+      throw e;
+    } catch (MessagingException e)
+    {
+      close(tr);
+      throw e;
+    }
+    release(key, tr);
+  }
+
+  private Transport borrow(String key)
+  {
+    synchronized (idle)
+    {
+      Deque<PooledTransport> transports = idle.get(key);
+      if (transports == null)
+      {
+        return null;
+      }
+      long now = System.currentTimeMillis();
+      for (Iterator<PooledTransport> iter = transports.iterator(); iter.hasNext();)
+      {
+        PooledTransport t = iter.next();
+        if (now - t.lastUsed > IDLE_TIMEOUT)
+        {
+          iter.remove();
+          close(t.transport);
+        }
+      }
+      while (!transports.isEmpty())
+      {
+        Transport tr = transports.pop().transport;
+        if (tr.isConnected())
+        {
+          return tr;
+        }
+      }
+      return null;
+    }
+  }
+
+  private void release(String key, Transport tr)
+  {
+    synchronized (idle)
+    {
+      Deque<PooledTransport> transports = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+      if (transports.size() < MAX_IDLE_TRANSPORTS)
+      {
+        transports.push(new PooledTransport(tr));
+        return;
+      }
+    }
+    close(tr);
+  }
+
+  private static void close(Transport tr)
+  {
+    try
+    {
+      tr.close();
+    } catch (MessagingException e)
+    {
+      LOGGER.debug("", e);
+    }
+  }
+
+  /**
+   * Liefert true, wenn ein erneuter Versuch Aussicht auf Erfolg hat.
+   */
+  private static boolean isTransient(MessagingException e)
+  {
+    if (e instanceof AuthenticationFailedException)
+    {
+      return false;
+    }
+    if (e instanceof SendFailedException)
+    {
+      Object[] invalid = ((SendFailedException) e).getInvalidAddresses();
+      return invalid == null || invalid.length == 0;
+    }
+    return true;
+  }
+
+  private static String key(MailServerSettings mailServerSettings)
+  {
+    return mailServerSettings.getMailserver() + ":" + mailServerSettings.getMailserverport()
+        + ":" + mailServerSettings.getUsername() + ":" + mailServerSettings.getPassword();
+  }
+
+  private static class PooledTransport
+  {
+    private final Transport transport;
+
+    private final long lastUsed = System.currentTimeMillis();
+
+    private PooledTransport(Transport transport)
+    {
+      this.transport = transport;
+    }
+  }
+}
@@ -1,8 +1,9 @@
 package de.muenchen.allg.itd51.wollmux.event;
 
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
 import java.net.URLDecoder;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +38,9 @@ import de.muenchen.allg.itd51.wollmux.core.util.L;
  * props ist das PropertyValue[], das auch schon der ursprünglichen dispatch Methode
  * mitgeliefert wurde.
  *
+ * Die Methoden werden nicht bei jedem Aufruf per Reflection gesucht, sondern einmalig
+ * pro Klasse in einer {@link DispatchMethodRegistry} abgelegt.
+ *
  * @author daniel.sikeler
  *
  */
@@ -46,6 +50,14 @@ public abstract class BaseDispatch implements XDispatch
   private static final Logger LOGGER = LoggerFactory
       .getLogger(BaseDispatch.class);
 
+  /**
+   * Cache für die Ergebnisse der status_*-Methoden, abgebildet vom normalisierten
+   * URL-Präfix auf den Status, oder null, wenn nicht gecacht werden soll. Der Cache
+   * gehört zum {@link DispatchProviderAndInterceptor} des Frames und wird geleert,
+   * sobald sich der Kontext des Frames ändert.
+   */
+  private Map<String, Boolean> statusCache;
+
   /**
    * Liefert zu url den Namen der Methode, die den Dispatch behandeln würde.
    *
@@ -111,6 +123,23 @@ public abstract class BaseDispatch implements XDispatch
     return arg;
   }
 
+  /**
+   * Setzt den Cache, in dem die Ergebnisse von {@link #queryStatus(URL)} abgelegt
+   * werden.
+   */
+  void setStatusCache(Map<String, Boolean> statusCache)
+  {
+    this.statusCache = statusCache;
+  }
+
+  /**
+   * Liefert die Registry der dispatch_*- und status_*-Methoden dieser Klasse.
+   */
+  protected DispatchMethodRegistry getRegistry()
+  {
+    return DispatchMethodRegistry.forClass(this.getClass());
+  }
+
   /**
    * Benachrichtigt den übergebenen XStatusListener listener mittels
    * listener.statusChanged() über den aktuellen Zustand des DispatchHandlers und
@@ -144,19 +173,22 @@ public abstract class BaseDispatch implements XDispatch
 
     String arg = getMethodArgument(url);
 
-    String methodName = getDispatchMethodName(url);
-
+    long start = System.nanoTime();
     try
     {
-      Class<? extends BaseDispatch> myClass = this.getClass();
-      Method method =
-        myClass.getDeclaredMethod(methodName, String.class, PropertyValue[].class);
+      MethodHandle method = getRegistry().getDispatch(url);
+      if (method == null)
+        throw new NoSuchMethodException(getDispatchMethodName(url));
       method.invoke(this, arg, props);
     }
     catch (Throwable x)
     {
       LOGGER.error("", x);
     }
+    finally
+    {
+      DispatchMethodRegistry.recordDispatch(url, System.nanoTime() - start);
+    }
   }
   
   /**
@@ -168,21 +200,29 @@ public abstract class BaseDispatch implements XDispatch
    */
   public boolean queryStatus(URL url)
   {
-    try
+    String key = DispatchMethodRegistry.normalize(url);
+    if (statusCache != null)
     {
-      String methodName = getStatusMethodName(url);
-      Class<? extends BaseDispatch> myClass = this.getClass();
-      Method method =
-        myClass.getDeclaredMethod(methodName);
-      Boolean ret = (Boolean) method.invoke(this);
-      return ret.booleanValue();
+      Boolean cached = statusCache.get(key);
+      if (cached != null) return cached.booleanValue();
     }
-    catch (Throwable x)
+
+    boolean status = true;
+    MethodHandle method = getRegistry().getStatus(url);
+    if (method != null)
     {
-      LOGGER.debug("", x);
+      try
+      {
+        status = (boolean) method.invoke(this);
+      }
+      catch (Throwable x)
+      {
+        LOGGER.debug("", x);
+      }
     }
 
-    return true;
+    if (statusCache != null) statusCache.put(key, status);
+    return status;
   }
 
   /*
@@ -0,0 +1,199 @@
+package de.muenchen.allg.itd51.wollmux.event;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.frame.XDispatchResultListener;
+import com.sun.star.util.URL;
+
+/**
+ * Die Dispatch- und Status-Methoden einer Dispatch-Klasse (siehe {@link BaseDispatch}).
+ *
+ * Früher wurde bei jedem Aufruf von dispatch(), queryStatus() und queryDispatch() der
+ * Methodenname aus der URL berechnet und die Methode per Reflection gesucht. Die Registry liest
+ * die dispatch_*- und status_*-Methoden einer Klasse einmalig ein und hält sie als
+ * {@link MethodHandle}, abgebildet vom normalisierten URL-Präfix (Teil vor dem "#", in
+ * Kleinbuchstaben, nicht-alphanumerische Zeichen durch "_" ersetzt). Wie bisher werden nur die in
+ * der Klasse selbst deklarierten Methoden berücksichtigt.
+ *
+ * Zusätzlich werden Anzahl und Laufzeit der Dispatches je URL gezählt (siehe
+ * {@link #getDispatchStatistics()}).
+ */
+public final class DispatchMethodRegistry
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(DispatchMethodRegistry.class);
+
+  private static final String DISPATCH_PREFIX = "dispatch_";
+
+  private static final String STATUS_PREFIX = "status_";
+
+  private static final Map<Class<?>, DispatchMethodRegistry> REGISTRIES =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Bereits normalisierte URL-Präfixe.
+   */
+  private static final Map<String, String> NORMALIZED = new ConcurrentHashMap<>();
+
+  private static final Map<String, DispatchStatistics> STATISTICS = new ConcurrentHashMap<>();
+
+  /**
+   * dispatch_name(String, PropertyValue[])
+   */
+  private final Map<String, MethodHandle> dispatchMethods = new HashMap<>();
+
+  /**
+   * dispatch_name(String, PropertyValue[], XDispatchResultListener)
+   */
+  private final Map<String, MethodHandle> notifyingDispatchMethods = new HashMap<>();
+
+  /**
+   * boolean status_name()
+   */
+  private final Map<String, MethodHandle> statusMethods = new HashMap<>();
+
+  private DispatchMethodRegistry(Class<?> c)
+  {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    for (Method m : c.getDeclaredMethods())
+    {
+      if (!Modifier.isPublic(m.getModifiers()) || Modifier.isStatic(m.getModifiers()))
+        continue;
+
+      String name = m.getName();
+      Class<?>[] params = m.getParameterTypes();
+      try
+      {
+        if (name.startsWith(DISPATCH_PREFIX))
+        {
+          String key = name.substring(DISPATCH_PREFIX.length());
+          if (Arrays.equals(params, new Class<?>[] { String.class, PropertyValue[].class }))
+            dispatchMethods.put(key, lookup.unreflect(m));
+          else if (Arrays.equals(params, new Class<?>[] { String.class,
+              PropertyValue[].class, XDispatchResultListener.class }))
+            notifyingDispatchMethods.put(key, lookup.unreflect(m));
+        }
+        else if (name.startsWith(STATUS_PREFIX) && params.length == 0
+            && m.getReturnType() == boolean.class)
+        {
+          statusMethods.put(name.substring(STATUS_PREFIX.length()), lookup.unreflect(m));
+        }
+      } catch (IllegalAccessException e)
+      {
+        LOGGER.error("", e);
+      }
+    }
+  }
+
+  /**
+   * Liefert die Registry der Klasse c. Sie wird beim ersten Aufruf für c aufgebaut.
+   */
+  static DispatchMethodRegistry forClass(Class<?> c)
+  {
+    return REGISTRIES.computeIfAbsent(c, DispatchMethodRegistry::new);
+  }
+
+  /**
+   * Liefert zu url den normalisierten Präfix, z.B. "_uno_print" für ".uno:Print" oder
+   * "wollmux_opentemplate" für "wollmux:OpenTemplate#internerBriefkopf".
+   */
+  static String normalize(URL url)
+  {
+    String part = url.Complete;
+    int idx = part.indexOf('#');
+    if (idx >= 0)
+      part = part.substring(0, idx);
+    return NORMALIZED.computeIfAbsent(part, p -> p.replaceAll("\\W", "_").toLowerCase());
+  }
+
+  /**
+   * Liefert true, wenn die Klasse eine Methode dispatch_name(String, PropertyValue[]) für url
+   * deklariert.
+   */
+  boolean hasDispatch(URL url)
+  {
+    return dispatchMethods.containsKey(normalize(url));
+  }
+
+  /**
+   * Liefert die Methode dispatch_name(String, PropertyValue[]) für url oder null.
+   */
+  MethodHandle getDispatch(URL url)
+  {
+    return dispatchMethods.get(normalize(url));
+  }
+
+  /**
+   * Liefert die Methode dispatch_name(String, PropertyValue[], XDispatchResultListener) für url
+   * oder null.
+   */
+  MethodHandle getNotifyingDispatch(URL url)
+  {
+    return notifyingDispatchMethods.get(normalize(url));
+  }
+
+  /**
+   * Liefert die Methode boolean status_name() für url oder null.
+   */
+  MethodHandle getStatus(URL url)
+  {
+    return statusMethods.get(normalize(url));
+  }
+
+  /**
+   * Zählt einen Dispatch von url mit der Laufzeit nanos.
+   */
+  static void recordDispatch(URL url, long nanos)
+  {
+    STATISTICS.computeIfAbsent(normalize(url), k -> new DispatchStatistics()).add(nanos);
+  }
+
+  /**
+   * Liefert Anzahl und Laufzeit der Dispatches je normalisiertem URL-Präfix.
+   */
+  public static Map<String, DispatchStatistics> getDispatchStatistics()
+  {
+    return new TreeMap<>(STATISTICS);
+  }
+
+  /**
+   * Anzahl und Laufzeit der Dispatches einer URL.
+   */
+  public static class DispatchStatistics
+  {
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void add(long nanos)
+    {
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public String toString()
+    {
+      long c = count.get();
+      long total = TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+      return "calls=" + c + ", total=" + total + "ms, avg=" + (c == 0 ? 0 : total / c)
+          + "ms, max=" + TimeUnit.NANOSECONDS.toMillis(maxNanos.get()) + "ms";
+    }
+  }
+}
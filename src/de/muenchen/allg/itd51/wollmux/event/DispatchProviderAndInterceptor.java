@@ -36,12 +36,13 @@
 package de.muenchen.allg.itd51.wollmux.event;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sun.star.beans.PropertyValue;
 import com.sun.star.frame.DispatchDescriptor;
 import com.sun.star.frame.FrameAction;
 import com.sun.star.frame.XDispatch;
@@ -87,6 +88,30 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
   private static final Set<DispatchProviderAndInterceptor> documentDispatchProviderAndInterceptors =
     new HashSet<DispatchProviderAndInterceptor>();
 
+  /**
+   * Die Dispatch-Methoden der Dispatch-Klassen in der Reihenfolge, in der sie in
+   * {@link #queryDispatch(URL, String, int)} geprüft werden. Sie werden einmalig
+   * beim Laden dieser Klasse ermittelt.
+   */
+  private static final DispatchMethodRegistry dispatchMethods =
+    DispatchMethodRegistry.forClass(Dispatch.class);
+
+  private static final DispatchMethodRegistry notifyingDispatchMethods =
+    DispatchMethodRegistry.forClass(NotifyingDispatch.class);
+
+  private static final DispatchMethodRegistry documentDispatchMethods =
+    DispatchMethodRegistry.forClass(DocumentDispatch.class);
+
+  private static final DispatchMethodRegistry documentNotifyingDispatchMethods =
+    DispatchMethodRegistry.forClass(DocumentNotifyingDispatch.class);
+
+  /**
+   * Die Ergebnisse der status_*-Methoden der von diesem
+   * {@link DispatchProviderAndInterceptor} gelieferten Dispatch-Objekte. Wird
+   * geleert, wenn sich der Kontext des Frames ändert.
+   */
+  private final Map<String, Boolean> statusCache = new ConcurrentHashMap<>();
+
   private XDispatchProvider slave = null;
 
   private XDispatchProvider master = null;
@@ -147,27 +172,6 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
     this.master = master;
   }
 
-  /**
-   * Liefert true, wenn die Methode methodName(String, PropertyValue[]) in der Klasse
-   * c vorhanden ist, andern falls false.
-   * 
-   * @author Matthias Benkmann (D-III-ITD-D101)
-   * 
-   *         TESTED
-   */
-  protected boolean hasMethod(Class<?> c, String methodName)
-  {
-    try
-    {
-      c.getDeclaredMethod(methodName, String.class, PropertyValue[].class);
-      return true;
-    }
-    catch (Throwable x)
-    {
-      return false;
-    }
-  }
-
   /*
    * (non-Javadoc)
    * 
@@ -176,23 +180,25 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
    */
   public XDispatch queryDispatch(URL url, String frameName, int fsFlag)
   {
-    String methodName = Dispatch.getDispatchMethodName(url);
+    BaseDispatch dispatch = null;
+    if (dispatchMethods.hasDispatch(url))
+      dispatch = new Dispatch();
+    else if (notifyingDispatchMethods.hasDispatch(url))
+      dispatch = new NotifyingDispatch();
+    else if (frame != null)
+    {
+      if (documentDispatchMethods.hasDispatch(url))
+        dispatch = new DocumentDispatch(getOrigDispatch(url, frameName, fsFlag), url,
+          frame);
+      else if (documentNotifyingDispatchMethods.hasDispatch(url))
+        dispatch = new DocumentNotifyingDispatch(getOrigDispatch(url, frameName,
+          fsFlag), url, frame);
+    }
 
-    if (hasMethod(Dispatch.class, methodName))
-      return new Dispatch();
-    else if (hasMethod(NotifyingDispatch.class, methodName))
-      return new NotifyingDispatch();
-    else
+    if (dispatch != null)
     {
-      if (frame != null)
-      {
-        if (hasMethod(DocumentDispatch.class, methodName))
-          return new DocumentDispatch(getOrigDispatch(url, frameName, fsFlag), url,
-            frame);
-        else if (hasMethod(DocumentNotifyingDispatch.class, methodName))
-          return new DocumentNotifyingDispatch(getOrigDispatch(url, frameName,
-            fsFlag), url, frame);
-      }
+      dispatch.setStatusCache(statusCache);
+      return dispatch;
     }
 
     // ergibt return null, wenn kein Slave registriert
@@ -283,6 +289,11 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
 
     public void frameAction(com.sun.star.frame.FrameActionEvent e)
     {
+      // jede Änderung am Frame (insbesondere contextChanged()) kann den Status
+      // der Menüpunkte und Toolbarbuttons verändern.
+      DispatchProviderAndInterceptor registered = getRegisteredDPI(UNO.XFrame(e.Source));
+      if (registered != null) registered.statusCache.clear();
+
       if (e.Action == FrameAction.COMPONENT_REATTACHED)
       {
         DispatchProviderAndInterceptor dpi = getRegisteredDPI(UNO.XFrame(e.Source));
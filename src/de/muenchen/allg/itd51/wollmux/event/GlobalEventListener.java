@@ -64,6 +64,7 @@ import com.sun.star.uno.AnyConverter;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.afid.UnoProps;
+import de.muenchen.allg.itd51.wollmux.StartupPhases;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager.Info;
@@ -88,17 +89,28 @@ public class GlobalEventListener implements com.sun.star.document.XEventListener
 
   private static final String ON_SAVE = "OnSave";
 
+  private static final String ON_COPY_TO = "OnCopyTo";
+
   private static final String ON_UNLOAD = "OnUnload";
 
+  private static final String ON_PREPARE_UNLOAD = "OnPrepareUnload";
+
   private static final String ON_CREATE = "OnCreate";
 
   private static final String ON_VIEW_CREATED = "OnViewCreated";
 
   private DocumentManager docManager;
 
-  public GlobalEventListener(DocumentManager docManager)
+  /**
+   * Die Startphasen des WollMux, deren zurückgestellte Phasen beim ersten OnViewCreated
+   * gestartet werden.
+   */
+  private StartupPhases startupPhases;
+
+  public GlobalEventListener(DocumentManager docManager, StartupPhases startupPhases)
   {
     this.docManager = docManager;
+    this.startupPhases = startupPhases;
   }
 
   /**
@@ -132,9 +144,12 @@ public class GlobalEventListener implements com.sun.star.document.XEventListener
         onViewCreated(docEvent.Source);
       else if (ON_UNLOAD.equals(event))
         onUnload(docEvent.Source);
+      else if (ON_PREPARE_UNLOAD.equals(event))
+        onPrepareUnload(docEvent.Source);
       else if (ON_SAVE.equals(event))
         onSaveOrSaveAs(docEvent.Source);
       else if (ON_SAVE_AS.equals(event)) onSaveOrSaveAs(docEvent.Source);
+      else if (ON_COPY_TO.equals(event)) onSaveOrSaveAs(docEvent.Source);
     }
     catch (Throwable t)
     {
@@ -193,6 +208,10 @@ public class GlobalEventListener implements com.sun.star.document.XEventListener
     if (compo == null)
       return;
 
+    // Die beim Start zurückgestellten Phasen (z.B. Tastenkürzel) erst jetzt
+    // ausführen, damit sie das erste Dokument nicht verzögern.
+    startupPhases.startDeferred();
+
     XTextDocument xTextDoc = UNO.XTextDocument(compo);
     if (xTextDoc != null)
     {
@@ -239,7 +258,8 @@ public class GlobalEventListener implements com.sun.star.document.XEventListener
   }
 
   /**
-   * OnSave oder OnSaveAs-Events werden beim Speichern von Dokumenten aufgerufen.
+   * OnSave oder OnSaveAs-Events werden beim Speichern von Dokumenten aufgerufen,
+   * OnCopyTo beim Speichern einer Kopie (z.B. über storeToURL).
    *
    * Wir verwenden diese beiden Events um die persistenten Daten des WollMux sicher
    * zu persistieren (flush).
@@ -255,6 +275,20 @@ public class GlobalEventListener implements com.sun.star.document.XEventListener
         info.getTextDocumentController().flushPersistentData();
   }
 
+  /**
+   * OnPrepareUnload kommt, bevor ein Dokument geschlossen wird. Wir verwenden dieses Event, um
+   * noch nicht übertragene Änderungen aus der Formular-GUI ins Dokument zu übernehmen, damit sie
+   * bei der Frage nach dem Speichern berücksichtigt werden.
+   */
+  private void onPrepareUnload(Object source)
+  {
+    XTextDocument xTextDoc = UNO.XTextDocument(source);
+    if (xTextDoc == null) return;
+    DocumentManager.Info info = docManager.getInfo(xTextDoc);
+    if (info != null && info.hasTextDocumentModel())
+      info.getTextDocumentController().flushFormFieldValues();
+  }
+
   /**
    * OnUnlaod kommt als letztes Event wenn ein Dokument geschlossen wurde. Wir nutzen
    * dieses Event um den docManager aufzuräumen und angeschlossene Listener zu
@@ -269,12 +303,12 @@ public class GlobalEventListener implements com.sun.star.document.XEventListener
     // Seriendrucks handelt
     /**
      * ACHTUNG! ACHTUNG! Zu folgender Zeile unbedingt {@link
-     * WollMuxEventHandler#handleTextDocumentClosed(DocumentManager.Info} lesen. Hier
+     * WollMuxEventHandler#handleTextDocumentClosed(DocumentManager.Info, Object)} lesen. Hier
      * darf AUF KEINEN FALL info.hasTextDocumentModel() getestet oder
      * info.getTextDocumentModel() aufgerufen werden!
      */
     if (info != null)
-      WollMuxEventHandler.getInstance().handleTextDocumentClosed(info);
+      WollMuxEventHandler.getInstance().handleTextDocumentClosed(info, source);
   }
 
   /**
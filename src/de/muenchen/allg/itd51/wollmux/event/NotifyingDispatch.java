@@ -1,6 +1,6 @@
 package de.muenchen.allg.itd51.wollmux.event;
 
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,22 +32,21 @@ public class NotifyingDispatch extends BaseDispatch implements XNotifyingDispatc
 
     String arg = getMethodArgument(url);
 
-    String methodName = getDispatchMethodName(url);
-
+    long start = System.nanoTime();
     try
     {
-      Class<? extends NotifyingDispatch> myClass = this.getClass();
       if (listener == null)
       {
-        Method method =
-          myClass.getDeclaredMethod(methodName, String.class, PropertyValue[].class);
+        MethodHandle method = getRegistry().getDispatch(url);
+        if (method == null)
+          throw new NoSuchMethodException(getDispatchMethodName(url));
         method.invoke(this, arg, props);
       }
       else
       {
-        Method method =
-          myClass.getDeclaredMethod(methodName, String.class, PropertyValue[].class,
-            XDispatchResultListener.class);
+        MethodHandle method = getRegistry().getNotifyingDispatch(url);
+        if (method == null)
+          throw new NoSuchMethodException(getDispatchMethodName(url));
         method.invoke(this, arg, props, listener);
       }
     }
@@ -55,6 +54,10 @@ public class NotifyingDispatch extends BaseDispatch implements XNotifyingDispatc
     {
       LOGGER.error("", x);
     }
+    finally
+    {
+      DispatchMethodRegistry.recordDispatch(url, System.nanoTime() - start);
+    }
   }
 
 }
@@ -20,6 +20,7 @@ import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
 import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.allg.itd51.wollmux.db.SenderSnapshot;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager.TextDocumentInfo;
 import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
@@ -37,7 +38,7 @@ import de.muenchen.allg.itd51.wollmux.event.handlers.OnDumpInfo;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnExecutePrintFunction;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnFocusFormField;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnFormControllerInitCompleted;
-import de.muenchen.allg.itd51.wollmux.event.handlers.OnFormValueChanged;
+import de.muenchen.allg.itd51.wollmux.event.handlers.OnFormValuesChanged;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnFormularMax4000Returned;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnFormularMax4000Show;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnFunctionDialog;
@@ -88,6 +89,8 @@ public class WollMuxEventHandler
   private static WollMuxEventHandler instance;
   private EventBus eventBus;
 
+  private WollMuxEventScheduler scheduler;
+
   private InitEventListener initEventListener;
 
   private CheckInstallation checkInstallationListener;
@@ -113,6 +116,7 @@ public class WollMuxEventHandler
   private WollMuxEventHandler()
   {
     eventBus = new EventBus();
+    scheduler = new WollMuxEventScheduler(eventBus::post);
     initEventListener = new InitEventListener();
     eventBus.register(initEventListener);
     checkInstallationListener = new CheckInstallation();
@@ -120,7 +124,7 @@ public class WollMuxEventHandler
     eventBus.register(new WollMuxEventListener());
   }
 
-  public static WollMuxEventHandler getInstance()
+  public static synchronized WollMuxEventHandler getInstance()
   {
     if (instance == null)
     {
@@ -143,15 +147,38 @@ public class WollMuxEventHandler
   }
 
   /**
-   * Stellt das WollMuxEvent event in die EventQueue des EventProcessors.
+   * Liefert die Kennzahlen der Eventbearbeitung je Event-Klasse.
+   */
+  public Map<String, WollMuxEventScheduler.EventStatistics> getEventStatistics()
+  {
+    return scheduler.getStatistics();
+  }
+
+  /**
+   * Stellt das WollMuxEvent event in die globale EventQueue des EventProcessors.
    *
    * @param event
    */
   private void handle(WollMuxEvent event)
+  {
+    handle(event, null);
+  }
+
+  /**
+   * Stellt das WollMuxEvent event in die EventQueue des Dokuments document. Alle
+   * Events eines Dokuments werden in der Reihenfolge ihres Eintreffens bearbeitet,
+   * Events verschiedener Dokumente parallel.
+   *
+   * @param event
+   * @param document
+   *          der {@link TextDocumentController} oder das Dokument, das von dem
+   *          Event betroffen ist, oder null für die globale EventQueue.
+   */
+  private void handle(WollMuxEvent event, Object document)
   {
     if (acceptEvents)
     {
-      eventBus.post(event);
+      scheduler.schedule(event, document);
     }
   }
 
@@ -210,7 +237,7 @@ public class WollMuxEventHandler
   public void handleReprocessTextDocument(
       TextDocumentController documentController)
   {
-    handle(new OnReprocessTextDocument(documentController));
+    handle(new OnReprocessTextDocument(documentController), documentController);
   }
 
   /**
@@ -223,7 +250,7 @@ public class WollMuxEventHandler
   public void handleFormularMax4000Returned(
       TextDocumentController documentController)
   {
-    handle(new OnFormularMax4000Returned(documentController));
+    handle(new OnFormularMax4000Returned(documentController), documentController);
   }
 
   /**
@@ -239,7 +266,7 @@ public class WollMuxEventHandler
       XDispatch origDisp,
       com.sun.star.util.URL origUrl, PropertyValue[] origArgs)
   {
-    handle(new OnPrint(documentController, origDisp, origUrl, origArgs));
+    handle(new OnPrint(documentController, origDisp, origUrl, origArgs), documentController);
   }
 
   /**
@@ -253,7 +280,7 @@ public class WollMuxEventHandler
   public void handleFunctionDialog(TextDocumentController documentController,
       String dialogName)
   {
-    handle(new OnFunctionDialog(documentController, dialogName));
+    handle(new OnFunctionDialog(documentController, dialogName), documentController);
   }
 
   /**
@@ -266,7 +293,7 @@ public class WollMuxEventHandler
   public void handleFormularMax4000Show(
       TextDocumentController documentController)
   {
-    handle(new OnFormularMax4000Show(documentController));
+    handle(new OnFormularMax4000Show(documentController), documentController);
   }
 
   /**
@@ -281,7 +308,7 @@ public class WollMuxEventHandler
   public void handleButtonZifferEinfuegenPressed(
       TextDocumentController documentController)
   {
-    handle(new OnZifferEinfuegen(documentController));
+    handle(new OnZifferEinfuegen(documentController), documentController);
   }
 
   /**
@@ -295,7 +322,7 @@ public class WollMuxEventHandler
   public void handleButtonAbdruckPressed(
       TextDocumentController documentController)
   {
-    handle(new OnAbdruck(documentController));
+    handle(new OnAbdruck(documentController), documentController);
   }
 
   /**
@@ -310,7 +337,7 @@ public class WollMuxEventHandler
   public void handleButtonZuleitungszeilePressed(
       TextDocumentController documentController)
   {
-    handle(new OnButtonZuleitungszeilePressed(documentController));
+    handle(new OnButtonZuleitungszeilePressed(documentController), documentController);
   }
 
   /**
@@ -333,7 +360,7 @@ public class WollMuxEventHandler
   public void handleMarkBlock(TextDocumentController documentController,
       String blockname)
   {
-    handle(new OnMarkBlock(documentController, blockname));
+    handle(new OnMarkBlock(documentController, blockname), documentController);
   }
 
   /**
@@ -350,7 +377,7 @@ public class WollMuxEventHandler
       TextDocumentController documentController,
       boolean reprocess)
   {
-    handle(new OnTextbausteinEinfuegen(documentController, reprocess));
+    handle(new OnTextbausteinEinfuegen(documentController, reprocess), documentController);
   }
 
   /**
@@ -362,7 +389,7 @@ public class WollMuxEventHandler
    */
   public void handleJumpToPlaceholder(TextDocumentController documentController)
   {
-    handle(new OnJumpToPlaceholder(documentController));
+    handle(new OnJumpToPlaceholder(documentController), documentController);
   }
 
   /**
@@ -370,7 +397,7 @@ public class WollMuxEventHandler
    */
   public void handlePrintPage(TextDocumentController documentController)
   {
-    handle(new OnPrintPage(documentController));
+    handle(new OnPrintPage(documentController), documentController);
   }
 
   /**
@@ -391,7 +418,7 @@ public class WollMuxEventHandler
       event.process();
     } else
     {
-      handle(event);
+      handle(event, documentController);
     }
   }
 
@@ -440,7 +467,7 @@ public class WollMuxEventHandler
    */
   public void handleJumpToMark(XTextDocument doc, boolean msg)
   {
-    handle(new OnJumpToMark(doc, msg));
+    handle(new OnJumpToMark(doc, msg), doc);
   }
 
   /**
@@ -520,6 +547,10 @@ public class WollMuxEventHandler
    *          dranhängt des Dokuments, das geschlossen wurde. ACHTUNG! docInfo hat
    *          nicht zwingend ein TextDocumentModel. Es muss
    *          {@link DocumentManager.Info#hasTextDocumentModel()} verwendet werden.
+   * @param doc
+   *          das geschlossene Dokument. Das Event wird in dessen EventQueue gestellt,
+   *          damit es erst nach allen noch wartenden Events des Dokuments (z.B.
+   *          {@link OnFormValuesChanged}) bearbeitet wird.
    *
    *
    *          ACHTUNG! ACHTUNG! Die Implementierung wurde extra so gewählt, dass hier
@@ -539,9 +570,9 @@ public class WollMuxEventHandler
    *          Da {@link TextDocumentInfo} synchronized ist kam es zum Deadlock.
    *
    */
-  public void handleTextDocumentClosed(DocumentManager.Info docInfo)
+  public void handleTextDocumentClosed(DocumentManager.Info docInfo, Object doc)
   {
-    handle(new OnTextDocumentClosed(docInfo));
+    handle(new OnTextDocumentClosed(docInfo), doc);
   }
 
   /**
@@ -574,7 +605,7 @@ public class WollMuxEventHandler
   public void handleSetFormValue(XTextDocument doc, String id, String value,
       ActionListener unlockActionListener)
   {
-    handle(new OnSetFormValue(doc, id, value, unlockActionListener));
+    handle(new OnSetFormValue(doc, id, value, unlockActionListener), doc);
   }
 
   /**
@@ -594,7 +625,7 @@ public class WollMuxEventHandler
       TextDocumentController documentController, ActionListener listener)
   {
     handle(new OnCollectNonWollMuxFormFieldsViaPrintModel(documentController,
-        listener));
+        listener), documentController);
   }
 
   /**
@@ -621,7 +652,7 @@ public class WollMuxEventHandler
       ActionListener listener)
   {
     handle(new OnSetPrintBlocksPropsViaPrintModel(doc, blockName, visible,
-        showHighlightColor, listener));
+        showHighlightColor, listener), doc);
   }
 
   /**
@@ -662,7 +693,7 @@ public class WollMuxEventHandler
   public void handleManagePrintFunction(XTextDocument doc,
       String functionName, boolean remove)
   {
-    handle(new OnManagePrintFunction(doc, functionName, remove));
+    handle(new OnManagePrintFunction(doc, functionName, remove), doc);
   }
 
   /**
@@ -692,7 +723,7 @@ public class WollMuxEventHandler
       ActionListener unlockActionListener)
   {
     handle(
-        new OnSetInsertValues(doc, mapDbSpalteToValue, unlockActionListener));
+        new OnSetInsertValues(doc, mapDbSpalteToValue, unlockActionListener), doc);
   }
 
   /**
@@ -703,7 +734,7 @@ public class WollMuxEventHandler
    */
   public void handleCloseTextDocument(TextDocumentController documentController)
   {
-    handle(new OnCloseTextDocument(documentController));
+    handle(new OnCloseTextDocument(documentController), documentController);
   }
 
   /**
@@ -726,7 +757,7 @@ public class WollMuxEventHandler
   public void handleFocusFormField(TextDocumentController documentController,
       String fieldId)
   {
-    handle(new OnFocusFormField(documentController, fieldId));
+    handle(new OnFocusFormField(documentController, fieldId), documentController);
   }
 
   /**
@@ -740,7 +771,7 @@ public class WollMuxEventHandler
   public void handleRegisterDispatchInterceptor(
       TextDocumentController documentController)
   {
-    handle(new OnRegisterDispatchInterceptor(documentController));
+    handle(new OnRegisterDispatchInterceptor(documentController), documentController);
   }
 
   /**
@@ -755,35 +786,23 @@ public class WollMuxEventHandler
    */
   public void handleFormControllerInitCompleted(TextDocumentController documentController)
   {
-    handle(new OnFormControllerInitCompleted(documentController));
+    handle(new OnFormControllerInitCompleted(documentController), documentController);
   }
 
   /**
-   * Erzeugt ein neues WollMuxEvent, welches dafür sorgt, dass alle Formularfelder
-   * Dokument auf den neuen Wert gesetzt werden. Bei Formularfeldern mit
-   * TRAFO-Funktion wird die Transformation entsprechend durchgeführt.
+   * Erzeugt ein neues WollMuxEvent, welches dafür sorgt, dass alle von der Formular-GUI
+   * gesammelten, aber noch nicht übertragenen Wert- und Sichtbarkeitsänderungen ins Dokument
+   * übernommen werden.
    *
-   * Dieses Event wird (derzeit) vom FormModelImpl ausgelöst, wenn in der
-   * Formular-GUI der Wert des Formularfeldes fieldID geändert wurde und sorgt dafür,
-   * dass die Wertänderung auf alle betroffenen Formularfelder im Dokument doc
-   * übertragen werden.
+   * Dieses Event wird vom {@link de.muenchen.allg.itd51.wollmux.document.FormValueCoalescer}
+   * ausgelöst, sobald die eingestellte Verzögerung nach der ersten Änderung abgelaufen ist.
    *
-   * @param idToFormValues
-   *          Eine HashMap die unter dem Schlüssel fieldID den Vektor aller
-   *          FormFields mit der ID fieldID liefert.
-   * @param fieldId
-   *          Die ID der Formularfelder, deren Werte angepasst werden sollen.
-   * @param newValue
-   *          Der neue untransformierte Wert des Formularfeldes.
-   * @param funcLib
-   *          Die Funktionsbibliothek, die zur Gewinnung der Trafo-Funktion verwendet
-   *          werden soll.
+   * @param documentController
+   *          Das Dokument, dessen ausstehende Änderungen übertragen werden sollen.
    */
-  public void handleFormValueChanged(TextDocumentController documentController,
-      String fieldId,
-      String newValue)
+  public void handleFormValuesChanged(TextDocumentController documentController)
   {
-    handle(new OnFormValueChanged(documentController, fieldId, newValue));
+    handle(new OnFormValuesChanged(documentController), documentController);
   }
 
   /**
@@ -801,7 +820,7 @@ public class WollMuxEventHandler
   public void handleSetWindowVisible(TextDocumentController documentController,
       boolean visible)
   {
-    handle(new OnSetWindowVisible(documentController, visible));
+    handle(new OnSetWindowVisible(documentController, visible), documentController);
   }
 
   /**
@@ -818,7 +837,7 @@ public class WollMuxEventHandler
   public void handleSaveTempAndOpenExt(
       TextDocumentController documentController, String ext)
   {
-    handle(new OnSaveTempAndOpenExt(documentController, ext));
+    handle(new OnSaveTempAndOpenExt(documentController, ext), documentController);
   }
 
   /**
@@ -836,7 +855,7 @@ public class WollMuxEventHandler
   public void handleCloseAndOpenExt(TextDocumentController documentController,
       String ext)
   {
-    handle(new OnCloseAndOpenExt(documentController, ext));
+    handle(new OnCloseAndOpenExt(documentController, ext), documentController);
   }
 
   /**
@@ -904,7 +923,7 @@ public class WollMuxEventHandler
       boolean visible, ActionListener listener)
   {
     handle(
-        new OnSetVisibleState(documentController, groupId, visible, listener));
+        new OnSetVisibleState(documentController, groupId, visible, listener), documentController);
   }
 
   /**
@@ -934,7 +953,7 @@ public class WollMuxEventHandler
   public void handleMailMergeNewReturned(
       TextDocumentController documentController)
   {
-    handle(new OnHandleMailMergeNewReturned(documentController));
+    handle(new OnHandleMailMergeNewReturned(documentController), documentController);
   }
 
   /**
@@ -951,7 +970,7 @@ public class WollMuxEventHandler
       TextDocumentController documentController,
       boolean visible)
   {
-    handle(new OnProcessTextDocument(documentController, visible));
+    handle(new OnProcessTextDocument(documentController, visible), documentController);
   }
 
   /**
@@ -965,9 +984,16 @@ public class WollMuxEventHandler
   /**
    * Erzeugt ein neues WollMuxEvent, das dafür sorgt, dass alle registrierten
    * XPALChangeEventListener geupdated werden.
+   *
+   * Die Absenderdaten ({@link SenderSnapshot}) werden sofort im aufrufenden Thread
+   * erneuert, da die Events der Dokumente parallel zur globalen EventQueue laufen
+   * und sonst bis zur Bearbeitung des Events noch den alten Absender sehen würden.
+   * Wer die Auswahl oder den LOS ändert, muss diese Methode daher unmittelbar danach
+   * aufrufen.
    */
   public void handlePALChangedNotify()
   {
+    SenderSnapshot.refresh();
     handle(new OnPALChangedNotify());
   }
 
@@ -984,7 +1010,7 @@ public class WollMuxEventHandler
   public void handleExecutePrintFunctions(
       TextDocumentController documentController)
   {
-    handle(new OnExecutePrintFunction(documentController));
+    handle(new OnExecutePrintFunction(documentController), documentController);
   }
 
   public void handleUpdateInputFields(XTextDocument doc, DispatchHelper helper, boolean sync)
@@ -995,7 +1021,7 @@ public class WollMuxEventHandler
       event.process();
     } else
     {
-      handle(event);
+      handle(event, doc);
     }
   }
 
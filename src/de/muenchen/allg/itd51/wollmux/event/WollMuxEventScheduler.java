@@ -0,0 +1,295 @@
+package de.muenchen.allg.itd51.wollmux.event;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.HashableComponent;
+import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
+import de.muenchen.allg.itd51.wollmux.event.handlers.WollMuxEvent;
+
+/**
+ * Arbeitet die WollMuxEvents asynchron auf einem in der Größe beschränkten Pool von
+ * Worker-Threads ab.
+ *
+ * Jedes Event wird einer Warteschlange (Lane) zugeordnet: Events, die ein bestimmtes Dokument
+ * betreffen, landen in der Lane dieses Dokuments, alle anderen Events in einer gemeinsamen
+ * globalen Lane. Die Events einer Lane werden streng in der Reihenfolge ihres Eintreffens und nie
+ * gleichzeitig bearbeitet; Events verschiedener Lanes laufen parallel. Damit blockiert z.B. ein
+ * langsames OnProcessTextDocument nur noch das eigene Dokument und nicht mehr den aufrufenden
+ * UNO- oder AWT-Thread und alle anderen Dokumente.
+ *
+ * Nach jedem Event gibt eine Lane ihren Worker wieder ab, damit eine Lane mit vielen Events die
+ * anderen Lanes nicht aushungert.
+ *
+ * Für jede Event-Klasse werden die aktuelle und maximale Anzahl wartender Events sowie Warte- und
+ * Laufzeiten gesammelt (siehe {@link #getStatistics()}).
+ */
+public class WollMuxEventScheduler
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(WollMuxEventScheduler.class);
+
+  /**
+   * Maximale Anzahl gleichzeitig bearbeiteter Lanes.
+   */
+  private static final int MAX_WORKERS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Nach dieser Zeit in Sekunden werden unbenutzte Worker-Threads beendet.
+   */
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  /**
+   * Schlüssel der Lane für Events, die keinem Dokument zugeordnet sind.
+   */
+  private static final Object GLOBAL_LANE = new Object();
+
+  private final ThreadPoolExecutor pool;
+
+  /**
+   * Führt ein Event tatsächlich aus (z.B. durch Weitergabe an den EventBus).
+   */
+  private final Consumer<WollMuxEvent> dispatcher;
+
+  /**
+   * Alle Lanes, die aktuell Events enthalten oder bearbeiten. Leere Lanes werden entfernt.
+   */
+  private final Map<Object, Lane> lanes = new HashMap<>();
+
+  private final Map<String, EventStatistics> statistics = new ConcurrentHashMap<>();
+
+  /**
+   * Erzeugt einen neuen Scheduler, der die Events über dispatcher ausführt.
+   */
+  WollMuxEventScheduler(Consumer<WollMuxEvent> dispatcher)
+  {
+    this.dispatcher = dispatcher;
+    pool = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new EventThreadFactory());
+    pool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Stellt event in die Lane des Dokuments document. Ist document null oder kein UNO-Objekt, so
+   * wird das Event in die globale Lane gestellt.
+   *
+   * @param document
+   *          ein {@link TextDocumentController}, ein Dokument (XComponent) oder null.
+   */
+  void schedule(WollMuxEvent event, Object document)
+  {
+    Object key = getLaneKey(document);
+    EventStatistics stats = statistics.computeIfAbsent(event.getClass().getSimpleName(),
+        k -> new EventStatistics());
+    stats.queued();
+    long queuedAt = System.nanoTime();
+
+    Runnable task = () -> {
+      long start = System.nanoTime();
+      stats.started(start - queuedAt);
+      try
+      {
+        dispatcher.accept(event);
+      } finally
+      {
+        stats.finished(System.nanoTime() - start);
+      }
+    };
+
+    Lane lane;
+    boolean start;
+    synchronized (lanes)
+    {
+      lane = lanes.computeIfAbsent(key, Lane::new);
+      lane.tasks.add(task);
+      start = !lane.running;
+      lane.running = true;
+    }
+    if (start)
+    {
+      pool.execute(() -> runNext(lane));
+    }
+  }
+
+  /**
+   * Liefert die gesammelten Kennzahlen je Event-Klasse.
+   */
+  public Map<String, EventStatistics> getStatistics()
+  {
+    return new TreeMap<>(statistics);
+  }
+
+  /**
+   * Bearbeitet das nächste Event der Lane und stellt die Lane danach wieder hinten in den Pool,
+   * falls sie weitere Events enthält.
+   */
+  private void runNext(Lane lane)
+  {
+    Runnable task;
+    synchronized (lanes)
+    {
+      task = lane.tasks.poll();
+      if (task == null)
+      {
+        lane.running = false;
+        lanes.remove(lane.key);
+        return;
+      }
+    }
+
+    try
+    {
+      task.run();
+    } catch (Throwable t)
+    {
+      LOGGER.error("", t);
+    }
+
+    synchronized (lanes)
+    {
+      if (lane.tasks.isEmpty())
+      {
+        lane.running = false;
+        lanes.remove(lane.key);
+        return;
+      }
+    }
+    pool.execute(() -> runNext(lane));
+  }
+
+  private static Object getLaneKey(Object document)
+  {
+    if (document instanceof TextDocumentController)
+    {
+      TextDocumentController documentController = (TextDocumentController) document;
+      document = documentController.getModel() != null ? documentController.getModel().doc : null;
+    }
+    if (document == null)
+    {
+      return GLOBAL_LANE;
+    }
+    try
+    {
+      return new HashableComponent(document);
+    } catch (ClassCastException e)
+    {
+      return GLOBAL_LANE;
+    }
+  }
+
+  private static class Lane
+  {
+    private final Object key;
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private boolean running;
+
+    Lane(Object key)
+    {
+      this.key = key;
+    }
+  }
+
+  /**
+   * Kennzahlen für die Bearbeitung der Events einer Event-Klasse.
+   */
+  public static class EventStatistics
+  {
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicInteger maxWaiting = new AtomicInteger();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    void queued()
+    {
+      maxWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+    }
+
+    void started(long waitNanos)
+    {
+      waiting.decrementAndGet();
+      totalWaitNanos.addAndGet(waitNanos);
+      maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    void finished(long runNanos)
+    {
+      processed.incrementAndGet();
+      totalRunNanos.addAndGet(runNanos);
+      maxRunNanos.accumulateAndGet(runNanos, Math::max);
+    }
+
+    /**
+     * Liefert die Anzahl der Events, die aktuell auf ihre Bearbeitung warten.
+     */
+    public int getQueueDepth()
+    {
+      return waiting.get();
+    }
+
+    /**
+     * Liefert die größte bisher beobachtete Anzahl wartender Events.
+     */
+    public int getMaxQueueDepth()
+    {
+      return maxWaiting.get();
+    }
+
+    public long getProcessed()
+    {
+      return processed.get();
+    }
+
+    @Override
+    public String toString()
+    {
+      long count = getProcessed();
+      long avgWait = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get()) / count;
+      long avgRun = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get()) / count;
+      return "processed=" + count + ", queued=" + getQueueDepth() + ", maxQueued="
+          + getMaxQueueDepth() + ", avgWait=" + avgWait + "ms, maxWait="
+          + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()) + "ms, avgRun=" + avgRun
+          + "ms, maxRun=" + TimeUnit.NANOSECONDS.toMillis(maxRunNanos.get()) + "ms";
+    }
+  }
+
+  /**
+   * Erzeugt benannte Daemon-Threads, damit ein hängendes Event das Beenden von LibreOffice nicht
+   * verhindert.
+   */
+  private static class EventThreadFactory implements ThreadFactory
+  {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, "WollMux-Event-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
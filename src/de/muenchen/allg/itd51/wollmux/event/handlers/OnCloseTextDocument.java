@@ -21,6 +21,7 @@ public class OnCloseTextDocument extends BasicEvent
   @Override
   protected void doit()
   {
+    documentController.flushFormFieldValues();
     documentController.getModel().close();
   }
 
@@ -0,0 +1,34 @@
+package de.muenchen.allg.itd51.wollmux.event.handlers;
+
+import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
+
+/**
+ * Erzeugt ein neues WollMuxEvent, welches dafür sorgt, dass alle von der
+ * Formular-GUI gesammelten, aber noch nicht übertragenen Wert- und
+ * Sichtbarkeitsänderungen in einem Durchgang ins Dokument übernommen werden.
+ *
+ * Dieses Event wird vom FormValueCoalescer ausgelöst, sobald die eingestellte
+ * Verzögerung nach der ersten Änderung abgelaufen ist.
+ */
+public class OnFormValuesChanged extends BasicEvent
+{
+  private TextDocumentController documentController;
+
+  public OnFormValuesChanged(TextDocumentController documentController)
+  {
+    this.documentController = documentController;
+  }
+
+  @Override
+  protected void doit()
+  {
+    documentController.flushFormFieldValues();
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.getClass().getSimpleName() + "(#"
+        + documentController.getModel().hashCode() + ")";
+  }
+}
@@ -65,7 +65,7 @@ public class OnJumpToMark extends BasicEvent
       cmd.markDone(true);
       documentController.getModel().setDocumentModified(modified);
 
-      documentController.getModel().getDocumentCommands().update();
+      documentController.updateDocumentCommands();
 
     } else
     {
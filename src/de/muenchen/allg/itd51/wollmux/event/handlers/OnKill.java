@@ -2,6 +2,7 @@ package de.muenchen.allg.itd51.wollmux.event.handlers;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.itd51.wollmux.WollMuxFehlerException;
+import de.muenchen.allg.itd51.wollmux.db.LosCachePersister;
 
 /**
  * Erzeugt ein neues WollMuxEvent, das signasisiert, dass das gesamte Office (und
@@ -15,6 +16,9 @@ public class OnKill extends BasicEvent
   @Override
   protected void doit() throws WollMuxFehlerException
   {
+    // ausstehende Änderungen an Cache und LOS nicht verlieren
+    LosCachePersister.getInstance().flush();
+
     if (UNO.desktop != null)
     {
       UNO.desktop.terminate();
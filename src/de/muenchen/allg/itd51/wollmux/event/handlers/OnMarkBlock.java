@@ -223,7 +223,7 @@ public class OnMarkBlock extends BasicEvent
     }
 
     // PrintBlöcke neu einlesen:
-    documentController.getModel().getDocumentCommands().update();
+    documentController.updateDocumentCommands();
     DocumentCommandInterpreter dci = new DocumentCommandInterpreter(
         documentController, WollMuxFiles.isDebugMode());
     dci.scanGlobalDocumentCommands();
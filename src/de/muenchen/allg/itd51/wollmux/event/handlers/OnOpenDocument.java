@@ -13,10 +13,9 @@ import org.slf4j.LoggerFactory;
 import com.sun.star.lang.XComponent;
 
 import de.muenchen.allg.afid.UNO;
+import de.muenchen.allg.itd51.wollmux.TextFragmentIndex;
 import de.muenchen.allg.itd51.wollmux.WollMuxFehlerException;
 import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
-import de.muenchen.allg.itd51.wollmux.WollMuxSingleton;
-import de.muenchen.allg.itd51.wollmux.core.document.VisibleTextFragmentList;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
 import de.muenchen.allg.itd51.wollmux.core.parser.InvalidIdentifierException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
@@ -98,8 +97,7 @@ public class OnOpenDocument extends BasicEvent
           frag_id));
       try
       {
-        urls = VisibleTextFragmentList
-            .getURLsByID(WollMuxFiles.getWollmuxConf(), frag_id);
+        urls = TextFragmentIndex.getURLsByID(frag_id);
       } catch (InvalidIdentifierException e)
       {
         error = e;
@@ -130,12 +128,8 @@ public class OnOpenDocument extends BasicEvent
           url = WollMuxFiles.makeURL(urlStr);
           urlStr = UNO.getParsedUNOUrl(url.toExternalForm()).Complete;
           url = WollMuxFiles.makeURL(urlStr);
-          found = DocumentLoader.getInstance().hasDocument(urlStr);
-          if (!found)
-          {
-            WollMuxSingleton.checkURL(url);
-            found = true;
-          }
+          DocumentLoader.getInstance().fetchDocument(urlStr);
+          found = true;
         } catch (MalformedURLException e)
         {
           LOGGER.info("", e);
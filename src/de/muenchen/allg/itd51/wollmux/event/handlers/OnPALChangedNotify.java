@@ -1,6 +1,5 @@
 package de.muenchen.allg.itd51.wollmux.event.handlers;
 
-import java.io.IOException;
 import java.util.Iterator;
 
 import org.slf4j.Logger;
@@ -13,6 +12,7 @@ import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.XPALChangeEventListener;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
 import de.muenchen.allg.itd51.wollmux.db.DatasourceJoinerFactory;
+import de.muenchen.allg.itd51.wollmux.db.LosCachePersister;
 
 /**
  * Dieses Event wird immer dann erzeugt, wenn ein Dialog zur Bearbeitung der PAL
@@ -47,15 +47,9 @@ public class OnPALChangedNotify extends BasicEvent
       }
     }
 
-    // Cache und LOS auf Platte speichern.
+    // Cache und LOS im Hintergrund auf Platte speichern.
     ConfigThingy cache = DatasourceJoinerFactory.getDatasourceJoiner()
         .saveCacheAndLOS(WollMuxFiles.getLosCacheFile());
-    try
-    {
-      WollMuxFiles.writeConfToFile(WollMuxFiles.getLosCacheFile(), cache);
-    } catch (IOException e)
-    {
-      LOGGER.error("Cache konnte nicht gespeichert werden.", e);
-    }
+    LosCachePersister.getInstance().save(cache);
   }
 }
\ No newline at end of file
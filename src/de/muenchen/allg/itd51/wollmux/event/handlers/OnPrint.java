@@ -29,6 +29,7 @@ public class OnPrint extends BasicEvent
   @Override
   protected void doit() throws WollMuxFehlerException
   {
+    documentController.flushFormFieldValues();
     boolean hasPrintFunction = !documentController.getModel()
         .getPrintFunctions().isEmpty();
 
@@ -153,6 +153,7 @@ public class FormController
    */
   public void pdf()
   {
+    documentController.flushFormFieldValues();
     UNO.dispatch(documentController.getModel().doc, ".uno:ExportToPDF");
   }
 
@@ -311,6 +312,8 @@ public class FormController
     model.setValue(fieldId, value);
     if (listener != null)
     {
+      // der Aufrufer (z.B. eine Druckfunktion) erwartet, dass der Wert im Dokument steht
+      documentController.flushFormFieldValues();
       listener.actionPerformed(null);
     }
   }
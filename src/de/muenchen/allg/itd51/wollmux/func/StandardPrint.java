@@ -452,7 +452,9 @@ public class StandardPrint
   /**
    * Hängt das zu pmod gehörige TextDocument an das im Property
    * PrintIntoFile_OutputDocument gespeicherte XTextDocument an. Falls noch kein
-   * solches Property existiert, wird ein leeres Dokument angelegt.
+   * solches Property existiert, wird ein leeres Dokument angelegt. Alle Dokumente
+   * eines Druckauftrags werden über dieselbe {@link PrintIntoFile}-Instanz
+   * angehängt, die am Ende des Druckauftrags abgeschlossen wird.
    *
    * @throws Exception
    *           falls was schief geht.
@@ -489,7 +491,8 @@ public class StandardPrint
     catch (UnknownPropertyException e)
     {}
 
-    PrintIntoFile.appendToFile(outputDoc, pmod.getTextDocument(), firstAppend);
+    PrintIntoFile.getInstance(pmod, outputDoc).append(pmod.getTextDocument(),
+      firstAppend);
 
     if (firstAppend)
       pmod.setPropertyValue("PrintIntoFile_PreviousOutputDocument", outputDoc);
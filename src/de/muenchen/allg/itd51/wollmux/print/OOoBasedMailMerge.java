@@ -30,24 +30,39 @@
  */
 package de.muenchen.allg.itd51.wollmux.print;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.sun.star.beans.NamedValue;
 import com.sun.star.beans.PropertyValue;
 import com.sun.star.beans.PropertyVetoException;
@@ -67,12 +82,15 @@ import com.sun.star.lang.XSingleServiceFactory;
 import com.sun.star.sdb.CommandType;
 import com.sun.star.sdb.XDocumentDataSource;
 import com.sun.star.task.XJob;
+import com.sun.star.style.BreakType;
+import com.sun.star.text.ControlCharacter;
 import com.sun.star.text.MailMergeEvent;
 import com.sun.star.text.MailMergeType;
 import com.sun.star.text.XDependentTextField;
 import com.sun.star.text.XMailMergeBroadcaster;
 import com.sun.star.text.XMailMergeListener;
 import com.sun.star.text.XTextContent;
+import com.sun.star.text.XTextCursor;
 import com.sun.star.text.XTextDocument;
 import com.sun.star.text.XTextRange;
 import com.sun.star.text.XTextSection;
@@ -88,6 +106,7 @@ import com.sun.star.util.XChangesBatch;
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.afid.UnoProps;
 import de.muenchen.allg.itd51.wollmux.SachleitendeVerfuegung;
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.XPrintModel;
 import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory;
 import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormField;
@@ -100,11 +119,13 @@ import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand.InsertFormValue;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommands;
+import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.core.util.Utils;
 import de.muenchen.allg.itd51.wollmux.dialog.InfoDialog;
 import de.muenchen.allg.itd51.wollmux.dialog.mailmerge.MailMergeNew;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager;
+import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
 
 public class OOoBasedMailMerge
 {
@@ -128,6 +149,32 @@ public class OOoBasedMailMerge
 
   private static final String TABLE_NAME = "data";
 
+  /**
+   * Name der Unterverzeichnisse bzw. Präfix der Ergebnisdateien der Pakete beim
+   * paketweisen Seriendruck.
+   */
+  private static final String CHUNK_DIR_PATTERN = "chunk%04d";
+
+  private static final String CHECKPOINT_FILENAME = "checkpoint.properties";
+
+  /**
+   * Präfix der Arbeitsverzeichnisse des paketweisen Seriendrucks; es folgt der
+   * vollständige Fingerabdruck.
+   */
+  private static final String RESUMABLE_DIR_PREFIX = TEMP_WOLLMUX_MAILMERGE_PREFIX + "R";
+
+  /**
+   * Alter in Millisekunden, nach dem ein liegengebliebenes Arbeitsverzeichnis des
+   * Seriendrucks gelöscht wird (7 Tage).
+   */
+  private static final long TEMPDIR_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+  /**
+   * Schlüssel in der wollmux.conf für die Anzahl der Datensätze je Paket beim
+   * OOo-Seriendruck. Fehlt er oder ist er 0, wird der Seriendruck nicht aufgeteilt.
+   */
+  public static final String CHUNK_SIZE_KEY = "SERIENDRUCK_PAKETGROESSE";
+
   private static final char OPENSYMBOL_CHECKED = 0xE4C4;
 
   private static final char OPENSYMBOL_UNCHECKED = 0xE470;
@@ -151,6 +198,13 @@ public class OOoBasedMailMerge
       type = OutputType.toFile;
     }
 
+    int chunkSize = getChunkSize();
+    if (chunkSize > 0 && MailMergeNew.mailMergeNewGetSelectionSize(pmod) > chunkSize)
+    {
+      chunkedMailMerge(pmod, type, chunkSize);
+      return;
+    }
+
     File tmpDir = createMailMergeTempdir();
 
     // Datenquelle mit über mailMergeNewSetFormValue simulierten Daten erstellen
@@ -206,33 +260,16 @@ public class OOoBasedMailMerge
         new ProgressUpdater(pmod, (int) Math.ceil((double) ds.getSize()
           / countNextSets(pmod.getTextDocument())));
 
-      t = runMailMerge(dbName, tmpDir, inputFile, updater, type);
+      t = runMailMerge(dbName, tmpDir, inputFile, updater, updater.maxDatasets, type,
+        "output");
     }
     catch (Exception e)
     {
       LOGGER.error(L.m("Fehler beim Starten des OOo-Seriendrucks"), e);
     }
 
-    // Warte auf Ende des MailMerge-Threads unter Berücksichtigung von
-    // pmod.isCanceled()
-    while (t != null && t.isAlive())
-      try
-      {
-        t.join(1000);
-        if (pmod.isCanceled())
-        {
-          t.cancel();
-          break;
-        }
-      }
-      catch (InterruptedException e)
-      {}
-    if (pmod.isCanceled() && t.isAlive())
-    {
-      t.interrupt();
-      LOGGER.debug(L.m("Der OOo-Seriendruck wurde abgebrochen"));
-      // aber aufräumen tun wir noch...
-    }
+    awaitMailMerge(pmod, t);
+    // nach einem Abbruch wird trotzdem noch aufgeräumt...
 
     removeTempDatasource(dbName, tmpDir);
     ds.remove();
@@ -294,6 +331,434 @@ public class OOoBasedMailMerge
     tmpDir.delete();
   }
 
+  /**
+   * Wartet auf das Ende des MailMerge-Threads t unter Berücksichtigung von
+   * pmod.isCanceled().
+   */
+  private static void awaitMailMerge(XPrintModel pmod, MailMergeThread t)
+  {
+    while (t != null && t.isAlive())
+      try
+      {
+        t.join(1000);
+        if (pmod.isCanceled())
+        {
+          t.cancel();
+          break;
+        }
+      }
+      catch (InterruptedException e)
+      {}
+    if (pmod.isCanceled() && t != null && t.isAlive())
+    {
+      t.interrupt();
+      LOGGER.debug(L.m("Der OOo-Seriendruck wurde abgebrochen"));
+    }
+  }
+
+  /**
+   * Liefert die in der wollmux.conf unter {@link #CHUNK_SIZE_KEY} festgelegte
+   * Paketgröße oder 0, wenn der Seriendruck nicht in Pakete aufgeteilt werden soll.
+   */
+  private static int getChunkSize()
+  {
+    try
+    {
+      int size = Integer.parseInt(WollMuxFiles.getWollmuxConf().query(CHUNK_SIZE_KEY, 1)
+          .getLastChild().toString());
+      return Math.max(0, size);
+    }
+    catch (NodeNotFoundException e)
+    {
+      return 0;
+    }
+    catch (NumberFormatException e)
+    {
+      LOGGER.error(L.m("%1 muss eine Zahl sein.", CHUNK_SIZE_KEY), e);
+      return 0;
+    }
+  }
+
+  /**
+   * Führt den Seriendruck in Paketen von höchstens chunkSize Datensätzen aus. Für
+   * jedes Paket wird eine eigene Datenquelle (csv-Datei und .odb) erzeugt und ein
+   * eigener OOo-Seriendruck gestartet; bei {@link OutputType#toFile} und
+   * {@link OutputType#toShell} werden die Ergebnisse der Pakete am Ende zu einem
+   * Gesamtdokument zusammengefügt.
+   *
+   * Das Arbeitsverzeichnis wird aus einem Fingerabdruck von Dokument, Ausgabetyp
+   * und Daten abgeleitet. Nach jedem fertigen Paket wird eine {@link Checkpoint}
+   * geschrieben. Wird der Seriendruck abgebrochen oder stürzt Office ab, bleibt das
+   * Verzeichnis erhalten und ein erneuter Seriendruck mit denselben Daten setzt
+   * nach dem letzten fertigen Paket fort. Verzeichnisse, die länger als
+   * {@link #TEMPDIR_MAX_AGE} nicht mehr verändert wurden, werden gelöscht.
+   */
+  private static void chunkedMailMerge(final XPrintModel pmod, OutputType type,
+      int chunkSize)
+  {
+    File tmpDir = createMailMergeTempdir();
+    deleteExpiredTempdirs(tmpDir.getParentFile());
+    CsvBasedOOoDataSource ds = new CsvBasedOOoDataSource(tmpDir);
+    List<File> chunkDirs;
+    try
+    {
+      MailMergeNew.mailMergeNewSetFormValue(pmod, ds);
+      if (pmod.isCanceled())
+      {
+        FileUtils.deleteQuietly(tmpDir);
+        return;
+      }
+      chunkDirs = ds.dsw.flushAndClose(chunkSize);
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(
+        L.m("OOo-Based-MailMerge: kann Simulationsdatenquelle nicht erzeugen!"), e);
+      FileUtils.deleteQuietly(tmpDir);
+      return;
+    }
+    if (ds.getSize() == 0)
+    {
+      FileUtils.deleteQuietly(tmpDir);
+      InfoDialog.showInfoModal(
+        L.m("WollMux-Seriendruck"),
+        L.m("Der Seriendruck wurde abgebrochen, da Ihr Druckauftrag keine Datensätze enthält."));
+      pmod.cancel();
+      return;
+    }
+
+    // Arbeitsverzeichnis eines abgebrochenen Laufs mit denselben Daten wiederverwenden
+    String fingerprint = fingerprint(pmod, type, chunkDirs);
+    File jobDir = new File(tmpDir.getParentFile(), RESUMABLE_DIR_PREFIX + fingerprint);
+    Checkpoint checkpoint = Checkpoint.load(jobDir);
+    if (checkpoint != null && fingerprint.equals(checkpoint.fingerprint)
+      && checkpoint.chunks == chunkDirs.size())
+    {
+      LOGGER.info(L.m("Setze Seriendruck nach Paket %1 von %2 fort", checkpoint.completed,
+        checkpoint.chunks));
+      FileUtils.deleteQuietly(tmpDir);
+    }
+    else
+    {
+      // Ein vorhandenes Verzeichnis mit anderem Inhalt gehört nicht zu diesem
+      // Seriendruck und wird nicht angetastet; dann wird ohne Fortsetzung im
+      // temporären Verzeichnis gearbeitet.
+      if (jobDir.exists() || !tmpDir.renameTo(jobDir))
+      {
+        jobDir = tmpDir;
+      }
+      checkpoint = new Checkpoint(jobDir, fingerprint, chunkDirs.size());
+      checkpoint.save();
+    }
+    chunkDirs = new ArrayList<>();
+    for (int i = 0; i < checkpoint.chunks; ++i)
+      chunkDirs.add(new File(jobDir, String.format(CHUNK_DIR_PATTERN, i)));
+
+    OutputType chunkType = type == OutputType.toPrinter ? OutputType.toPrinter : OutputType.toFile;
+    int nextSets = countNextSets(pmod.getTextDocument());
+    ProgressUpdater updater =
+      new ProgressUpdater(pmod, (int) Math.ceil((double) ds.getSize() / nextSets));
+    updater.skip((int) Math.ceil((double) checkpoint.records / nextSets));
+
+    boolean loadPrintSettings = false;
+    try
+    {
+      loadPrintSettings = modifyLoadPrinterSetting(true);
+    } catch (Exception e1)
+    {
+      LOGGER.warn(
+          "Die Option 'Laden von Druckeinstellungen mit dem Dokument' konnte nicht gesetzt werden.\n"
+              + "Seriendrucke auf einem Drucker haben eventuell falsche Optionen gesetzt.");
+      LOGGER.debug("", e1);
+    }
+
+    String dbName = null;
+    File inputFile = null;
+    try
+    {
+      for (int i = checkpoint.completed; i < checkpoint.chunks && !pmod.isCanceled(); ++i)
+      {
+        File chunkDir = chunkDirs.get(i);
+        int chunkRecords = Math.min(chunkSize, ds.getSize() - i * chunkSize);
+        XDocumentDataSource dataSource =
+          new CsvBasedOOoDataSource(chunkDir).createXDocumentDatasource();
+        if (dbName == null)
+        {
+          dbName = registerTempDatasouce(dataSource);
+          inputFile = createAndAdjustInputFile(jobDir, pmod.getTextDocument(), dbName);
+          LOGGER.debug(L.m("Temporäre Datenquelle: %1", dbName));
+        }
+        else
+        {
+          registerTempDatasouce(dataSource, dbName);
+        }
+
+        try
+        {
+          PrintModels.setStage(pmod,
+            L.m("Gesamtdokument erzeugen (Paket %1 von %2)", i + 1, checkpoint.chunks));
+          MailMergeThread t = runMailMerge(dbName, jobDir, inputFile, updater,
+            (int) Math.ceil((double) chunkRecords / nextSets), chunkType,
+            String.format(CHUNK_DIR_PATTERN, i) + "_");
+          awaitMailMerge(pmod, t);
+        }
+        finally
+        {
+          removeTempDatasource(dbName, chunkDir);
+        }
+
+        if (pmod.isCanceled())
+          break;
+        if (chunkType == OutputType.toFile && !getChunkOutput(jobDir, i).exists())
+        {
+          InfoDialog.showInfoModal(L.m("WollMux-Seriendruck"),
+            L.m("Leider konnte kein Gesamtdokument (ODT) erstellt werden."));
+          pmod.cancel();
+          break;
+        }
+        checkpoint.completed = i + 1;
+        checkpoint.records += chunkRecords;
+        checkpoint.save();
+      }
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("Fehler beim Starten des OOo-Seriendrucks"), e);
+      pmod.cancel();
+    }
+    finally
+    {
+      if (inputFile != null) inputFile.delete();
+      try
+      {
+        modifyLoadPrinterSetting(loadPrintSettings);
+      } catch (Exception e1)
+      {
+        LOGGER.warn(
+            "Die Einstellung 'Laden von Druckeinstellungen mit dem Dokument' konnte nicht zurückgesetzt werden.");
+        LOGGER.debug("", e1);
+      }
+    }
+
+    if (pmod.isCanceled())
+    {
+      LOGGER.info(L.m(
+        "Seriendruck nach Paket %1 von %2 abgebrochen. Er kann mit denselben Daten fortgesetzt werden.",
+        checkpoint.completed, checkpoint.chunks));
+      return;
+    }
+
+    if (type != OutputType.toPrinter)
+    {
+      PrintModels.setStage(pmod, L.m("Gesamtdokument zusammenfügen"));
+      XTextDocument result = joinChunkOutputs(jobDir, checkpoint.chunks);
+      if (result == null)
+      {
+        InfoDialog.showInfoModal(L.m("WollMux-Seriendruck"),
+          L.m("Leider konnte kein Gesamtdokument (ODT) erstellt werden."));
+        pmod.cancel();
+        return;
+      }
+
+      if (type == OutputType.toShell)
+      {
+        try
+        {
+          pmod.setPropertyValue(PrintFunction.PROP_PRINT_RESULT, result);
+          pmod.printWithProps();
+        } catch (UnknownPropertyException | PropertyVetoException | IllegalArgumentException | WrappedTargetException e)
+        {
+          LOGGER.error("", e);
+          InfoDialog.showInfoModal(L.m("WollMux-Seriendruck"),
+              L.m("Leider konnte der Druck nicht abgeschlossen werden."));
+          pmod.cancel();
+        }
+      }
+      else
+      {
+        UNO.XModel(result).getCurrentController().getFrame().getContainerWindow()
+            .setVisible(true);
+      }
+    }
+
+    FileUtils.deleteQuietly(jobDir);
+  }
+
+  /**
+   * Löscht alle Arbeitsverzeichnisse des Seriendrucks in tmpRoot, die seit
+   * {@link #TEMPDIR_MAX_AGE} nicht mehr verändert wurden, z.B. von abgebrochenen
+   * Seriendrucken, die nie fortgesetzt wurden. Bei laufenden Seriendrucken wird der
+   * Checkpoint nach jedem Paket geschrieben, so dass sie nicht betroffen sind.
+   */
+  private static void deleteExpiredTempdirs(File tmpRoot)
+  {
+    File[] dirs = tmpRoot.listFiles(
+      f -> f.isDirectory() && f.getName().startsWith(TEMP_WOLLMUX_MAILMERGE_PREFIX));
+    if (dirs == null) return;
+    long expired = System.currentTimeMillis() - TEMPDIR_MAX_AGE;
+    for (File dir : dirs)
+    {
+      long modified = Math.max(dir.lastModified(),
+        new File(dir, CHECKPOINT_FILENAME).lastModified());
+      if (modified < expired)
+      {
+        LOGGER.debug("Lösche veraltetes Seriendruckverzeichnis {}", dir);
+        FileUtils.deleteQuietly(dir);
+      }
+    }
+  }
+
+  /**
+   * Liefert die Ergebnisdatei des Pakets chunk im Verzeichnis jobDir.
+   */
+  private static File getChunkOutput(File jobDir, int chunk)
+  {
+    return new File(jobDir, String.format(CHUNK_DIR_PATTERN, chunk) + "_0.odt");
+  }
+
+  /**
+   * Fügt die Ergebnisdateien der Pakete in jobDir zu einem neuen, unsichtbaren
+   * Dokument zusammen und liefert dieses zurück oder null, falls das nicht möglich
+   * war. Jedes weitere Paket beginnt auf einer neuen Seite.
+   */
+  private static XTextDocument joinChunkOutputs(File jobDir, int chunks)
+  {
+    XTextDocument result = null;
+    try
+    {
+      String unoURL =
+        UNO.getParsedUNOUrl(getChunkOutput(jobDir, 0).toURI().toString()).Complete;
+      result = UNO.XTextDocument(UNO.loadComponentFromURL(unoURL, true, false, true));
+      if (result == null) return null;
+
+      for (int i = 1; i < chunks; ++i)
+      {
+        XTextCursor cursor = result.getText().createTextCursor();
+        cursor.gotoEnd(false);
+        result.getText().insertControlCharacter(cursor, ControlCharacter.PARAGRAPH_BREAK,
+          false);
+        Utils.setProperty(cursor, "BreakType", BreakType.PAGE_BEFORE);
+        unoURL = UNO.getParsedUNOUrl(getChunkOutput(jobDir, i).toURI().toString()).Complete;
+        UNO.XDocumentInsertable(cursor).insertDocumentFromURL(unoURL,
+          new PropertyValue[] {});
+      }
+      return result;
+    }
+    catch (Exception e)
+    {
+      LOGGER.error("", e);
+      if (result != null)
+      {
+        try
+        {
+          UNO.XCloseable(result).close(true);
+        }
+        catch (CloseVetoException e1)
+        {
+          LOGGER.debug("", e1);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Berechnet den Fingerabdruck eines paketweisen Seriendrucks aus dem
+   * Hauptdokument, dem Ausgabetyp und den Daten der Pakete.
+   */
+  private static String fingerprint(XPrintModel pmod, OutputType type, List<File> chunkDirs)
+  {
+    Hasher hasher = Hashing.sha256().newHasher();
+    XModel model = UNO.XModel(pmod.getTextDocument());
+    hasher.putString(model != null ? model.getURL() : "", StandardCharsets.UTF_8);
+    hasher.putString(type.name(), StandardCharsets.UTF_8);
+    for (File dir : chunkDirs)
+    {
+      try
+      {
+        hasher.putBytes(java.nio.file.Files.readAllBytes(new File(dir, TABLE_NAME + ".csv").toPath()));
+      }
+      catch (java.io.IOException e)
+      {
+        LOGGER.debug("", e);
+        hasher.putLong(System.nanoTime());
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Der Fortschritt eines paketweisen Seriendrucks, gespeichert in der Datei
+   * {@link #CHECKPOINT_FILENAME} im Arbeitsverzeichnis.
+   */
+  private static class Checkpoint
+  {
+    private final File file;
+
+    private final String fingerprint;
+
+    private final int chunks;
+
+    /**
+     * Anzahl der fertigen Pakete.
+     */
+    private int completed;
+
+    /**
+     * Anzahl der Datensätze in den fertigen Paketen.
+     */
+    private int records;
+
+    private Checkpoint(File jobDir, String fingerprint, int chunks)
+    {
+      this.file = new File(jobDir, CHECKPOINT_FILENAME);
+      this.fingerprint = fingerprint;
+      this.chunks = chunks;
+    }
+
+    /**
+     * Liest den Checkpoint aus jobDir oder liefert null, wenn es keinen gültigen
+     * gibt.
+     */
+    private static Checkpoint load(File jobDir)
+    {
+      File file = new File(jobDir, CHECKPOINT_FILENAME);
+      if (!file.isFile()) return null;
+      Properties props = new Properties();
+      try (InputStream in = new FileInputStream(file))
+      {
+        props.load(in);
+        Checkpoint checkpoint = new Checkpoint(jobDir, props.getProperty("fingerprint", ""),
+          Integer.parseInt(props.getProperty("chunks", "0")));
+        checkpoint.completed = Integer.parseInt(props.getProperty("completed", "0"));
+        checkpoint.records = Integer.parseInt(props.getProperty("records", "0"));
+        return checkpoint;
+      }
+      catch (java.io.IOException | NumberFormatException e)
+      {
+        LOGGER.debug("", e);
+        return null;
+      }
+    }
+
+    private void save()
+    {
+      Properties props = new Properties();
+      props.setProperty("fingerprint", fingerprint);
+      props.setProperty("chunks", Integer.toString(chunks));
+      props.setProperty("completed", Integer.toString(completed));
+      props.setProperty("records", Integer.toString(records));
+      try (OutputStream out = new FileOutputStream(file))
+      {
+        props.store(out, null);
+      }
+      catch (java.io.IOException e)
+      {
+        LOGGER.error("", e);
+      }
+    }
+  }
+
   /**
    * A optional XCancellable mail merge thread.
    *
@@ -381,6 +846,16 @@ public class OOoBasedMailMerge
       pmod.setPrintProgressValue((short) ++currentCount);
     }
 
+    /**
+     * Zählt count bereits erledigte Dokumente (z.B. beim Fortsetzen eines
+     * paketweisen Seriendrucks) zum Fortschritt hinzu.
+     */
+    public void skip(int count)
+    {
+      currentCount = Math.min(maxDatasets, currentCount + count);
+      pmod.setPrintProgressValue((short) currentCount);
+    }
+
     public void setMessage(String text)
     {
       this.currentCount = 0;
@@ -588,7 +1063,7 @@ public class OOoBasedMailMerge
     @Override
     public void remove()
     {
-      dsw.getCSVFile().delete();
+      dsw.delete();
     }
   }
 
@@ -639,6 +1114,16 @@ public class OOoBasedMailMerge
    * Implementiert einen DataSourceWriter, der Daten in eine CSV-Datei data.csv in
    * einem frei wählbaren Zielverzeichnis schreibt.
    *
+   * Die Datensätze werden nicht im Speicher gesammelt, sondern sofort beim Aufruf
+   * von {@link #addDataset(HashMap)} in eine Zwischendatei (data.rows) geschrieben.
+   * Da die Kopfzeile der csv-Datei erst nach dem letzten Datensatz feststeht, wird
+   * jeder Spalte beim ersten Auftreten ein fester Index zugeordnet; ein Datensatz
+   * wird in der Zwischendatei als Liste der Werte in der Reihenfolge dieser Indizes
+   * abgelegt. Erst {@link #flushAndClose()} schreibt die sortierte Kopfzeile und
+   * überträgt die Datensätze aus der Zwischendatei in die csv-Datei. Der
+   * Speicherbedarf hängt damit nur noch von der Anzahl der Spalten, nicht aber von
+   * der Anzahl der Datensätze ab.
+   *
    * @author Christoph Lutz (D-III-ITD-D101)
    */
   public static class CSVDataSourceWriter implements DataSourceWriter
@@ -649,20 +1134,40 @@ public class OOoBasedMailMerge
     File csvFile = null;
 
     /**
-     * Sammelt alle über {@link #addDataset(HashMap)} gesetzten Datensätze
+     * Zwischendatei, in die die Datensätze geschrieben werden, solange die
+     * vollständige Menge der Spalten noch nicht bekannt ist. Die Datei darf nicht
+     * auf .csv enden, da der Flat-File-Treiber sonst auch sie als Tabelle ansieht.
+     */
+    File rowsFile = null;
+
+    /**
+     * Der Stream in die Zwischendatei oder null, falls noch kein Datensatz
+     * geschrieben wurde bzw. {@link #flushAndClose()} bereits aufgerufen wurde.
+     */
+    DataOutputStream rows = null;
+
+    /**
+     * Bildet die Namen aller über {@link #addDataset(HashMap)} gesetzten Spalten auf
+     * den Index ab, unter dem ihre Werte in der Zwischendatei abgelegt werden.
      */
-    ArrayList<HashMap<String, String>> datasets;
+    LinkedHashMap<String, Integer> columns;
 
     /**
-     * Sammelt die Namen aller über {@link #addDataset(HashMap)} gesetzten Spalten.
+     * Anzahl der bisher geschriebenen Datensätze.
      */
-    HashSet<String> columns;
+    int size = 0;
 
     /**
      * Enthält nach einem Aufruf von {@link #getHeaders()} die sortierten Headers.
      */
     ArrayList<String> headers = null;
 
+    /**
+     * Die Verzeichnisse der Pakete, falls mit {@link #flushAndClose(int)} in Pakete
+     * aufgeteilt wurde.
+     */
+    List<File> chunkDirs = new ArrayList<>();
+
     /**
      * Erzeugt einen CSVDataSourceWriter, der die zu erzeugende csv-Datei in
      * parentDir ablegt.
@@ -670,8 +1175,8 @@ public class OOoBasedMailMerge
     public CSVDataSourceWriter(File parentDir)
     {
       csvFile = new File(parentDir, TABLE_NAME + ".csv");
-      datasets = new ArrayList<>();
-      columns = new HashSet<>();
+      rowsFile = new File(parentDir, TABLE_NAME + ".rows");
+      columns = new LinkedHashMap<>();
     }
 
     /*
@@ -684,7 +1189,7 @@ public class OOoBasedMailMerge
     @Override
     public int getSize()
     {
-      return datasets.size();
+      return size;
     }
 
     /*
@@ -697,8 +1202,30 @@ public class OOoBasedMailMerge
     @Override
     public void addDataset(HashMap<String, String> ds) throws Exception
     {
-      datasets.add(ds);
-      columns.addAll(ds.keySet());
+      if (headers != null)
+      {
+        // nach flushAndClose() würde der Datensatz sonst stillschweigend verloren gehen
+        throw new IllegalStateException(
+          L.m("Die Datenquelle wurde bereits abgeschlossen."));
+      }
+      if (rows == null)
+        rows = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rowsFile)));
+
+      for (String key : ds.keySet())
+        if (!columns.containsKey(key)) columns.put(key, columns.size());
+
+      String[] values = new String[columns.size()];
+      for (Map.Entry<String, String> entry : ds.entrySet())
+        values[columns.get(entry.getKey())] = entry.getValue();
+
+      rows.writeInt(values.length);
+      for (String val : values)
+      {
+        byte[] bytes = (val == null) ? new byte[0] : val.getBytes(StandardCharsets.UTF_8);
+        rows.writeInt(bytes.length);
+        rows.write(bytes);
+      }
+      ++size;
     }
 
     /*
@@ -710,51 +1237,120 @@ public class OOoBasedMailMerge
     @Override
     public void flushAndClose() throws Exception
     {
-      FileOutputStream fos = new FileOutputStream(csvFile);
-      PrintStream p = new PrintStream(fos, true, "UTF-8");
-      p.print(line(getHeaders()));
-      for (HashMap<String, String> ds : datasets)
+      flushAndClose(0);
+    }
+
+    /**
+     * Wie {@link #flushAndClose()}, verteilt die Datensätze aber auf Pakete von
+     * höchstens chunkSize Datensätzen. Jedes Paket wird mit der vollständigen
+     * Kopfzeile als data.csv in einem eigenen Unterverzeichnis (siehe
+     * {@link #CHUNK_DIR_PATTERN}) abgelegt, da der Flat-File-Treiber alle
+     * csv-Dateien eines Verzeichnisses als Tabellen ansieht. Ist chunkSize <= 0,
+     * wird wie bisher nur die csv-Datei selbst geschrieben.
+     *
+     * @return Die Verzeichnisse der Pakete in der Reihenfolge der Datensätze.
+     */
+    public List<File> flushAndClose(int chunkSize) throws Exception
+    {
+      if (headers != null) return chunkDirs;
+      if (rows != null) rows.close();
+      rows = null;
+
+      List<String> sortedHeaders = getHeaders();
+      int[] columnIndex = new int[sortedHeaders.size()];
+      for (int i = 0; i < columnIndex.length; ++i)
+        columnIndex[i] = columns.get(sortedHeaders.get(i));
+
+      Writer out = null;
+      DataInputStream in = null;
+      try
       {
-        ArrayList<String> entries = new ArrayList<>();
-        for (String key : getHeaders())
+        if (chunkSize <= 0)
         {
-          String val = ds.get(key);
-          if (val == null) val = "";
-          entries.add(val);
+          out = createCsvWriter(csvFile, sortedHeaders);
+        }
+        if (size > 0)
+        {
+          in = new DataInputStream(new BufferedInputStream(new FileInputStream(rowsFile)));
+          List<String> entries = new ArrayList<>(columnIndex.length);
+          String[] values = new String[columnIndex.length];
+          for (int r = 0; r < size; ++r)
+          {
+            if (chunkSize > 0 && r % chunkSize == 0)
+            {
+              if (out != null) out.close();
+              File dir = new File(csvFile.getParentFile(),
+                String.format(CHUNK_DIR_PATTERN, r / chunkSize));
+              dir.mkdir();
+              chunkDirs.add(dir);
+              out = createCsvWriter(new File(dir, TABLE_NAME + ".csv"), sortedHeaders);
+            }
+
+            int count = in.readInt();
+            Arrays.fill(values, "");
+            for (int i = 0; i < count; ++i)
+            {
+              byte[] bytes = new byte[in.readInt()];
+              in.readFully(bytes);
+              values[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            entries.clear();
+            for (int idx : columnIndex)
+              entries.add(values[idx]);
+            line(out, entries);
+          }
         }
-        p.print(line(entries));
       }
-      p.close();
+      finally
+      {
+        if (in != null) in.close();
+        if (out != null) out.close();
+        rowsFile.delete();
+      }
+      return chunkDirs;
     }
 
     /**
-     * Erzeugt die zu dem durch list repräsentierten Datensatz zugehörige
-     * vollständige Textzeile für die csv-Datei.
+     * Öffnet die csv-Datei file zum Schreiben und schreibt die Kopfzeile headers.
+     */
+    private Writer createCsvWriter(File file, List<String> headers)
+        throws java.io.IOException
+    {
+      Writer out = new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+      line(out, headers);
+      return out;
+    }
+
+    /**
+     * Schreibt die zu dem durch list repräsentierten Datensatz zugehörige
+     * vollständige Textzeile für die csv-Datei nach out.
      * 
      * @author Christoph Lutz (D-III-ITD-D101)
      */
-    private String line(List<String> list)
+    private void line(Writer out, List<String> list) throws java.io.IOException
     {
-      StringBuffer buf = new StringBuffer();
+      boolean first = true;
       for (String el : list)
       {
-        if (buf.length() != 0) buf.append(",");
-        buf.append(literal(el));
+        if (!first) out.write(',');
+        first = false;
+        literal(out, el);
       }
-      buf.append("\n");
-      return buf.toString();
+      out.write('\n');
     }
 
     /**
-     * Erzeugt ein für die csv-Datei gültiges literal aus dem Wert value und
-     * übernimmt insbesondere das Escaping der Anführungszeichen.
+     * Schreibt ein für die csv-Datei gültiges literal aus dem Wert value nach out
+     * und übernimmt insbesondere das Escaping der Anführungszeichen.
      *
      * @author Christoph Lutz (D-III-ITD-D101)
      */
-    private String literal(String value)
+    private void literal(Writer out, String value) throws java.io.IOException
     {
-      String esc = value.replaceAll("\"", "\"\"");
-      return "\"" + esc + "\"";
+      out.write('"');
+      out.write(value.replace("\"", "\"\""));
+      out.write('"');
     }
 
     /**
@@ -766,7 +1362,7 @@ public class OOoBasedMailMerge
     private ArrayList<String> getHeaders()
     {
       if (headers != null) return headers;
-      headers = new ArrayList<>(columns);
+      headers = new ArrayList<>(columns.keySet());
       Collections.sort(headers);
       return headers;
     }
@@ -780,6 +1376,27 @@ public class OOoBasedMailMerge
     {
       return csvFile;
     }
+
+    /**
+     * Entfernt die csv-Datei und eine eventuell noch vorhandene Zwischendatei.
+     */
+    public void delete()
+    {
+      if (rows != null)
+      {
+        try
+        {
+          rows.close();
+        }
+        catch (java.io.IOException e)
+        {
+          LOGGER.debug("", e);
+        }
+        rows = null;
+      }
+      rowsFile.delete();
+      csvFile.delete();
+    }
   }
 
   /**
@@ -1073,8 +1690,20 @@ public class OOoBasedMailMerge
   private static void addDatabaseFieldsForInsertFormValueBookmarks(
       XTextDocument doc, String dbName)
   {
-    DocumentCommands cmds = new DocumentCommands(UNO.XBookmarksSupplier(doc));
-    cmds.update();
+    // Das temporäre Dokument wird normalerweise nicht vom WollMux verwaltet; ist es doch bekannt,
+    // muss die Aktualisierung über den Controller laufen, damit dessen Index verworfen wird.
+    DocumentCommands cmds;
+    DocumentManager.Info info = DocumentManager.getDocumentManager().getInfo(doc);
+    if (info != null && info.getTextDocumentController() != null)
+    {
+      TextDocumentController documentController = info.getTextDocumentController();
+      documentController.updateDocumentCommands();
+      cmds = documentController.getModel().getDocumentCommands();
+    } else
+    {
+      cmds = new DocumentCommands(UNO.XBookmarksSupplier(doc));
+      cmds.update();
+    }
     HashMap<String, FormField> bookmarkNameToFormField =
       new HashMap<>();
     for (DocumentCommand cmd : cmds)
@@ -1303,6 +1932,27 @@ public class OOoBasedMailMerge
     new File(tmpDir, DATASOURCE_ODB_FILENAME).delete();
   }
 
+  /**
+   * Registriert die {@link XDocumentDataSource} dataSource unter dem Namen name, der
+   * vorher mit {@link #removeTempDatasource(String, File)} freigegeben worden sein
+   * muss.
+   */
+  private static void registerTempDatasouce(XDocumentDataSource dataSource, String name)
+  {
+    XSingleServiceFactory dbContext =
+      UNO.XSingleServiceFactory(UNO.createUNOService("com.sun.star.sdb.DatabaseContext"));
+    if (UNO.XNamingService(dbContext) != null)
+    {
+      try
+      {
+        UNO.XNamingService(dbContext).registerObject(name, dataSource);
+      } catch (Exception e)
+      {
+        LOGGER.error("", e);
+      }
+    }
+  }
+
   /**
    * Registriert die {@link XDocumentDataSource} dataSource mit einem neuen
    * Zufallsnamen in OOo (so, dass sie z.B. in der Liste der Datenbanken unter
@@ -1324,15 +1974,9 @@ public class OOoBasedMailMerge
     } while (nameAccess.hasByName(name));
 
     // Datenquelle registrieren
-    if (name != null && UNO.XNamingService(dbContext) != null)
+    if (name != null)
     {
-      try
-      {
-        UNO.XNamingService(dbContext).registerObject(name, dataSource);
-      } catch (Exception e)
-      {
-        LOGGER.error("", e);
-      }
+      registerTempDatasouce(dataSource, name);
     }
 
     return name;
@@ -1402,15 +2046,23 @@ public class OOoBasedMailMerge
    * @param progress
    *          Ein ProgressUpdater, der über den Bearbeitungsfortschritt informiert
    *          wird.
-   * @param printerName
-   *          Drucker fuer den Seriendruck
+   * @param documents
+   *          Anzahl der Dokumente, die dieser Seriendruck erzeugt. Ist sie erreicht,
+   *          wird bei {@link OutputType#toPrinter} das Senden des Druckauftrags
+   *          angezeigt.
+   * @param type
+   *          Der Ausgabetyp.
+   * @param fileNamePrefix
+   *          Präfix der Ergebnisdatei bei {@link OutputType#toFile}. Die Datei heißt
+   *          dann fileNamePrefix + "0.odt".
    * @throws Exception
    *           falls der MailMergeService nicht erzeugt werden kann.
    *
    * @author Christoph Lutz (D-III-ITD-D101)
    */
   private static MailMergeThread runMailMerge(String dbName, final File outputDir,
-      File inputFile, final ProgressUpdater progress, final OutputType type) throws Exception
+      File inputFile, final ProgressUpdater progress, final int documents,
+      final OutputType type, String fileNamePrefix) throws Exception
   {
     final XJob mailMerge =
       UnoRuntime.queryInterface(XJob.class, UNO.xMCF.createInstanceWithContext(
@@ -1432,7 +2084,7 @@ public class OOoBasedMailMerge
         count++;
         LOGGER.trace(L.m("OOo-MailMerger: verarbeite Datensatz %1 (%2 ms)", count,
           (System.currentTimeMillis() - start)));
-        if (count >= progress.maxDatasets && type == OutputType.toPrinter)
+        if (count >= documents && type == OutputType.toPrinter)
         {
           progress.setMessage(L.m("Sende Druckauftrag - bitte warten..."));
         }
@@ -1452,7 +2104,7 @@ public class OOoBasedMailMerge
     {
       mmProps.add(new NamedValue("SaveAsSingleFile", Boolean.TRUE));
       mmProps.add(new NamedValue("FileNameFromColumn", Boolean.FALSE));
-      mmProps.add(new NamedValue("FileNamePrefix", "output"));
+      mmProps.add(new NamedValue("FileNamePrefix", fileNamePrefix));
     }
     else if (type == OutputType.toShell)
     {
@@ -89,35 +89,23 @@ public class PrintFunction implements Comparable<PrintFunction>
   }
 
   /**
-   * Ruft die Funktion mit dem XPrintModel pmod als Parameter asynchron (d,h, in
-   * einem eigenen Thread) auf und liefert den Thread zurück.
+   * Ruft die Funktion mit dem XPrintModel pmod als Parameter synchron im aktuellen
+   * Thread auf. Fehler der externen Funktion werden geloggt.
    * 
    * @param pmod
    *          das XPrintModel des aktuellen Vordergrunddokuments, das die wichtigsten
    *          Druckkomandos bereitstellt, die die externe Funktion verwenden kann.
-   * @throws Exception
    */
-  public Thread invoke(XPrintModel pmod)
+  public void invoke(XPrintModel pmod)
   {
-    final Object[] args;
-    args = new Object[] { pmod };
-
-    Thread t = new Thread(new Runnable()
+    try
     {
-      public void run()
-      {
-        try
-        {
-          func.invoke(args);
-        }
-        catch (java.lang.Exception e)
-        {
-          LOGGER.error("", e);
-        }
-      }
-    });
-    t.start();
-    return t;
+      func.invoke(new Object[] { pmod });
+    }
+    catch (java.lang.Exception e)
+    {
+      LOGGER.error("", e);
+    }
   }
 
   /**
@@ -0,0 +1,262 @@
+/*
+ * Dateiname: PrintFunctionExecutor.java
+ * Projekt  : WollMux
+ * Funktion : Führt die Druckfunktionen einer Aufrufkette auf einem
+ *            wiederverwendbaren Thread-Pool aus.
+ *
+ * Copyright (c) 2008-2019 Landeshauptstadt München
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the European Union Public Licence (EUPL),
+ * version 1.0 (or any later version).
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * European Union Public Licence for more details.
+ *
+ * You should have received a copy of the European Union Public Licence
+ * along with this program. If not, see
+ * http://ec.europa.eu/idabc/en/document/7330
+ *
+ */
+package de.muenchen.allg.itd51.wollmux.print;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Führt die Druckfunktionen eines Druckauftrags aus. Früher wurde für jeden Aufruf
+ * einer Druckfunktion (also pro Datensatz und Stufe der Aufrufkette) ein eigener
+ * Thread erzeugt und sofort wieder mit join() abgewartet. Der PrintFunctionExecutor
+ * verwendet statt dessen einen gemeinsamen, in der Größe beschränkten Pool von
+ * Worker-Threads, die über alle Druckaufträge hinweg wiederverwendet werden.
+ *
+ * Pro Druckauftrag (also pro MasterPrintModel) existiert genau ein
+ * PrintFunctionExecutor, der als Kontextobjekt des Auftrags dient: er kennt das
+ * XPrintModel des Auftrags (für die Abfrage von isCanceled()/cancel()) und sammelt
+ * die Laufzeiten der einzelnen Stufen. Zusätzlich werden die Laufzeiten über alle
+ * Aufträge hinweg in {@link #getStageStatistics()} aufsummiert.
+ *
+ * Da jede Stufe der Aufrufkette synchron auf die nächste Stufe wartet, belegt eine
+ * Kette der Länge n auch n Worker. Ist der Pool erschöpft, so wird die Druckfunktion
+ * direkt im aufrufenden Thread ausgeführt, der ohnehin auf das Ergebnis warten
+ * würde. Dadurch kann es auch bei langen Aufrufketten nicht zu einer Verklemmung
+ * kommen.
+ */
+public class PrintFunctionExecutor
+{
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(PrintFunctionExecutor.class);
+
+  /**
+   * Maximale Anzahl gleichzeitig laufender Worker-Threads.
+   */
+  private static final int MAX_WORKERS = 16;
+
+  /**
+   * Nach dieser Zeit in Sekunden werden unbenutzte Worker-Threads beendet.
+   */
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  /**
+   * Der von allen Druckaufträgen gemeinsam genutzte Pool.
+   */
+  private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(0,
+      MAX_WORKERS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), new PrintFunctionThreadFactory(),
+      new ThreadPoolExecutor.CallerRunsPolicy());
+
+  /**
+   * Über alle Druckaufträge aufsummierte Laufzeiten je Druckfunktion.
+   */
+  private static final Map<String, StageStatistics> GLOBAL_STATISTICS =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Das XPrintModel des Druckauftrags, zu dem dieser Executor gehört.
+   */
+  private final XPrintModel job;
+
+  /**
+   * Laufzeiten je Druckfunktion für diesen Druckauftrag.
+   */
+  private final Map<String, StageStatistics> jobStatistics =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Erzeugt einen neuen Executor für den durch job repräsentierten Druckauftrag.
+   *
+   * @param job
+   *          das (Master-)XPrintModel des Druckauftrags, über das isCanceled()
+   *          und cancel() abgewickelt werden.
+   */
+  public PrintFunctionExecutor(XPrintModel job)
+  {
+    this.job = job;
+  }
+
+  /**
+   * Ruft die Druckfunktion func mit dem XPrintModel pmod auf einem Worker-Thread
+   * auf und kehrt erst zurück, wenn die Druckfunktion vollständig abgearbeitet
+   * wurde. Ist der Druckauftrag bereits abgebrochen, so wird func nicht mehr
+   * aufgerufen. Wird der wartende Thread unterbrochen, so wird der Druckauftrag
+   * abgebrochen.
+   *
+   * @param func
+   *          die auszuführende Druckfunktion.
+   * @param pmod
+   *          das (Slave-)XPrintModel, das der Druckfunktion übergeben wird.
+   */
+  public void execute(final PrintFunction func, final XPrintModel pmod)
+  {
+    if (job.isCanceled())
+    {
+      return;
+    }
+
+    Future<?> future = POOL.submit(() -> {
+      long start = System.nanoTime();
+      try
+      {
+        func.invoke(pmod);
+      }
+      finally
+      {
+        record(func.getFunctionName(), System.nanoTime() - start);
+      }
+    });
+
+    try
+    {
+      future.get();
+    }
+    catch (InterruptedException e)
+    {
+      LOGGER.error(L.m("Warten auf die Druckfunktion '%1' wurde unterbrochen.",
+        func.getFunctionName()), e);
+      job.cancel();
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e)
+    {
+      LOGGER.error("", e.getCause());
+    }
+  }
+
+  /**
+   * Liefert die für diesen Druckauftrag gesammelten Laufzeiten je Druckfunktion.
+   */
+  public Map<String, StageStatistics> getJobStatistics()
+  {
+    return new TreeMap<>(jobStatistics);
+  }
+
+  /**
+   * Liefert die über alle Druckaufträge aufsummierten Laufzeiten je Druckfunktion.
+   */
+  public static Map<String, StageStatistics> getStageStatistics()
+  {
+    return new TreeMap<>(GLOBAL_STATISTICS);
+  }
+
+  /**
+   * Schreibt die für diesen Druckauftrag gesammelten Laufzeiten in das Log.
+   */
+  public void logJobStatistics()
+  {
+    if (!LOGGER.isDebugEnabled())
+    {
+      return;
+    }
+    for (Map.Entry<String, StageStatistics> e : getJobStatistics().entrySet())
+    {
+      LOGGER.debug("Druckfunktion '{}': {}", e.getKey(), e.getValue());
+    }
+  }
+
+  private void record(String functionName, long nanos)
+  {
+    jobStatistics.computeIfAbsent(functionName, k -> new StageStatistics())
+        .add(nanos);
+    GLOBAL_STATISTICS.computeIfAbsent(functionName, k -> new StageStatistics())
+        .add(nanos);
+  }
+
+  /**
+   * Zähler für die Anzahl der Aufrufe und die Laufzeit einer Stufe der
+   * Aufrufkette. Die Laufzeit einer Stufe enthält auch die Laufzeit aller ihr
+   * nachfolgenden Stufen.
+   */
+  public static class StageStatistics
+  {
+    private final AtomicLong invocations = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void add(long nanos)
+    {
+      invocations.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getInvocations()
+    {
+      return invocations.get();
+    }
+
+    public long getTotalMillis()
+    {
+      return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+    }
+
+    public long getMaxMillis()
+    {
+      return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    @Override
+    public String toString()
+    {
+      long count = getInvocations();
+      long avg = count == 0 ? 0 : getTotalMillis() / count;
+      return "calls=" + count + ", total=" + getTotalMillis() + "ms, avg=" + avg
+        + "ms, max=" + getMaxMillis() + "ms";
+    }
+  }
+
+  /**
+   * Erzeugt benannte Daemon-Threads, damit ein hängender Druckauftrag das Beenden
+   * von LibreOffice nicht verhindert.
+   */
+  private static class PrintFunctionThreadFactory implements ThreadFactory
+  {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r, "WollMux-PrintFunction-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -37,9 +37,14 @@ package de.muenchen.allg.itd51.wollmux.print;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -65,6 +70,7 @@ import com.sun.star.text.XTextCursor;
 import com.sun.star.text.XTextDocument;
 import com.sun.star.text.XTextRange;
 import com.sun.star.text.XTextRangeCompare;
+import com.sun.star.text.XTextTable;
 import com.sun.star.uno.AnyConverter;
 import com.sun.star.uno.UnoRuntime;
 
@@ -73,6 +79,7 @@ import de.muenchen.allg.afid.UnoProps;
 import de.muenchen.allg.itd51.wollmux.HashableComponent;
 import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.Workarounds;
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.core.util.Utils;
 import de.muenchen.allg.ooo.TextDocument;
@@ -80,6 +87,12 @@ import de.muenchen.allg.ooo.TextDocument;
 /**
  * "Druck"funktion, die das zu druckende Dokument an ein Ergebnisdokument anhängt.
  *
+ * Eine Instanz hängt alle Dokumente eines Druckauftrags an dasselbe Ergebnisdokument an. Dabei
+ * wird für alle Dokumente dieselbe temporäre Datei verwendet und es werden nur die jeweils neu
+ * eingefügten Shapes und Textfelder untersucht, so dass der Aufwand je Dokument nicht mit der
+ * Größe des Ergebnisdokuments wächst. Die PageCount-Felder werden erst in {@link #finish()}
+ * ersetzt.
+ *
  * @author Matthias Benkmann (D-III-ITD 5.1)
  */
 public class PrintIntoFile
@@ -93,6 +106,101 @@ public class PrintIntoFile
    */
   private static final String TEMP_DIR_PREFIX = "wollmux-seriendruck-";
 
+  /**
+   * Property des XPrintModels, unter dem die PrintIntoFile-Instanz des Druckauftrags gespeichert
+   * wird.
+   */
+  public static final String PROP_ENGINE = "PrintIntoFile_Engine";
+
+  /**
+   * Die Properties eines Seitenformats, die Kopf- und Fußzeilentexte enthalten.
+   */
+  private static final String[] HEADER_FOOTER_TEXTS = { "HeaderText", "HeaderTextLeft",
+      "HeaderTextFirst", "FooterText", "FooterTextLeft", "FooterTextFirst" };
+
+  /**
+   * Das Ergebnisdokument.
+   */
+  private final XTextDocument outputDoc;
+
+  /**
+   * Das temporäre Verzeichnis und die Datei darin, in der das jeweils anzuhängende Dokument
+   * gespeichert wird. Beide werden beim ersten Anhängen angelegt und in {@link #finish()}
+   * gelöscht.
+   */
+  private File tmpDir;
+
+  private File tmpFile;
+
+  /**
+   * Die Shapes von outputDoc, die bereits verschoben bzw. vor dem ersten Anhängen schon
+   * vorhanden waren.
+   */
+  private final Set<HashableComponent> knownShapes = new HashSet<>();
+
+  /**
+   * Die Anzahl der Shapes von outputDoc nach dem letzten Anhängen.
+   */
+  private int knownShapeCount = 0;
+
+  /**
+   * Die PageCount-Felder, die in {@link #finish()} durch die Seitenanzahl des Dokuments ersetzt
+   * werden, in dem sie enthalten waren.
+   */
+  private final Map<Object, String> pendingPageCounts = new LinkedHashMap<>();
+
+  /**
+   * Erzeugt eine neue Instanz, die Dokumente an outputDoc anhängt.
+   */
+  public PrintIntoFile(XTextDocument outputDoc)
+  {
+    this.outputDoc = outputDoc;
+  }
+
+  /**
+   * Liefert die im Property {@link #PROP_ENGINE} von pmod gespeicherte Instanz für outputDoc.
+   * Gibt es noch keine oder gehört sie zu einem anderen Ergebnisdokument, so wird die alte
+   * abgeschlossen und eine neue erzeugt.
+   */
+  public static PrintIntoFile getInstance(XPrintModel pmod, XTextDocument outputDoc)
+      throws Exception
+  {
+    Object engine = pmod.getProp(PROP_ENGINE, null);
+    if (engine instanceof PrintIntoFile)
+    {
+      PrintIntoFile printIntoFile = (PrintIntoFile) engine;
+      if (UnoRuntime.areSame(printIntoFile.outputDoc, outputDoc))
+      {
+        return printIntoFile;
+      }
+      printIntoFile.finish();
+    }
+    PrintIntoFile printIntoFile = new PrintIntoFile(outputDoc);
+    pmod.setPropertyValue(PROP_ENGINE, printIntoFile);
+    return printIntoFile;
+  }
+
+  /**
+   * Schließt die im Property {@link #PROP_ENGINE} von pmod gespeicherte Instanz ab, falls es
+   * eine gibt. Wird am Ende eines Druckauftrags aufgerufen.
+   */
+  public static void finish(XPrintModel pmod)
+  {
+    Object engine = pmod.getProp(PROP_ENGINE, null);
+    if (engine instanceof PrintIntoFile)
+    {
+      ((PrintIntoFile) engine).finish();
+      try
+      {
+        pmod.setPropertyValue(PROP_ENGINE, null);
+      }
+      catch (Exception x)
+      {
+        LOGGER.error("", x);
+      }
+    }
+  }
+
   /**
    * Hängt den Inhalt von inputDoc an outputDoc an.
    * 
@@ -107,12 +215,23 @@ public class PrintIntoFile
   public static void appendToFile(XTextDocument outputDoc, XTextDocument inputDoc,
       boolean firstAppend)
   {
-    File[] dest = new File[] {
-      null, null }; // dest[0] ist das temp. Verzeichnis, dest[1] die temp. Datei
-    // darin
+    PrintIntoFile printIntoFile = new PrintIntoFile(outputDoc);
+    printIntoFile.append(inputDoc, firstAppend);
+    printIntoFile.finish();
+  }
+
+  /**
+   * Hängt den Inhalt von inputDoc an das Ergebnisdokument an. Die PageCount-Felder von inputDoc
+   * werden erst in {@link #finish()} ersetzt.
+   * 
+   * @param firstAppend
+   *          siehe {@link #appendToFile(XTextDocument, XTextDocument, boolean)}
+   */
+  public void append(XTextDocument inputDoc, boolean firstAppend)
+  {
     try
     {
-      String url = storeInTemporaryFile(inputDoc, dest);
+      String url = storeInTemporaryFile(inputDoc);
 
       String inputDocFirstPageStyleName = "";
       XEnumeration enu =
@@ -129,6 +248,7 @@ public class PrintIntoFile
       }
 
       boolean startsWithSection = startsWithSection(inputDoc);
+      int fieldsToFix = countFieldsToFix(inputDoc);
 
       XText text = outputDoc.getText();
       if (firstAppend)
@@ -193,17 +313,11 @@ public class PrintIntoFile
       --pageNumberOffset; // Die gerade eben angehängte Seite darf nicht mitgezählt
       // werden.
 
-      // String[] frameNames =
-      // UNO.XTextFramesSupplier(outputDoc).getTextFrames().getElementNames();
-      // String[] imageNames =
-      // UNO.XTextGraphicObjectsSupplier(outputDoc).getGraphicObjects().getElementNames();
+      // Alle bis jetzt vorhandenen Shapes gelten als bekannt. Normalerweise sind das
+      // genau die beim letzten Anhängen hinzugekommenen.
       XIndexAccess shapes =
         UNO.XIndexAccess(UNO.XDrawPageSupplier(outputDoc).getDrawPage());
-      Set<HashableComponent> oldShapes =
-        new HashSet<HashableComponent>(shapes.getCount());
-      int shapeCount = shapes.getCount();
-      for (int i = 0; i < shapeCount; ++i)
-        oldShapes.add(new HashableComponent(shapes.getByIndex(i)));
+      newShapes(shapes);
 
       Set<String> oldSections = new HashSet<String>();
       if (startsWithSection)
@@ -229,6 +343,8 @@ public class PrintIntoFile
       dumpOids(outputDoc);
 
       cursor.collapseToStart();
+      XTextCursor inserted = text.createTextCursorByRange(cursor.getStart());
+      inserted.gotoEnd(true);
 
       // Workaround für
       // http://www.openoffice.org/issues/show_bug.cgi?id=73229
@@ -243,46 +359,62 @@ public class PrintIntoFile
       XNameAccess inputDocPageStyles =
         UNO.XNameAccess(UNO.XStyleFamiliesSupplier(inputDoc).getStyleFamilies().getByName(
           "PageStyles"));
-      renamePageStyles(paraCursor, outputDoc, inputDocPageStyles);
+      Collection<String> newPageStyles =
+        renamePageStyles(paraCursor, outputDoc, inputDocPageStyles);
 
+      List<Object> newShapes = newShapes(shapes);
       if (!firstAppend)
       {
-        // fixPageAnchoredObjects(UNO.XTextFramesSupplier(outputDoc).getTextFrames(),
-        // frameNames, pageNumberOffset);
-        // fixPageAnchoredObjects(UNO.XTextGraphicObjectsSupplier(outputDoc).getGraphicObjects(),
-        // imageNames, pageNumberOffset);
-        fixPageAnchoredObjects(shapes, oldShapes, pageNumberOffset);
+        fixPageAnchoredObjects(newShapes, pageNumberOffset);
       }
 
-      int pageCount =
-        ((Number) UNO.getProperty(outputDoc.getCurrentController(), "PageCount")).intValue();
-      pageCount -= pageNumberOffset;
-      fixPageCountFields(UNO.XTextFieldsSupplier(outputDoc).getTextFields(),
-        pageCount);
-      fixInputUserFields(UNO.XTextFieldsSupplier(outputDoc).getTextFields());
-
-      oldShapes = null;
-      System.gc();
+      if (fieldsToFix > 0)
+      {
+        int pageCount =
+          ((Number) UNO.getProperty(outputDoc.getCurrentController(), "PageCount")).intValue();
+        pageCount -= pageNumberOffset;
+        fixNewFields(collectNewFields(inserted, newShapes, newPageStyles), pageCount);
+      }
     }
     catch (Exception x)
     {
       LOGGER.error("", x);
     }
-    finally
+  }
+
+  /**
+   * Ersetzt die gesammelten PageCount-Felder durch die Seitenanzahl ihres Dokuments und löscht
+   * die temporäre Datei. Danach kann die Instanz weiterverwendet werden.
+   */
+  public void finish()
+  {
+    for (Map.Entry<Object, String> entry : pendingPageCounts.entrySet())
     {
       try
       {
-        dest[1].delete();
+        replaceByString(entry.getKey(), entry.getValue());
       }
       catch (Exception x)
-      {}
-      try
       {
-        dest[0].delete();
+        LOGGER.error("", x);
       }
-      catch (Exception x)
-      {}
     }
+    pendingPageCounts.clear();
+
+    try
+    {
+      if (tmpFile != null) tmpFile.delete();
+    }
+    catch (Exception x)
+    {}
+    try
+    {
+      if (tmpDir != null) tmpDir.delete();
+    }
+    catch (Exception x)
+    {}
+    tmpFile = null;
+    tmpDir = null;
   }
 
   /**
@@ -359,10 +491,11 @@ public class PrintIntoFile
    *          das Dokument in dem der Cursor wandert
    * @param oldPageStyles
    *          die PageStyles Familie des alten Dokuments
+   * @return die Namen der neu angelegten Seitenformate
    * @author Matthias Benkmann (D-III-ITD 5.1)
    */
-  private static void renamePageStyles(XParagraphCursor cursor, XTextDocument doc,
-      XNameAccess oldPageStyles)
+  private static Collection<String> renamePageStyles(XParagraphCursor cursor,
+      XTextDocument doc, XNameAccess oldPageStyles)
   {
     XNameAccess newPageStyles;
     try
@@ -374,7 +507,7 @@ public class PrintIntoFile
     catch (Exception x)
     {
       LOGGER.error("", x);
-      return;
+      return Collections.emptyList();
     }
     Map<String, String> mapOldPageStyleName2NewPageStyleName =
       new HashMap<String, String>();
@@ -410,6 +543,7 @@ public class PrintIntoFile
         break;
       }
     }
+    return mapOldPageStyleName2NewPageStyleName.values();
   }
 
   /**
@@ -443,43 +577,33 @@ public class PrintIntoFile
   }
 
   /**
-   * Ersetzt alle TextFields des Typs PageCount in textFields durch den Wert
-   * pageCount.
-   *
-   * @author Matthias Benkmann (D-III-ITD 5.1)
-   * @throws WrappedTargetException
-   * @throws NoSuchElementException
-   *           sollte nie geworfen werden
+   * Liefert die Anzahl der Textfelder von doc, die beim Anhängen ersetzt werden
+   * müssen (siehe {@link #isPageCountField(Object)} und
+   * {@link #isInputUserField(Object)}).
    */
-  private static void fixPageCountFields(XEnumerationAccess textFields, int pageCount)
+  private static int countFieldsToFix(XTextDocument doc)
       throws NoSuchElementException, WrappedTargetException
   {
-    String pc = "" + pageCount;
-    XEnumeration enu = textFields.createEnumeration();
+    int count = 0;
+    XEnumeration enu =
+      UNO.XTextFieldsSupplier(doc).getTextFields().createEnumeration();
     while (enu.hasMoreElements())
     {
       Object textfield = enu.nextElement();
-      // Der eigentlich redundante Test auf das Property NumberingType ist eine
-      // Optimierung, da supportsService sehr langsam ist.
-      if (Utils.getProperty(textfield, "NumberingType") != null
-        && UNO.supportsService(textfield, "com.sun.star.text.textfield.PageCount"))
-      {
-        XTextRange range = UNO.XTextContent(textfield).getAnchor();
-        XTextCursor cursor =
-          range.getText().createTextCursorByRange(range.getStart());
-        cursor.setString(pc);
-        TextDocument.copyDirectValueCharAttributes(UNO.XPropertyState(range),
-          UNO.XPropertySet(cursor));
-        range.setString("");
-      }
+      if (isPageCountField(textfield) || isInputUserField(textfield)) ++count;
     }
+    return count;
   }
 
   /**
-   * Ersetzt alle vom WollMux-Seriendruck verwendeten Textfelder vom Typ
-   * c,s,s,t,textfield,InputUser durch ihren Stringwert. Diese Ersetzung ist
-   * notwendig, da InputUser-Felder als Spezialfelder (z.B. Wenn...Dann...Sonst...)
-   * verwendet werden und sie dokumentglobal nur den selben Wert haben können.
+   * Untersucht die beim letzten Anhängen hinzugekommenen Textfelder fields.
+   * Felder des Typs PageCount werden vorgemerkt und in {@link #finish()} durch den
+   * Wert pageCount ersetzt. Die vom WollMux-Seriendruck verwendeten Textfelder vom
+   * Typ c,s,s,t,textfield,InputUser werden sofort durch ihren Stringwert ersetzt.
+   * Diese Ersetzung ist notwendig, da InputUser-Felder als Spezialfelder (z.B.
+   * Wenn...Dann...Sonst...) verwendet werden und sie dokumentglobal nur den selben
+   * Wert haben können. Das nächste angehängte Dokument würde ihren Wert also
+   * verändern.
    * 
    * Felder vom Typ c.s.s.t.textfield.User verwenden ebenfalls einen dokumentglobalen
    * Textfieldmaster, müssen aber nicht durch die textuelle Repräsentation ersetzt
@@ -492,33 +616,19 @@ public class PrintIntoFile
    * Der Fix wurde in der Vergangenheit auf alle Textfelder des Dokuments angewandt,
    * womit aber PageNumber-Felder in Kopf- und Fußzeilen unbrauchbar wurden. Daher
    * gibt es jetzt nur noch eine "Whitelist" von Feldern, die ersetzt werden.
-   * 
+   *
    * @author Matthias Benkmann (D-III-ITD D.10), Christoph Lutz (D-III-ITD D.10)
-   * @throws WrappedTargetException
-   * @throws NoSuchElementException
    */
-  private static void fixInputUserFields(XEnumerationAccess textFields)
-      throws NoSuchElementException, WrappedTargetException
+  private void fixNewFields(List<Object> fields, int pageCount)
   {
-    XEnumeration enu = textFields.createEnumeration();
-    while (enu.hasMoreElements())
+    String pc = "" + pageCount;
+    for (Object textfield : fields)
     {
-      Object textfield = enu.nextElement();
-
-      // Der eigentlich Test, ob der Inhalt des Content-Properties mit "WM(FUNCTION"
-      // beginnt ist eine Optimierung, da in der Regel nur die betroffenen
-      // InputUser-Textfelder mit diesem Text anfangen und supportsService sehr
-      // langsam ist.
-      String content = null;
-      try
+      if (isPageCountField(textfield))
       {
-        content = AnyConverter
-            .toString(Utils.getProperty(textfield, "Content"));
+        pendingPageCounts.put(textfield, pc);
       }
-      catch (IllegalArgumentException e)
-      {}
-      if (content != null && content.startsWith("WM(FUNCTION")
-        && UNO.supportsService(textfield, "com.sun.star.text.TextField.InputUser"))
+      else if (isInputUserField(textfield))
       {
         XTextRange range = UNO.XTextContent(textfield).getAnchor();
         XTextCursor cursor =
@@ -532,52 +642,221 @@ public class PrintIntoFile
   }
 
   /**
-   * Addiert auf die AnchorPageNo Property aller Objekte aus objects, die nicht (als
-   * HashableComponent) in old enthalten sind den Wert pageNumberOffset.
+   * Liefert die Textfelder des gerade angehängten Inhalts: die Felder im Bereich inserted
+   * (einschließlich Tabellen), in den neuen Textrahmen newShapes und in den Kopf- und Fußzeilen
+   * der neuen Seitenformate newPageStyles. So muss nicht bei jedem Anhängen die stetig wachsende
+   * Feldliste des ganzen Ergebnisdokuments durchlaufen werden.
+   */
+  private List<Object> collectNewFields(XTextRange inserted, List<Object> newShapes,
+      Collection<String> newPageStyles) throws NoSuchElementException, WrappedTargetException
+  {
+    Set<HashableComponent> seen = new HashSet<>();
+    List<Object> fields = new ArrayList<>();
+    collectFields(UNO.XEnumerationAccess(inserted), seen, fields);
+
+    for (Object shape : newShapes)
+    {
+      collectFields(UNO.XEnumerationAccess(UnoRuntime.queryInterface(XText.class, shape)),
+          seen, fields);
+    }
+
+    XNameAccess pageStyles =
+      UNO.XNameAccess(UNO.XStyleFamiliesSupplier(outputDoc).getStyleFamilies().getByName(
+        "PageStyles"));
+    for (String name : newPageStyles)
+    {
+      Object style = pageStyles.getByName(name);
+      for (String prop : HEADER_FOOTER_TEXTS)
+      {
+        collectFields(UNO.XEnumerationAccess(Utils.getProperty(style, prop)), seen, fields);
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Fügt die Textfelder aus den Absätzen und Tabellen von paragraphs, die noch nicht in seen
+   * sind, zu fields hinzu. paragraphs darf null sein.
+   */
+  private static void collectFields(XEnumerationAccess paragraphs,
+      Set<HashableComponent> seen, List<Object> fields)
+      throws NoSuchElementException, WrappedTargetException
+  {
+    if (paragraphs == null) return;
+    XEnumeration paraEnu = paragraphs.createEnumeration();
+    while (paraEnu.hasMoreElements())
+    {
+      Object element = paraEnu.nextElement();
+      XTextTable table = UNO.XTextTable(element);
+      if (table != null)
+      {
+        for (String cellName : table.getCellNames())
+        {
+          collectFields(UNO.XEnumerationAccess(table.getCellByName(cellName)), seen, fields);
+        }
+        continue;
+      }
+
+      XEnumerationAccess portions = UNO.XEnumerationAccess(element);
+      if (portions == null) continue;
+      XEnumeration portionEnu = portions.createEnumeration();
+      while (portionEnu.hasMoreElements())
+      {
+        Object portion = portionEnu.nextElement();
+        if ("TextField".equals(Utils.getProperty(portion, "TextPortionType")))
+        {
+          Object textfield = Utils.getProperty(portion, "TextField");
+          if (textfield != null && seen.add(new HashableComponent(textfield)))
+          {
+            fields.add(textfield);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Liefert true, wenn textfield ein Feld des Typs PageCount ist.
+   */
+  private static boolean isPageCountField(Object textfield)
+  {
+    // Der eigentlich redundante Test auf das Property NumberingType ist eine
+    // Optimierung, da supportsService sehr langsam ist.
+    return Utils.getProperty(textfield, "NumberingType") != null
+      && UNO.supportsService(textfield, "com.sun.star.text.textfield.PageCount");
+  }
+
+  /**
+   * Liefert true, wenn textfield ein vom WollMux-Seriendruck verwendetes Feld vom
+   * Typ c,s,s,t,textfield,InputUser ist.
+   */
+  private static boolean isInputUserField(Object textfield)
+  {
+    // Der eigentlich Test, ob der Inhalt des Content-Properties mit "WM(FUNCTION"
+    // beginnt ist eine Optimierung, da in der Regel nur die betroffenen
+    // InputUser-Textfelder mit diesem Text anfangen und supportsService sehr
+    // langsam ist.
+    String content = null;
+    try
+    {
+      content = AnyConverter
+          .toString(Utils.getProperty(textfield, "Content"));
+    }
+    catch (IllegalArgumentException e)
+    {}
+    return content != null && content.startsWith("WM(FUNCTION")
+      && UNO.supportsService(textfield, "com.sun.star.text.TextField.InputUser");
+  }
+
+  /**
+   * Ersetzt textfield durch den String value mit den selben direkten
+   * Zeichenattributen.
+   *
+   * @author Matthias Benkmann (D-III-ITD 5.1)
+   */
+  private static void replaceByString(Object textfield, String value)
+  {
+    XTextRange range = UNO.XTextContent(textfield).getAnchor();
+    XTextCursor cursor =
+      range.getText().createTextCursorByRange(range.getStart());
+    cursor.setString(value);
+    TextDocument.copyDirectValueCharAttributes(UNO.XPropertyState(range),
+      UNO.XPropertySet(cursor));
+    range.setString("");
+  }
+
+  /**
+   * Liefert die Shapes aus shapes, die seit dem letzten Aufruf hinzugekommen sind,
+   * und merkt sie sich als bekannt. Neue Shapes werden von OOo hinten angehängt, daher
+   * werden zunächst nur die Shapes ab dem Index {@link #knownShapeCount} untersucht.
+   * Nur wenn darunter ein bekanntes ist, werden alle Shapes untersucht.
+   */
+  private List<Object> newShapes(XIndexAccess shapes)
+  {
+    List<Object> result = new ArrayList<>();
+    List<HashableComponent> keys = new ArrayList<>();
+    int count = shapes.getCount();
+    boolean appended = count >= knownShapeCount;
+    try
+    {
+      for (int i = knownShapeCount; appended && i < count; ++i)
+      {
+        Object ob = shapes.getByIndex(i);
+        HashableComponent key = new HashableComponent(ob);
+        if (knownShapes.contains(key))
+        {
+          appended = false;
+        }
+        else
+        {
+          result.add(ob);
+          keys.add(key);
+        }
+      }
+
+      if (!appended)
+      {
+        LOGGER.trace("Reihenfolge der Shapes hat sich geändert, untersuche alle Shapes");
+        result.clear();
+        keys.clear();
+        for (int i = 0; i < count; ++i)
+        {
+          Object ob = shapes.getByIndex(i);
+          HashableComponent key = new HashableComponent(ob);
+          if (!knownShapes.contains(key))
+          {
+            result.add(ob);
+            keys.add(key);
+          }
+        }
+      }
+    }
+    catch (Exception x)
+    {
+      LOGGER.error("", x);
+    }
+    knownShapes.addAll(keys);
+    knownShapeCount = count;
+    return result;
+  }
+
+  /**
+   * Addiert auf die AnchorPageNo Property aller Objekte aus objects den Wert
+   * pageNumberOffset.
    * 
    * @author Matthias Benkmann (D-III-ITD 5.1) TESTED
    */
-  private static void fixPageAnchoredObjects(XIndexAccess objects,
-      Set<HashableComponent> old, int pageNumberOffset)
+  private static void fixPageAnchoredObjects(List<Object> objects,
+      int pageNumberOffset)
   {
-    int count = objects.getCount();
-    for (int i = 0; i < count; ++i)
+    for (Object ob : objects)
     {
       try
       {
-        Object ob = objects.getByIndex(i);
         XNamed named = UNO.XNamed(ob);
         String name = "<Unknown>";
         if (named != null) name = named.getName();
-        if (!old.contains(new HashableComponent(ob)))
+        if (TextContentAnchorType.AT_PAGE.equals(UNO.getProperty(ob, "AnchorType")))
         {
-          if (TextContentAnchorType.AT_PAGE.equals(UNO.getProperty(ob, "AnchorType")))
-          {
-            int oldPageNo =
-              ((Number) UNO.getProperty(ob, "AnchorPageNo")).intValue();
-            int newPageNo = oldPageNo + pageNumberOffset;
-            LOGGER.trace(L.m("Verschiebe \"%1\" von Seite %2 nach Seite %3", name,
-              oldPageNo, newPageNo));
-            Object afterMovePageNo =
-              UNO.setProperty(ob, "AnchorPageNo", Short.valueOf((short) newPageNo));
-            if (null == afterMovePageNo
-              || ((Number) afterMovePageNo).intValue() != newPageNo)
-            {
-              LOGGER.error(L.m(
-                "Kann AnchorPageNo von Objekt #\"%1\" nicht auf %2 setzen", i,
-                newPageNo));
-            }
-          }
-          else
+          int oldPageNo =
+            ((Number) UNO.getProperty(ob, "AnchorPageNo")).intValue();
+          int newPageNo = oldPageNo + pageNumberOffset;
+          LOGGER.trace(L.m("Verschiebe \"%1\" von Seite %2 nach Seite %3", name,
+            oldPageNo, newPageNo));
+          Object afterMovePageNo =
+            UNO.setProperty(ob, "AnchorPageNo", Short.valueOf((short) newPageNo));
+          if (null == afterMovePageNo
+            || ((Number) afterMovePageNo).intValue() != newPageNo)
           {
-            LOGGER.trace(L.m(
-              "Verschiebe \"%1\" NICHT, weil zwar neu dazugekommen, aber nicht an der Seite verankert",
-              name));
+            LOGGER.error(L.m(
+              "Kann AnchorPageNo von Objekt \"%1\" nicht auf %2 setzen", name,
+              newPageNo));
           }
         }
         else
         {
-          LOGGER.trace(L.m("Verschiebe \"%1\" NICHT, weil nicht neu dazugekommen",
+          LOGGER.trace(L.m(
+            "Verschiebe \"%1\" NICHT, weil zwar neu dazugekommen, aber nicht an der Seite verankert",
             name));
         }
       }
@@ -589,15 +868,12 @@ public class PrintIntoFile
   }
 
   /**
-   * Speichert inputDoc in einer temporären Datei und liefert eine UNO-taugliche URL
-   * zu dieser Datei zurück.
+   * Speichert inputDoc in der temporären Datei {@link #tmpFile} und liefert eine
+   * UNO-taugliche URL zu dieser Datei zurück. Beim ersten Aufruf werden das temporäre
+   * Verzeichnis und die Datei festgelegt, danach wird die Datei überschrieben.
    * 
    * @param inputDoc
    *          das zu speichernde Dokument
-   * @param dest
-   *          Muss ein 2-elementiges Array sein. dest[0] wird auf ein neu angelegtes
-   *          temporäres Verzeichnis gesetzt, temp[1] auf die Datei darin, in der das
-   *          Dok. gespeichert wurde.
    * @throws IOException
    *           falls was schief geht.
    * @throws MalformedURLException
@@ -606,42 +882,44 @@ public class PrintIntoFile
    *           falls was schief geht.
    * @author Matthias Benkmann (D-III-ITD 5.1) TESTED
    */
-  private static String storeInTemporaryFile(XTextDocument inputDoc, File[] dest)
+  private String storeInTemporaryFile(XTextDocument inputDoc)
       throws IOException, MalformedURLException, com.sun.star.io.IOException
   {
-    /**
-     * Zuerst inputDoc in eine temporäre Datei schreiben
-     */
-    File tmpDir = new File(System.getProperty("java.io.tmpdir"));
-    if (!tmpDir.isDirectory() && !tmpDir.canWrite())
+    if (tmpFile == null)
     {
-      throw new IOException(
-        L.m(
-          "Temporäres Verzeichnis\n\"%1\"\nexistiert nicht oder kann nicht beschrieben werden!",
-          tmpDir.getPath()));
-    }
+      File tmp = new File(System.getProperty("java.io.tmpdir"));
+      if (!tmp.isDirectory() && !tmp.canWrite())
+      {
+        throw new IOException(
+          L.m(
+            "Temporäres Verzeichnis\n\"%1\"\nexistiert nicht oder kann nicht beschrieben werden!",
+            tmp.getPath()));
+      }
 
-    for (int i = 0; i < 1000; ++i)
-    {
-      dest[0] = new File(tmpDir, TEMP_DIR_PREFIX + i);
-      if (dest[0].mkdir())
-        break;
-      else
-        dest[0] = null;
-    }
+      for (int i = 0; i < 1000; ++i)
+      {
+        File dir = new File(tmp, TEMP_DIR_PREFIX + i);
+        if (dir.mkdir())
+        {
+          tmpDir = dir;
+          break;
+        }
+      }
 
-    if (dest[0] == null)
-    {
-      throw new IOException(
-        L.m("Konnte kein temporäres Verzeichnis für die temporären Seriendruckdaten anlegen!"));
+      if (tmpDir == null)
+      {
+        throw new IOException(
+          L.m("Konnte kein temporäres Verzeichnis für die temporären Seriendruckdaten anlegen!"));
+      }
+
+      tmpFile = new File(tmpDir, "serienbrief.odt");
     }
 
-    dest[1] = new File(dest[0], "serienbrief.odt");
     String url =
-      UNO.getParsedUNOUrl(dest[1].toURI().toURL().toExternalForm()).Complete;
+      UNO.getParsedUNOUrl(tmpFile.toURI().toURL().toExternalForm()).Complete;
 
     UnoProps arguments = new UnoProps();
-    arguments.setPropertyValue("Overwrite", Boolean.FALSE);
+    arguments.setPropertyValue("Overwrite", Boolean.TRUE);
     // FilterName setzen auskommentiert, damit OOo automatisch den besten Filter
     // wählt
     arguments.setPropertyValue("FilterName", "writer8"); // found in
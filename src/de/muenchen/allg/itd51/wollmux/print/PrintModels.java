@@ -185,13 +185,14 @@ public class PrintModels
    * Eine einzelne Druckfunktion wird immer mit einem zugehörigen SlavePrintModel
    * ausgeführt, das seine Position in der Aufrufkette des MasterPrintModles kennt
    * und die Weiterleitung an die nächste Druckfunktion der Aufrufkette erledigt. Da
-   * die einzelnen Druckfunktionen in eigenen Threads laufen, muss an einer zentralen
-   * Stelle sicher gestellt sein, dass die zu erledigenden Aktionen mit dem
-   * WollMuxEventHandler-Thread synchronisiert werden. Dies geschieht in dieser
-   * Klasse, die über einen lock-wait-callback-Mechanismus die Synchronisierung
-   * garantiert. Vor dem Einstellen des Action-Ereignisses in den WollMuxEventHandler
-   * wird dabei ein lock gesetzt. Nach dem Einstellen des Ereignisses wird so lange
-   * gewartet, bis der WollMuxEventHandler die übergebene Callback-Methode aufruft.
+   * die einzelnen Druckfunktionen auf Worker-Threads des PrintFunctionExecutors
+   * laufen, muss an einer zentralen Stelle sicher gestellt sein, dass die zu
+   * erledigenden Aktionen mit dem WollMuxEventHandler-Thread synchronisiert
+   * werden. Dies geschieht in dieser Klasse, die über einen
+   * lock-wait-callback-Mechanismus die Synchronisierung garantiert. Vor dem
+   * Einstellen des Action-Ereignisses in den WollMuxEventHandler wird dabei ein
+   * lock gesetzt. Nach dem Einstellen des Ereignisses wird so lange gewartet, bis
+   * der WollMuxEventHandler die übergebene Callback-Methode aufruft.
    * 
    * @author christoph.lutz
    */
@@ -253,6 +254,12 @@ public class PrintModels
 
     private TextDocumentController documentController;
 
+    /**
+     * Führt die Druckfunktionen der Aufrufkette dieses Druckauftrags aus und sammelt
+     * deren Laufzeiten.
+     */
+    private final PrintFunctionExecutor executor;
+
     /**
      * Erzeugt ein neues MasterPrintModel-Objekt für das Dokument model, das einen
      * Druckvorgang repräsentiert, der mit einer leeren Aufrufkette (Liste von
@@ -268,6 +275,7 @@ public class PrintModels
       this.documentController = documentController;
       this.props = new HashMap<String, Object>();
       this.functions = new TreeSet<PrintFunction>();
+      this.executor = new PrintFunctionExecutor(this);
     }
 
     /**
@@ -390,14 +398,14 @@ public class PrintModels
       if (f != null)
       {
         XPrintModel pmod = new SlavePrintModel(this, 0);
-        Thread t = f.invoke(pmod);
         try
         {
-          t.join();
+          executor.execute(f, pmod);
+          executor.logJobStatistics();
         }
-        catch (InterruptedException e)
+        finally
         {
-          LOGGER.error("", e);
+          PrintIntoFile.finish(this);
         }
       }
       else
@@ -1084,15 +1092,7 @@ public class PrintModels
       if (f != null)
       {
         XPrintModel pmod = new SlavePrintModel(master, idx + 1);
-        Thread t = f.invoke(pmod);
-        try
-        {
-          t.join();
-        }
-        catch (InterruptedException e)
-        {
-          LOGGER.error("", e);
-        }
+        master.executor.execute(f, pmod);
         master.setPrintProgressMaxValue(pmod, (short) 0);
       }
       else
@@ -0,0 +1,169 @@
+package de.muenchen.allg.itd51.wollmux.sidebar;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.sidebar.controls.UIControl;
+import de.muenchen.allg.itd51.wollmux.sidebar.controls.UIFactory;
+import de.muenchen.allg.itd51.wollmux.sidebar.controls.UIMenuItem;
+
+/**
+ * Suchindex über die Labels der Buttons im Abschnitt Menues für das Suchfeld der Sidebar.
+ *
+ * Die Labels werden normalisiert (Kleinschreibung, Umlaute und ß als ae, oe, ue und ss,
+ * Akzente entfernt) und in Wörter zerlegt. Indiziert werden alle Endungen dieser Wörter, so dass
+ * ein Suchwort wie bisher an beliebiger Stelle eines Wortes vorkommen darf und trotzdem über
+ * eine Präfixsuche im sortierten Index gefunden wird. Ein Eintrag passt, wenn er alle Suchwörter
+ * enthält. Einträge vom TYPE "menu" werden wie bei der bisherigen Suche nicht aufgenommen, da sie
+ * nur ein Untermenü öffnen und keine eigene ACTION ausführen.
+ *
+ * Die {@link UIMenuItem}s werden beim Aufbau einmal erzeugt und für alle Suchen
+ * wiederverwendet. Der Index ist nach dem Aufbau nicht mehr veränderbar und wird über
+ * {@link SidebarMenuModel#getSearchIndex()} von allen Sidebars gemeinsam benutzt.
+ */
+class MenuSearchIndex
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(MenuSearchIndex.class);
+
+  /**
+   * Die Einträge sortiert nach Label.
+   */
+  private final List<UIMenuItem> items;
+
+  /**
+   * Wortendung → Nummern der Einträge, die ein Wort mit dieser Endung enthalten.
+   */
+  private final TreeMap<String, BitSet> suffixes = new TreeMap<>();
+
+  /**
+   * Erzeugt den Index für die Buttons aus menues (Abschnitt Menues der wollmux.conf).
+   */
+  MenuSearchIndex(ConfigThingy menues)
+  {
+    UIFactory uiFactory = new UIFactory();
+    List<UIMenuItem> list = new ArrayList<>();
+    for (ConfigThingy l : menues.queryAll("LABEL", 4, true))
+    {
+      if (!l.getString("TYPE", "").equals("button") || l.query("ACTION").count() == 0
+          || l.getString("LABEL", "").isEmpty())
+      {
+        continue;
+      }
+      try
+      {
+        UIControl<?> item = uiFactory.createUIMenuElement(null, l, "");
+        if (item instanceof UIMenuItem)
+        {
+          list.add((UIMenuItem) item);
+        }
+      } catch (Exception e)
+      {
+        LOGGER.error("", e);
+      }
+    }
+    list.sort((item1, item2) -> item1.getLabel().compareTo(item2.getLabel()));
+    items = Collections.unmodifiableList(list);
+
+    for (int i = 0; i < items.size(); i++)
+    {
+      for (String word : tokenize(items.get(i).getLabel()))
+      {
+        for (int k = 0; k < word.length(); k++)
+        {
+          suffixes.computeIfAbsent(word.substring(k), s -> new BitSet()).set(i);
+        }
+      }
+    }
+    LOGGER.debug("Suchindex mit {} Einträgen und {} Wortendungen erzeugt", items.size(),
+        suffixes.size());
+  }
+
+  /**
+   * Liefert alle Einträge, deren Label alle Wörter aus text enthält, sortiert nach Label. Ist
+   * text leer, wird eine leere Liste geliefert.
+   */
+  public List<UIMenuItem> search(String text)
+  {
+    Set<String> words = tokenize(text);
+    if (words.isEmpty())
+    {
+      return Collections.emptyList();
+    }
+
+    BitSet result = null;
+    for (String word : words)
+    {
+      BitSet matches = new BitSet();
+      for (BitSet entries : prefixMap(word).values())
+      {
+        matches.or(entries);
+      }
+      if (result == null)
+      {
+        result = matches;
+      } else
+      {
+        result.and(matches);
+      }
+      if (result.isEmpty())
+      {
+        return Collections.emptyList();
+      }
+    }
+
+    List<UIMenuItem> found = new ArrayList<>(result.cardinality());
+    for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1))
+    {
+      found.add(items.get(i));
+    }
+    return found;
+  }
+
+  /**
+   * Liefert alle Wortendungen im Index, die mit prefix beginnen.
+   */
+  private Map<String, BitSet> prefixMap(String prefix)
+  {
+    return suffixes.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+  }
+
+  /**
+   * Zerlegt text in normalisierte Wörter.
+   */
+  static Set<String> tokenize(String text)
+  {
+    Set<String> words = new HashSet<>();
+    for (String word : normalize(text).split("[^\\p{L}\\p{N}]+"))
+    {
+      if (!word.isEmpty())
+      {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Wandelt text in Kleinbuchstaben um, ersetzt Umlaute und ß und entfernt Akzente.
+   */
+  static String normalize(String text)
+  {
+    String s = text.toLowerCase()
+        .replace("ä", "ae")
+        .replace("ö", "oe")
+        .replace("ü", "ue")
+        .replace("ß", "ss");
+    return Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+  }
+}
@@ -491,6 +491,7 @@ public class SeriendruckSidebarContent extends ComponentBase implements XToolPan
     if (!mailMerge.getDs().hasDatasource())
       return;
 
+    mailMerge.getDs().refresh();
     MailMergeController c = new MailMergeController(textDocumentController, mailMerge.getDs());
     MailmergeWizardController mwController = new MailmergeWizardController(c,
         textDocumentController.getModel().doc);
@@ -0,0 +1,282 @@
+package de.muenchen.allg.itd51.wollmux.sidebar;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
+import de.muenchen.allg.itd51.wollmux.core.dialog.UIElementContext;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.allg.itd51.wollmux.dialog.InfoDialog;
+import de.muenchen.allg.itd51.wollmux.sidebar.controls.UIControl;
+import de.muenchen.allg.itd51.wollmux.sidebar.controls.UIFactory;
+import de.muenchen.allg.itd51.wollmux.sidebar.controls.UIMenu;
+import de.muenchen.allg.itd51.wollmux.sidebar.controls.UIMenuItem;
+
+/**
+ * Das aus Menueleiste und Menues übersetzte Vorlagenmenü der WollMux-Sidebar.
+ *
+ * Das Modell wird einmal je Konfigurationsstand erzeugt und von allen Sidebars gemeinsam
+ * benutzt. Es ist nach der Erzeugung nicht mehr veränderbar; die enthaltenen {@link UIMenu}s und
+ * {@link UIMenuItem}s haben keinen Zustand, der von einer einzelnen Sidebar abhängt. Die Sidebars
+ * erzeugen daraus nur die Baumknoten, die tatsächlich aufgeklappt werden.
+ *
+ * Der Konfigurationsstand besteht aus der wollmux.conf (siehe
+ * {@link WollMuxFiles#getWollmuxConf()}) und Änderungszeit und Größe der
+ * {@link WollMuxSidebarContent#WOLLMUXBAR_CONF}. Ändert sich einer davon, wird das Modell beim
+ * nächsten {@link #getInstance()} neu erzeugt.
+ */
+class SidebarMenuModel
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(SidebarMenuModel.class);
+
+  private static SidebarMenuModel instance;
+
+  private final ConfigThingy wollmuxConf;
+
+  private final long wollmuxbarModified;
+
+  private final long wollmuxbarLength;
+
+  /**
+   * Die aktiven CONF_IDs.
+   */
+  private final Set<String> confIds;
+
+  /**
+   * Die Elemente der Menueleiste in der Reihenfolge der Konfiguration.
+   */
+  private final List<UIControl<?>> topLevel;
+
+  /**
+   * Die Einträge der Menüs aus dem Abschnitt Menues, je Menü in der Reihenfolge der
+   * Konfiguration.
+   */
+  private final Map<String, List<UIControl<?>>> children;
+
+  private MenuSearchIndex searchIndex;
+
+  private SidebarMenuModel(ConfigThingy wollmuxConf, File wollmuxbarConfFile)
+  {
+    this.wollmuxConf = wollmuxConf;
+    this.wollmuxbarModified = wollmuxbarConfFile.lastModified();
+    this.wollmuxbarLength = wollmuxbarConfFile.length();
+
+    boolean allowUserConfig = true;
+    try
+    {
+      allowUserConfig = wollmuxConf.query(WollMuxSidebarContent.ALLOW_USER_CONFIG, 1)
+          .getLastChild().toString().equalsIgnoreCase("true");
+    } catch (NodeNotFoundException e)
+    {
+      // Default
+    }
+
+    this.confIds = Collections.unmodifiableSet(
+        readWollMuxBarConf(allowUserConfig, wollmuxConf, wollmuxbarConfFile));
+
+    List<UIControl<?>> menubarControls = new ArrayList<>();
+    Map<String, List<UIControl<?>>> menuControls = new LinkedHashMap<>();
+
+    ConfigThingy menubar = wollmuxConf.query("Menueleiste");
+    ConfigThingy menuConf = wollmuxConf.query("Menues");
+    if (menubar.count() > 0)
+    {
+      UIFactory uiFactory = new UIFactory();
+      try
+      {
+        uiFactory.addElementCreateListener(menubarControls::add);
+        uiFactory.createUIElements(new UIElementContext(), null, menubar.getLastChild(), false,
+            confIds);
+
+        uiFactory = new UIFactory();
+        uiFactory.addElementCreateListener(element -> {
+          String parent = null;
+          if (element instanceof UIMenuItem)
+          {
+            parent = ((UIMenuItem) element).getParent();
+          } else if (element instanceof UIMenu)
+          {
+            parent = ((UIMenu) element).getParent();
+          }
+          if (parent != null)
+          {
+            menuControls.computeIfAbsent(parent, k -> new ArrayList<>()).add(element);
+          }
+        });
+        for (ConfigThingy menuDef : menuConf.getLastChild())
+        {
+          uiFactory.createUIElements(new UIElementContext(), menuDef, menuDef.getLastChild(),
+              true, confIds);
+        }
+      } catch (NodeNotFoundException e)
+      {
+        LOGGER.error("", e);
+      }
+    }
+
+    for (Map.Entry<String, List<UIControl<?>>> entry : menuControls.entrySet())
+    {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+    this.topLevel = Collections.unmodifiableList(menubarControls);
+    this.children = Collections.unmodifiableMap(menuControls);
+    LOGGER.debug("Sidebar-Menü mit {} Menüs erzeugt", children.size());
+  }
+
+  /**
+   * Liefert das Modell für den aktuellen Konfigurationsstand. Hat sich dieser seit dem letzten
+   * Aufruf geändert, wird das Modell neu erzeugt.
+   */
+  public static synchronized SidebarMenuModel getInstance()
+  {
+    ConfigThingy conf = WollMuxFiles.getWollmuxConf();
+    File wollmuxbarConfFile =
+        new File(WollMuxFiles.getWollMuxDir(), WollMuxSidebarContent.WOLLMUXBAR_CONF);
+    if (instance == null || instance.wollmuxConf != conf
+        || instance.wollmuxbarModified != wollmuxbarConfFile.lastModified()
+        || instance.wollmuxbarLength != wollmuxbarConfFile.length())
+    {
+      instance = new SidebarMenuModel(conf, wollmuxbarConfFile);
+    }
+    return instance;
+  }
+
+  /**
+   * Liefert die aktiven CONF_IDs.
+   */
+  public Set<String> getConfIds()
+  {
+    return confIds;
+  }
+
+  /**
+   * Liefert die Elemente der Menueleiste.
+   */
+  public List<UIControl<?>> getTopLevel()
+  {
+    return topLevel;
+  }
+
+  /**
+   * Liefert die Einträge ({@link UIMenu}s und {@link UIMenuItem}s) des Menüs menuId oder eine
+   * leere Liste, wenn das Menü keine Einträge hat.
+   */
+  public List<UIControl<?>> getChildren(String menuId)
+  {
+    List<UIControl<?>> list = children.get(menuId);
+    return list != null ? list : Collections.emptyList();
+  }
+
+  /**
+   * Liefert den Suchindex über die Menues. Er wird beim ersten Aufruf erzeugt.
+   */
+  public synchronized MenuSearchIndex getSearchIndex()
+  {
+    if (searchIndex == null)
+    {
+      ConfigThingy menues;
+      try
+      {
+        menues = wollmuxConf.get("Menues");
+      } catch (NodeNotFoundException e)
+      {
+        menues = new ConfigThingy("Menues");
+      }
+      searchIndex = new MenuSearchIndex(menues);
+    }
+    return searchIndex;
+  }
+
+  private static Set<String> readWollMuxBarConf(boolean allowUserConfig,
+      ConfigThingy wollmuxConf, File wollmuxbarConfFile)
+  {
+    ConfigThingy wollmuxbarConf = null;
+
+    if (wollmuxbarConfFile.exists())
+    {
+      if (allowUserConfig)
+      {
+        try
+        {
+          wollmuxbarConf =
+            new ConfigThingy("wollmuxbarConf", wollmuxbarConfFile.toURI().toURL());
+        }
+        catch (Exception x)
+        {
+          LOGGER.error(
+            L.m("Fehler beim Lesen von '%1'", wollmuxbarConfFile.toString()), x);
+        }
+      }
+      else
+      {
+        LOGGER.debug(L.m(
+          "Die Verwendung der Konfigurationsdatei '%1' ist deaktiviert. Sie wird nicht ausgewertet!",
+          wollmuxbarConfFile.toString()));
+      }
+    }
+
+    if (wollmuxbarConf == null) wollmuxbarConf = new ConfigThingy("wollmuxbarConf");
+
+    ConfigThingy combinedConf = new ConfigThingy("combinedConf");
+    combinedConf.addChild(wollmuxConf);
+    combinedConf.addChild(wollmuxbarConf);
+
+    try
+    {
+      LOGGER.debug(L.m("WollMuxBar gestartet"));
+
+      if (combinedConf.query("Symbolleisten").count() == 0)
+      {
+        LOGGER.error(WollMuxSidebarContent.WOLLMUX_CONFIG_ERROR_MESSAGE);
+        InfoDialog.showInfoModal(L.m("Fehlerhafte Konfiguration"),
+            WollMuxSidebarContent.WOLLMUX_CONFIG_ERROR_MESSAGE);
+      }
+      else
+      {
+        return readConfIds(wollmuxConf, wollmuxbarConf);
+      }
+    }
+    catch (Exception x)
+    {
+      LOGGER.error("", x);
+    }
+    return new HashSet<>();
+  }
+
+  private static Set<String> readConfIds(ConfigThingy defaultConf, ConfigThingy userConf)
+  {
+    Set<String> confIds = new HashSet<>();
+    ConfigThingy activeIds = new ConfigThingy("aciveIDs");
+    if (userConf != null)
+      activeIds = userConf.query("WollMuxBarKonfigurationen", 1).query("Aktiv", 2);
+    if (activeIds.count() == 0)
+      activeIds =
+        defaultConf.query("WollMuxBarKonfigurationen", 1).query("Aktiv", 2);
+
+    if (activeIds.count() > 0)
+    {
+      try
+      {
+        activeIds = activeIds.getLastChild();
+      }
+      catch (NodeNotFoundException x)
+      {}
+      for (ConfigThingy idConf : activeIds)
+      {
+        confIds.add(idConf.getName());
+      }
+    }
+    return confIds;
+  }
+}
@@ -1,8 +1,7 @@
 package de.muenchen.allg.itd51.wollmux.sidebar;
 
 import java.awt.SystemColor;
-import java.io.File;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -11,6 +10,10 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,9 +38,12 @@ import com.sun.star.awt.XTextComponent;
 import com.sun.star.awt.XToolkit;
 import com.sun.star.awt.XWindow;
 import com.sun.star.awt.XWindowPeer;
+import com.sun.star.awt.tree.ExpandVetoException;
+import com.sun.star.awt.tree.TreeExpansionEvent;
 import com.sun.star.awt.tree.XMutableTreeDataModel;
 import com.sun.star.awt.tree.XMutableTreeNode;
 import com.sun.star.awt.tree.XTreeControl;
+import com.sun.star.awt.tree.XTreeExpansionListener;
 import com.sun.star.beans.MethodConcept;
 import com.sun.star.beans.PropertyVetoException;
 import com.sun.star.beans.UnknownPropertyException;
@@ -46,7 +52,6 @@ import com.sun.star.beans.XIntrospectionAccess;
 import com.sun.star.beans.XPropertySet;
 import com.sun.star.lang.DisposedException;
 import com.sun.star.lang.EventObject;
-import com.sun.star.lang.IndexOutOfBoundsException;
 import com.sun.star.lang.NoSuchMethodException;
 import com.sun.star.lang.WrappedTargetException;
 import com.sun.star.lang.XMultiComponentFactory;
@@ -74,7 +79,6 @@ import de.muenchen.allg.itd51.wollmux.core.dialog.adapter.AbstractMouseListener;
 import de.muenchen.allg.itd51.wollmux.core.dialog.adapter.AbstractTextListener;
 import de.muenchen.allg.itd51.wollmux.core.dialog.adapter.AbstractWindowListener;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
-import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.db.DatasourceJoinerFactory;
 import de.muenchen.allg.itd51.wollmux.dialog.InfoDialog;
@@ -127,6 +131,19 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     SUPPORTED_ACTIONS.add("options");
   }
 
+  /**
+   * Verzögerung in Millisekunden, nach der eine Suche ausgeführt wird. Tippt der Benutzer
+   * schneller, wird nur die letzte Eingabe gesucht.
+   */
+  private static final long SEARCH_DELAY = 150;
+
+  private static final ScheduledExecutorService SEARCH_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "WollMux-Search");
+        t.setDaemon(true);
+        return t;
+      });
+
   public static final String WOLLMUX_CONFIG_ERROR_MESSAGE =
       L.m("Aus Ihrer WollMux-Konfiguration konnte kein Abschnitt \"Symbolleisten\" gelesen werden. "
         + "Die WollMux-Leiste kann daher nicht gestartet werden. Bitte überprüfen Sie, ob in Ihrer wollmux.conf "
@@ -153,9 +170,21 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
 
   private XMutableTreeDataModel dataModel;
 
-  private Map<String, XMutableTreeNode> menus;
+  /**
+   * Die noch nicht aufgeklappten Menüs (DataValue des Knotens → Menü-ID).
+   */
+  private Map<String, String> lazyMenus;
   private Map<String, UIElementAction> actions;
-  private Map<String, UIElementAction> searchActions;
+
+  /**
+   * Die aktuell im Suchergebnis angezeigten Einträge.
+   */
+  private volatile List<UIMenuItem> searchResults = Collections.emptyList();
+
+  /**
+   * Die noch nicht ausgeführte Suche.
+   */
+  private ScheduledFuture<?> pendingSearch;
 
   private XTreeControl tree;
 
@@ -186,6 +215,65 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     }
   };
 
+  /**
+   * Erzeugt die Einträge eines Menüs erst, wenn der Knoten zum ersten Mal aufgeklappt wird.
+   */
+  private XTreeExpansionListener xExpansionListener = new XTreeExpansionListener()
+  {
+    @Override
+    public void requestChildNodes(TreeExpansionEvent event)
+    {
+      try
+      {
+        XMutableTreeNode node = UnoRuntime.queryInterface(XMutableTreeNode.class, event.Node);
+        if (node != null)
+        {
+          String menuId = lazyMenus.remove(node.getDataValue());
+          if (menuId != null)
+          {
+            appendMenuEntries(node, menuId);
+          }
+          node.setHasChildrenOnDemand(false);
+        }
+      } catch (Exception ex)
+      {
+        LOGGER.error("", ex);
+      }
+    }
+
+    @Override
+    public void treeExpanding(TreeExpansionEvent event) throws ExpandVetoException
+    {
+      // nichts zu tun
+    }
+
+    @Override
+    public void treeCollapsing(TreeExpansionEvent event) throws ExpandVetoException
+    {
+      // nichts zu tun
+    }
+
+    @Override
+    public void treeExpanded(TreeExpansionEvent event)
+    {
+      // nichts zu tun
+    }
+
+    @Override
+    public void treeCollapsed(TreeExpansionEvent event)
+    {
+      // nichts zu tun
+    }
+
+    @Override
+    public void disposing(EventObject event)
+    {
+      // nichts zu tun
+    }
+  };
+
+  private SidebarMenuModel menuModel;
+
   private UIFactory uiFactory;
 
   private AbstractWindowListener windowAdapter = new AbstractWindowListener()
@@ -202,9 +290,8 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     this.context = context;
     this.parentWindow = parentWindow;
 
-    menus = new HashMap<>();
+    lazyMenus = new HashMap<>();
     actions = new HashMap<>();
-    searchActions = new HashMap<>();
 
     this.parentWindow.addWindowListener(this.windowAdapter);
     layout = new VerticalLayout(5, 5);
@@ -232,16 +319,6 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
 
     ConfigThingy conf = WollMuxFiles.getWollmuxConf();
 
-    boolean allowUserConfig = true;
-    try
-    {
-      allowUserConfig =
-        conf.query(ALLOW_USER_CONFIG, 1).getLastChild().toString().equalsIgnoreCase(
-          "true");
-    }
-    catch (NodeNotFoundException e)
-    {}
-
     XMultiComponentFactory xMCF =
       UnoRuntime.queryInterface(XMultiComponentFactory.class,
         context.getServiceManager());
@@ -272,7 +349,8 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
           layout.addControl(txt);
         } else
         {
-          readWollMuxBarConf(allowUserConfig, conf);
+          menuModel = SidebarMenuModel.getInstance();
+          confIds = menuModel.getConfIds();
 
           dataModel = GuiFactory.createTreeModel(xMCF, context);
 
@@ -286,6 +364,7 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
 
           XWindow treeWnd = UnoRuntime.queryInterface(XWindow.class, treeCtrl);
           treeWnd.addMouseListener(xMouseListener);
+          tree.addTreeExpansionListener(xExpansionListener);
 
           XControl line =
               GuiFactory.createHLine(xMCF, context, toolkit, parentWindowPeer,
@@ -296,21 +375,12 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
           uiFactory = new UIFactory();
           uiFactory.addElementCreateListener(this);
 
-          ConfigThingy menubar = conf.query("Menueleiste");
-          ConfigThingy menuConf = conf.query("Menues");
-
-          if (menubar.count() > 0)
+          for (UIControl<?> element : menuModel.getTopLevel())
           {
-            uiFactory.createUIElements(new UIElementContext(), null,
-              menubar.getLastChild(), false, confIds);
-
-            for (ConfigThingy menuDef : menuConf.getLastChild())
-            {
-              uiFactory.createUIElements(new UIElementContext(), menuDef,
-                menuDef.getLastChild(), true, confIds);
-            }
+            createControl(element);
           }
 
+          ConfigThingy menuConf = conf.query("Menues");
           ConfigThingy bkl = conf.query("Symbolleisten").query("Briefkopfleiste");
           uiFactory.createUIElements(new UIElementContext(), menuConf,
             bkl.getLastChild(), false, confIds);
@@ -363,86 +433,6 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     return 300;
   }
 
-  private void readWollMuxBarConf(boolean allowUserConfig, ConfigThingy wollmuxConf)
-  {
-    ConfigThingy wollmuxbarConf = null;
-    File wollmuxbarConfFile =
-      new File(WollMuxFiles.getWollMuxDir(), WOLLMUXBAR_CONF);
-
-    if (wollmuxbarConfFile.exists())
-    {
-      if (allowUserConfig)
-      {
-        try
-        {
-          wollmuxbarConf =
-            new ConfigThingy("wollmuxbarConf", wollmuxbarConfFile.toURI().toURL());
-        }
-        catch (Exception x)
-        {
-          LOGGER.error(
-            L.m("Fehler beim Lesen von '%1'", wollmuxbarConfFile.toString()), x);
-        }
-      }
-      else
-      {
-        LOGGER.debug(L.m(
-          "Die Verwendung der Konfigurationsdatei '%1' ist deaktiviert. Sie wird nicht ausgewertet!",
-          wollmuxbarConfFile.toString()));
-      }
-    }
-
-    if (wollmuxbarConf == null) wollmuxbarConf = new ConfigThingy("wollmuxbarConf");
-
-    ConfigThingy combinedConf = new ConfigThingy("combinedConf");
-    combinedConf.addChild(wollmuxConf);
-    combinedConf.addChild(wollmuxbarConf);
-
-    try
-    {
-      LOGGER.debug(L.m("WollMuxBar gestartet"));
-
-      if (combinedConf.query("Symbolleisten").count() == 0)
-      {
-        LOGGER.error(WOLLMUX_CONFIG_ERROR_MESSAGE);
-        InfoDialog.showInfoModal(L.m("Fehlerhafte Konfiguration"), WOLLMUX_CONFIG_ERROR_MESSAGE);
-      }
-      else
-      {
-        readConfIds(wollmuxConf, wollmuxbarConf);
-      }
-    }
-    catch (Exception x)
-    {
-      LOGGER.error("", x);
-    }
-  }
-
-  private void readConfIds(ConfigThingy defaultConf, ConfigThingy userConf)
-  {
-    this.confIds = new HashSet<>();
-    ConfigThingy activeIds = new ConfigThingy("aciveIDs");
-    if (userConf != null)
-      activeIds = userConf.query("WollMuxBarKonfigurationen", 1).query("Aktiv", 2);
-    if (activeIds.count() == 0)
-      activeIds =
-        defaultConf.query("WollMuxBarKonfigurationen", 1).query("Aktiv", 2);
-
-    if (activeIds.count() > 0)
-    {
-      try
-      {
-        activeIds = activeIds.getLastChild();
-      }
-      catch (NodeNotFoundException x)
-      {}
-      for (ConfigThingy idConf : activeIds)
-      {
-        confIds.add(idConf.getName());
-      }
-    }
-  }
-
   @Override
   public void createControl(UIControl<?> element)
   {
@@ -476,31 +466,7 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
       }
       else if (element.getClass().equals(UIMenu.class))
       {
-        UIMenu menu = (UIMenu) element;
-
-        XMutableTreeNode node = dataModel.createNode(menu.getLabel(), false);
-        if (menu.getParent() == null)
-        {
-          ((XMutableTreeNode) dataModel.getRoot()).appendChild(node);
-        }
-        else
-        {
-          menus.get(menu.getParent()).appendChild(node);
-        }
-        menus.put(menu.getId(), node);
-      }
-      else if (element.getClass().equals(UIMenuItem.class))
-      {
-        UIMenuItem menuItem = (UIMenuItem) element;
-        if (menus.get(menuItem.getParent()) != null)
-        {
-          XMutableTreeNode node = dataModel.createNode(menuItem.getLabel(), false);
-          menus.get(menuItem.getParent()).appendChild(node);
-
-          UUID uuid = UUID.randomUUID();
-          actions.put(uuid.toString(), menuItem.getAction());
-          node.setDataValue(uuid.toString());
-        }
+        ((XMutableTreeNode) dataModel.getRoot()).appendChild(createMenuNode((UIMenu) element));
       }
     }
     catch (com.sun.star.uno.Exception e)
@@ -510,41 +476,45 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
   }
 
   /**
-   * Liefert true gdw. das durch button beschriebene Element ein button ist
-   * (TYPE-Attribut muss "button" sein) und alle in words enthaltenen strings ohne
-   * Beachtung der Groß-/Kleinschreibung im Wert des LABEL-Attributs (das natürlich
-   * vorhanden sein muss) vorkommen.
-   *
-   * @param button
-   *          Den ConfigThingy-Knoten, der ein UI-Element beschreibt, wie z.B.
-   *          "(TYPE 'button' LABEL 'Hallo' ...)"
-   * @param words
-   *          Diese Wörter müssen ALLE im LABEL vorkommen (ohne Beachtung der
-   *          Groß-/Kleinschreibung).
+   * Erzeugt einen Knoten für menu. Die Einträge des Menüs werden erst erzeugt, wenn der Knoten
+   * aufgeklappt wird (siehe {@link #appendMenuEntries(XMutableTreeNode, String)}).
    */
-  public static boolean buttonMatches(ConfigThingy button, String[] words)
+  private XMutableTreeNode createMenuNode(UIMenu menu)
   {
-    if (words == null || words.length == 0) return false;
-    String type = button.getString("TYPE", "");
-    if (!type.equals("button"))
-    {
-      return false;
-    }
-
-    String label = button.getString("LABEL", "");
-    if (label.isEmpty())
+    XMutableTreeNode node = dataModel.createNode(menu.getLabel(), false);
+    if (!menuModel.getChildren(menu.getId()).isEmpty())
     {
-      return false;
+      String uuid = UUID.randomUUID().toString();
+      lazyMenus.put(uuid, menu.getId());
+      node.setDataValue(uuid);
+      node.setHasChildrenOnDemand(true);
     }
+    return node;
+  }
 
-    for (String word : words)
+  /**
+   * Hängt die Einträge des Menüs menuId aus dem gemeinsamen {@link SidebarMenuModel} an node an.
+   */
+  private void appendMenuEntries(XMutableTreeNode node, String menuId)
+      throws com.sun.star.lang.IllegalArgumentException
+  {
+    for (UIControl<?> element : menuModel.getChildren(menuId))
     {
-      if (!label.toLowerCase().contains(word.toLowerCase()))
+      if (element.getClass().equals(UIMenu.class))
       {
-        return false;
+        node.appendChild(createMenuNode((UIMenu) element));
+      }
+      else if (element.getClass().equals(UIMenuItem.class))
+      {
+        UIMenuItem menuItem = (UIMenuItem) element;
+        XMutableTreeNode child = dataModel.createNode(menuItem.getLabel(), false);
+        node.appendChild(child);
+
+        UUID uuid = UUID.randomUUID();
+        actions.put(uuid.toString(), menuItem.getAction());
+        child.setDataValue(uuid.toString());
       }
     }
-    return true;
   }
 
   private void createSearchbox(UISearchbox element)
@@ -567,15 +537,16 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     AbstractItemListener resultListener = event -> {
       try
       {
-        XControl ctrl = UnoRuntime.queryInterface(XControl.class, event.Source);
-        XItemList items = UnoRuntime.queryInterface(XItemList.class, ctrl.getModel());
-        String uuid = (String) items.getItemData(event.Selected);
-        UIElementAction action = searchActions.get(uuid);
-        if (action != null)
+        List<UIMenuItem> results = searchResults;
+        if (event.Selected >= 0 && event.Selected < results.size())
         {
-          action.performAction();
+          UIElementAction action = results.get(event.Selected).getAction();
+          if (action != null)
+          {
+            action.performAction();
+          }
         }
-      } catch (IndexOutOfBoundsException e)
+      } catch (Exception e)
       {
         LOGGER.error("", e);
       }
@@ -587,52 +558,14 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     final XWindow wnd = UnoRuntime.queryInterface(XWindow.class, searchBox);
 
     AbstractTextListener tfListener = event -> {
-      String text = searchBox.getText();
-      XItemList items = UnoRuntime.queryInterface(XItemList.class,
-          UNO.XControl(resultBox).getModel());
-
-      if (text.length() > 0)
+      synchronized (this)
       {
-        String[] words = text.split("\\s+");
-        try
-        {
-          resultBox.removeItems((short) 0, resultBox.getItemCount());
-          searchActions.clear();
-
-          ConfigThingy menues = WollMuxFiles.getWollmuxConf().get("Menues");
-          ConfigThingy labels = menues.queryAll("LABEL", 4, true);
-
-          List<UIMenuItem> newItems = new ArrayList<>(labels.count());
-          for (ConfigThingy l : labels)
-          {
-            ConfigThingy type = l.query("TYPE");
-            if (type.count() != 0 && (type.getLastChild().toString().equals("button") || type.getLastChild().toString().equals("menu")))
-            {
-              ConfigThingy action = l.query("ACTION");
-              if (action.count() != 0)
-              {
-                if (buttonMatches(l, words))
-                {
-                  UIMenuItem item = (UIMenuItem) uiFactory.createUIMenuElement(null, l, "");
-                  newItems.add(item);
-                }
-              }
-            }
-          }
-
-          newItems.sort((item1, item2) -> item1.getLabel().compareTo(item2.getLabel()));
-          for (short n = 0; n < newItems.size(); n++)
-          {
-            items.insertItemText(n, newItems.get(n).getLabel());
-            UUID uuid = UUID.randomUUID();
-            searchActions.put(uuid.toString(), newItems.get(n).getAction());
-            items.setItemData(n, uuid.toString());
-          }
-        }
-        catch (Exception e)
+        if (pendingSearch != null)
         {
-          LOGGER.error("", e);
+          pendingSearch.cancel(false);
         }
+        pendingSearch = SEARCH_EXECUTOR.schedule(() -> search(searchBox, resultBox),
+            SEARCH_DELAY, TimeUnit.MILLISECONDS);
       }
     };
     searchBox.addTextListener(tfListener);
@@ -710,6 +643,37 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     layout.addControl(UNO.XControl(resultBox));
   }
 
+  /**
+   * Sucht den aktuellen Text von searchBox im Suchindex des {@link SidebarMenuModel} und zeigt
+   * die gefundenen Einträge in resultBox an. Ist der Text leer, bleibt das bisherige Ergebnis
+   * stehen.
+   */
+  private void search(XTextComponent searchBox, XListBox resultBox)
+  {
+    String text = searchBox.getText();
+    if (text.isEmpty())
+    {
+      return;
+    }
+
+    try
+    {
+      List<UIMenuItem> results = menuModel.getSearchIndex().search(text);
+      XItemList items = UnoRuntime.queryInterface(XItemList.class,
+          UNO.XControl(resultBox).getModel());
+      resultBox.removeItems((short) 0, resultBox.getItemCount());
+      searchResults = results;
+      for (short n = 0; n < results.size(); n++)
+      {
+        items.insertItemText(n, results.get(n).getLabel());
+      }
+    }
+    catch (Exception e)
+    {
+      LOGGER.error("", e);
+    }
+  }
+
   private void createSenderbox(UISenderbox uiSenderbox)
       throws com.sun.star.uno.Exception, NoSuchMethodException,
       InvocationTargetException
@@ -0,0 +1,255 @@
+/*
+ * Dateiname: MailDeliveryServiceTest.java
+ * Projekt  : WollMux
+ * Funktion : Tests für den Versand über wiederverwendete SMTP-Verbindungen
+ *
+ * Copyright (c) 2011-2019 Landeshauptstadt München
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the European Union Public Licence (EUPL),
+ * version 1.0 (or any later version).
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * European Union Public Licence for more details.
+ *
+ * You should have received a copy of the European Union Public Licence
+ * along with this program. If not, see
+ * http://ec.europa.eu/idabc/en/document/7330
+ */
+
+package de.muenchen.allg.itd51.wollmux.email;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MailDeliveryServiceTest
+{
+  private FakeSmtpServer server;
+
+  private MailServerSettings settings;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    server = new FakeSmtpServer();
+    settings = new MailServerSettings();
+    settings.setMailserver("localhost");
+    settings.setMailserverport(Integer.toString(server.getPort()));
+  }
+
+  @After
+  public void tearDown() throws IOException
+  {
+    MailDeliveryService.getInstance().closeIdleTransports();
+    server.close();
+  }
+
+  @Test
+  public void testSubmitDeliversMessage() throws Exception
+  {
+    CompletableFuture<Void> delivery = MailDeliveryService.getInstance()
+        .submit(createMessage("Erste Nachricht"), settings, () -> false);
+    delivery.get(10, TimeUnit.SECONDS);
+
+    assertEquals(1, server.getMessages().size());
+    assertTrue(server.getMessages().get(0).contains("Subject: Erste Nachricht"));
+  }
+
+  @Test
+  public void testSendReusesConnection() throws Exception
+  {
+    MailDeliveryService.getInstance().send(createMessage("Eins"), settings);
+    MailDeliveryService.getInstance().send(createMessage("Zwei"), settings);
+
+    assertEquals(2, server.getMessages().size());
+    assertEquals(1, server.getConnections());
+  }
+
+  @Test
+  public void testCanceledSubmitIsNotSent() throws Exception
+  {
+    CompletableFuture<Void> delivery = MailDeliveryService.getInstance()
+        .submit(createMessage("Abgebrochen"), settings, () -> true);
+    try
+    {
+      delivery.get(10, TimeUnit.SECONDS);
+      fail("Der Versand hätte abgebrochen werden müssen.");
+    } catch (CancellationException e)
+    {
+      // erwartet
+    }
+
+    assertTrue(server.getMessages().isEmpty());
+    assertEquals(0, server.getConnections());
+  }
+
+  @Test
+  public void testSubmitRestoresContextClassLoader() throws Exception
+  {
+    ClassLoader loader = new ClassLoader(getClass().getClassLoader())
+    {
+    };
+    Thread thread = Thread.currentThread();
+    ClassLoader previous = thread.getContextClassLoader();
+    thread.setContextClassLoader(loader);
+    try
+    {
+      // Bei voller Warteschlange versendet der aufrufende Thread selbst.
+      CompletableFuture<?>[] deliveries = new CompletableFuture<?>[30];
+      for (int i = 0; i < deliveries.length; i++)
+      {
+        deliveries[i] = MailDeliveryService.getInstance()
+            .submit(createMessage("Nachricht " + i), settings, () -> false);
+      }
+      CompletableFuture.allOf(deliveries).get(30, TimeUnit.SECONDS);
+
+      assertEquals(loader, thread.getContextClassLoader());
+      assertEquals(deliveries.length, server.getMessages().size());
+    } finally
+    {
+      thread.setContextClassLoader(previous);
+    }
+  }
+
+  private static Message createMessage(String subject) throws MessagingException
+  {
+    MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+    message.setFrom(new InternetAddress("absender@example.org"));
+    message.setRecipient(Message.RecipientType.TO, new InternetAddress("empfaenger@example.org"));
+    message.setSubject(subject);
+    message.setText("Hallo");
+    return message;
+  }
+
+  /**
+   * Ein minimaler SMTP-Server, der jede Nachricht annimmt und sich merkt.
+   */
+  private static class FakeSmtpServer
+  {
+    private final ServerSocket socket;
+
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private FakeSmtpServer() throws IOException
+    {
+      socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      Thread acceptor = new Thread(this::accept, "FakeSmtpServer");
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    private int getPort()
+    {
+      return socket.getLocalPort();
+    }
+
+    private List<String> getMessages()
+    {
+      return messages;
+    }
+
+    private int getConnections()
+    {
+      return connections.get();
+    }
+
+    private void close() throws IOException
+    {
+      socket.close();
+    }
+
+    private void accept()
+    {
+      while (!socket.isClosed())
+      {
+        try
+        {
+          Socket client = socket.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread(() -> handle(client), "FakeSmtpServer-Client");
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e)
+        {
+          // Server wurde geschlossen
+        }
+      }
+    }
+
+    private void handle(Socket client)
+    {
+      try (Socket s = client;
+          BufferedReader in = new BufferedReader(
+              new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+          Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))
+      {
+        reply(out, "220 localhost ESMTP");
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+          String command = line.toUpperCase();
+          if (command.startsWith("DATA"))
+          {
+            reply(out, "354 Ende mit <CRLF>.<CRLF>");
+            StringBuilder data = new StringBuilder();
+            while ((line = in.readLine()) != null && !".".equals(line))
+            {
+              data.append(line).append("\r\n");
+            }
+            messages.add(data.toString());
+            reply(out, "250 OK");
+          } else if (command.startsWith("QUIT"))
+          {
+            reply(out, "221 Bye");
+            return;
+          } else
+          {
+            reply(out, "250 OK");
+          }
+        }
+      } catch (IOException e)
+      {
+        // Verbindung wurde geschlossen
+      }
+    }
+
+    private static void reply(Writer out, String line) throws IOException
+    {
+      out.write(line + "\r\n");
+      out.flush();
+    }
+  }
+}